@@ -0,0 +1,230 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.pyrrhodb;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A non-blocking client: requests from any number of callers are pipelined
+ * over one Connection, and each returns a CompletableFuture. The server
+ * answers the requests on a connection one at a time and in order, so a
+ * single reader thread takes the replies off the socket and completes the
+ * futures in the order their requests were sent.
+ * executeUpdateAsync, commitAsync and rollbackAsync are sent at once,
+ * without waiting for the replies to earlier requests. The rows of a query
+ * are fetched from the server on demand, so executeQueryAsync is sent once
+ * the replies before it have been read, and requests made while its rows
+ * are being read are sent after it.
+ * A request the server rejects fails its own future only; if the connection
+ * is lost, every request still waiting fails, and so do any made later.
+ * The Connection should not be used directly while this is open.
+ * @author Malcolm
+ */
+public class AsyncConnection {
+    public final Connection conn;
+    final LinkedBlockingQueue<Pending<?>> pending =
+            new LinkedBlockingQueue<Pending<?>>();
+    final Thread reader;
+    Exception broken = null; // guarded by conn
+    boolean holding = false; // requests wait for a query: guarded by conn
+    /** The send and receive halves of a request */
+    static abstract class Request<T> {
+        void send() throws Exception {}
+        abstract T receive() throws Exception;
+    }
+    static class Pending<T> {
+        final Request<T> req;
+        final CompletableFuture<T> result = new CompletableFuture<T>();
+        final boolean last; // from closeAsync
+        boolean sent = false;
+        Pending(Request<T> r,boolean l) { req = r; last = l; }
+        /** @throws IOException if the connection has been lost */
+        void receive() throws IOException
+        {
+            try {
+                result.complete(req.receive());
+            } catch (IOException e) {
+                result.completeExceptionally(e);
+                throw e;
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+        }
+    }
+    public AsyncConnection(Connection c)
+    {
+        conn = c;
+        reader = new Thread(new Runnable() {
+            public void run() { replies(); }
+        }, "AsyncConnection");
+        reader.setDaemon(true);
+        reader.start();
+    }
+    /** The reader thread */
+    void replies()
+    {
+        try {
+            for (;;)
+            {
+                Pending<?> p = pending.take();
+                if (!p.sent)
+                    synchronized(conn)
+                    {
+                        try {
+                            p.req.send();
+                        } catch (Exception e) {
+                            p.result.completeExceptionally(e);
+                            throw e;
+                        }
+                    }
+                p.receive();
+                synchronized(conn)
+                {
+                    if (pending.isEmpty())
+                        holding = false;
+                }
+                if (p.last)
+                    return;
+            }
+        } catch (Exception e) {
+            synchronized(conn)
+            {
+                broken = e;
+            }
+            for (Pending<?> p; (p = pending.poll())!=null;)
+                p.result.completeExceptionally(e);
+        }
+    }
+    /** Send a request (unless it has to wait for a query) and queue its
+     * reply. Both are done under the connection's lock, so that requests
+     * leave in the same order as their replies are queued. */
+    <T> CompletableFuture<T> submit(Request<T> r,boolean query)
+    {
+        Pending<T> p = new Pending<T>(r,false);
+        synchronized(conn)
+        {
+            if (broken!=null)
+            {
+                p.result.completeExceptionally(broken);
+                return p.result;
+            }
+            if (query)
+                holding = true;
+            if (!holding)
+                try {
+                    r.send();
+                    p.sent = true;
+                } catch (Exception e) {
+                    conn.out.wcount = 2; // drop what was written
+                    p.result.completeExceptionally(e);
+                    return p.result;
+                }
+            pending.add(p);
+        }
+        return p.result;
+    }
+    /** @return the number of rows affected */
+    public CompletableFuture<Integer> executeUpdateAsync(final String sql)
+    {
+        return submit(new Request<Integer>() {
+            void send() throws Exception
+            {
+                conn.AcquireTransaction();
+                conn.Send((byte)2,sql);
+                conn.out.flush();
+            }
+            Integer receive() throws Exception
+            {
+                if (conn.Receive()!=11)
+                    throw new DatabaseException("2E203");
+                return conn.GetInt();
+            }
+        },false);
+    }
+    /** @return the rows of the result, each with a value for each column */
+    public CompletableFuture<List<Object[]>> executeQueryAsync(final String sql)
+    {
+        return submit(new Request<List<Object[]>>() {
+            List<Object[]> receive() throws Exception
+            {
+                List<Object[]> r = new ArrayList<Object[]>();
+                conn.rdr = null;
+                ResultSet rs = conn.createStatement().executeQuery(sql);
+                if (rs==null || conn.rdr==null)
+                    return r;
+                int n = rs.getResultSetMetaData().getColumnCount();
+                while (rs.next())
+                {
+                    Object[] row = new Object[n];
+                    for (int i=0;i<n;i++)
+                        row[i] = rs.getObject(i+1);
+                    r.add(row);
+                }
+                rs.close();
+                return r;
+            }
+        },true);
+    }
+    public CompletableFuture<Void> commitAsync()
+    {
+        return submit(end((byte)7),false);
+    }
+    public CompletableFuture<Void> rollbackAsync()
+    {
+        return submit(end((byte)8),false);
+    }
+    /** Commit (7) or Rollback (8): as for Connection, nothing is sent
+     * unless a transaction is active */
+    Request<Void> end(final byte proto)
+    {
+        return new Request<Void>() {
+            boolean active;
+            void send() throws Exception
+            {
+                active = conn.transactionActive;
+                if (active)
+                {
+                    conn.Send(proto);
+                    conn.out.flush();
+                }
+                conn.transactionActive = false;
+            }
+            Void receive() throws Exception
+            {
+                if (active && conn.Receive()!=11)
+                    throw new DatabaseException("2E203");
+                return null;
+            }
+        };
+    }
+    /** Requests already made are completed before the socket is closed;
+     * later ones fail. */
+    public CompletableFuture<Void> closeAsync()
+    {
+        Pending<Void> p = new Pending<Void>(new Request<Void>() {
+            Void receive()
+            {
+                conn.close();
+                return null;
+            }
+        },true);
+        synchronized(conn)
+        {
+            if (broken!=null)
+            {
+                p.result.complete(null);
+                return p.result;
+            }
+            broken = new IOException("Connection is closed");
+            p.sent = true;
+            pending.add(p);
+        }
+        return p.result;
+    }
+}
@@ -22,6 +22,7 @@ public class Connection {
     PyrrhoInputStream inp;
     PyrrhoOutputStream out;
     Crypt crypt;
+    Socket sock;
     boolean autoCommit = true;
     boolean transactionActive = false;
     /* values other than TRANSACTION_SERIALIZABLE are ignored */
@@ -45,7 +46,7 @@ public class Connection {
         String ps = properties.get("Port");
         if (ps==null)
             ps = "5433";
-        Socket sock = new Socket(hostName,Integer.parseInt(ps));
+        sock = new Socket(hostName,Integer.parseInt(ps));
         out = new PyrrhoOutputStream(sock.getOutputStream());
         inp = new PyrrhoInputStream(sock.getInputStream());
         crypt = new Crypt(inp,out);
@@ -109,7 +110,41 @@ public class Connection {
         transactionActive = false;
     }
     public void close()
-    {}
+    {
+        try {
+            sock.close();
+        } catch (IOException e) {}
+    }
+    /** Whether the socket has been closed at this end */
+    public boolean isClosed()
+    {
+        return sock.isClosed() || !sock.isConnected() 
+                || sock.isInputShutdown() || sock.isOutputShutdown();
+    }
+    /** Used by ConnectionPool to validate a connection on borrow.
+     * Nothing should be waiting to be read on an idle connection, so a read
+     * that gives up after a millisecond tells a live server (the read times
+     * out) from one that has closed the connection (end of input or a reset)
+     * @return whether the connection can be used */
+    public boolean isAlive()
+    {
+        if (isClosed() || inp.rpos<inp.rcount+2) // unread data
+            return false;
+        try {
+            int t = sock.getSoTimeout();
+            sock.setSoTimeout(1);
+            try {
+                sock.getInputStream().read(); // end of input, or stray data
+                return false;
+            } catch (SocketTimeoutException e) {
+                return true;
+            } finally {
+                sock.setSoTimeout(t);
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
     Object[] getResults(String sql)
     {
         return null;
@@ -0,0 +1,163 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.pyrrhodb;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+/**
+ * A thread-safe pool of Connections that share the same connection
+ * properties. Connections are validated on borrow (by a brief read that
+ * detects a connection the server has closed), rolled back and reset
+ * to autoCommit on return, and closed after being idle for maxIdle
+ * milliseconds (as long as more than minSize are open).
+ * @author Malcolm
+ */
+public class ConnectionPool {
+    final HashMap<String,String> properties;
+    public final int minSize;
+    public final int maxSize;
+    public final long maxIdle;
+    final ArrayDeque<Idle> idle = new ArrayDeque<Idle>();
+    int open = 0;
+    boolean closed = false;
+    static class Idle {
+        final Connection conn;
+        final long since;
+        Idle(Connection c,long t) { conn = c; since = t; }
+    }
+    public ConnectionPool(HashMap<String,String> props,int min,int max,
+            long maxIdle) throws IOException
+    {
+        if (min<0 || max<1 || min>max)
+            throw new IllegalArgumentException("Bad pool size "+min+".."+max);
+        properties = new HashMap<String,String>(props);
+        minSize = min;
+        maxSize = max;
+        this.maxIdle = maxIdle;
+        for (int j=0;j<min;j++)
+        {
+            idle.push(new Idle(new Connection(properties),
+                    System.currentTimeMillis()));
+            open++;
+        }
+    }
+    /** Obtain a connection, waiting while maxSize connections are in use
+     * @return an open Connection
+     * @throws IOException
+     * @throws InterruptedException */
+    public Connection getConnection() throws IOException, InterruptedException
+    {
+        for (;;)
+        {
+            Idle e;
+            synchronized(this)
+            {
+                for (;;)
+                {
+                    if (closed)
+                        throw new IOException("Connection pool is closed");
+                    evict();
+                    e = idle.poll();
+                    if (e!=null || open<maxSize)
+                        break;
+                    wait();
+                }
+                if (e==null)
+                    open++; // reserve a slot, connect outside the lock
+            }
+            if (e==null)
+                break;
+            if (e.conn.isAlive()) // probe outside the lock
+                return e.conn;
+            synchronized(this)
+            {
+                discard(e.conn);
+            }
+        }
+        try {
+            return new Connection(properties);
+        } catch (IOException ex) {
+            synchronized(this)
+            {
+                open--;
+                notify();
+            }
+            throw ex;
+        }
+    }
+    /** Return a connection to the pool. An active transaction is rolled back;
+     * if that fails the connection is closed instead of being reused.
+     * @param c the connection */
+    public void release(Connection c)
+    {
+        if (c.transactionActive)
+        {
+            try {
+                c.rollback();
+            } catch (IOException | DatabaseException ex) {
+                synchronized(this)
+                {
+                    discard(c);
+                }
+                return;
+            }
+        }
+        c.transactionActive = false;
+        c.autoCommit = true;
+        c.rdr = null;
+        c.warnings.clear();
+        c.posted.clear();
+        synchronized(this)
+        {
+            if (closed || c.isClosed())
+                discard(c);
+            else
+            {
+                idle.push(new Idle(c,System.currentTimeMillis()));
+                notify();
+            }
+            evict();
+        }
+    }
+    /** Close connections idle for longer than maxIdle, oldest first.
+     * Caller holds the lock */
+    void evict()
+    {
+        long now = System.currentTimeMillis();
+        while (open>minSize)
+        {
+            Idle e = idle.peekLast();
+            if (e==null || now-e.since<maxIdle)
+                break;
+            idle.pollLast();
+            discard(e.conn);
+        }
+    }
+    /** Caller holds the lock */
+    void discard(Connection c)
+    {
+        c.close();
+        open--;
+        notify();
+    }
+    public synchronized int idleCount()
+    {
+        return idle.size();
+    }
+    public synchronized int openCount()
+    {
+        return open;
+    }
+    /** Close idle connections now, and borrowed ones when released */
+    public synchronized void close()
+    {
+        closed = true;
+        for (Idle e = idle.poll();e!=null;e = idle.poll())
+            discard(e.conn);
+        notifyAll();
+    }
+}
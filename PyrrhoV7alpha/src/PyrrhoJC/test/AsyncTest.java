@@ -0,0 +1,82 @@
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import org.pyrrhodb.*;
+
+/*
+ * AsyncConnection against a Pyrrho server on port 5433 and database def,
+ * as for JCTest. Requests are made before the replies to earlier ones
+ * have been read: each future should get its own reply.
+ * The next message should be 'Testing complete'
+ */
+public class AsyncTest
+{
+  public static void main(String args[]) throws Exception
+  {
+      Connection conn = DriverManager.getConnection ("def","Student","password");
+      Statement stmt = conn.createStatement();
+      try {
+          stmt.executeUpdate("drop table a");
+      } catch (Exception e) {}
+      stmt.executeUpdate("create table a(k int primary key,v char)");
+      final AsyncConnection a = new AsyncConnection(conn);
+      CompletableFuture<Integer> f1 = a.executeUpdateAsync("insert into a values(1,'a1')");
+      CompletableFuture<Integer> f2 = a.executeUpdateAsync("insert into a values(2,'a2'),(3,'a3')");
+      CompletableFuture<Integer> f3 = a.executeUpdateAsync("insert into a values(2,'dup')");
+      CompletableFuture<Integer> f4 = a.executeUpdateAsync("update a set v='b3' where k=3");
+      CompletableFuture<List<Object[]>> f5 = a.executeQueryAsync("select * from a");
+      CompletableFuture<Integer> f6 = a.executeUpdateAsync("insert into a values(4,'a4')");
+      // several threads at once, each checking its own replies
+      final List<CompletableFuture<List<Object[]>>> qs =
+              new ArrayList<CompletableFuture<List<Object[]>>>();
+      final List<Integer> ks = new ArrayList<Integer>();
+      Thread[] ts = new Thread[4];
+      for (int i=0;i<ts.length;i++)
+      {
+          ts[i] = new Thread(new Runnable() {
+              public void run()
+              {
+                  for (int j=1;j<=4;j++)
+                  {
+                      CompletableFuture<List<Object[]>> f =
+                              a.executeQueryAsync("select v from a where k="+j);
+                      a.executeUpdateAsync("update a set v=v where k="+j);
+                      synchronized(qs)
+                      {
+                          qs.add(f);
+                          ks.add(j);
+                      }
+                  }
+              }
+          });
+          ts[i].start();
+      }
+      for (Thread t : ts)
+          t.join();
+      Check(1, f1.get(), 1);
+      Check(2, f2.get(), 2);
+      try {
+          f3.get();
+          System.out.println("Didnt get exception (3)");
+      } catch (Exception e) {}
+      Check(4, f4.get(), 1);
+      List<Object[]> r = f5.get();
+      if (r.size()!=3 || !"b3".equals(r.get(2)[1].toString()))
+          System.out.println("Unexpected rows (5)");
+      Check(6, f6.get(), 1);
+      for (int i=0;i<qs.size();i++)
+      {
+          List<Object[]> q = qs.get(i).get();
+          String v = (ks.get(i)==3)?"b3":("a"+ks.get(i));
+          if (q.size()!=1 || !v.equals(q.get(0)[0].toString()))
+              System.out.println("Wrong reply (7) for k="+ks.get(i));
+      }
+      a.closeAsync().get();
+      System.out.println("Testing complete");
+  }
+
+  static void Check(int q,int n,int e)
+  {
+      if (n!=e)
+          System.out.println("Expected "+e+" rows, got "+n+" ("+q+")");
+  }
+}
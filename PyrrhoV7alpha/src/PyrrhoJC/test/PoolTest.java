@@ -0,0 +1,152 @@
+import java.net.*;
+import java.util.*;
+import org.pyrrhodb.*;
+
+/*
+ * ConnectionPool against a Pyrrho server on port 5433 and database def,
+ * as for JCTest. The pool reaches the server through a Relay, so that the
+ * test can close a pooled connection at the server end.
+ * The next message should be 'Testing complete'
+ */
+public class PoolTest
+{
+  static Connection conn;
+  public static void main(String args[]) throws Exception
+  {
+      conn = DriverManager.getConnection ("def","Student","password");
+      CreateTable();
+      Relay relay = new Relay(5433);
+      HashMap<String,String> props = new HashMap<String,String>();
+      props.put("Files","def");
+      props.put("User", System.getProperty("user.name"));
+      props.put("Role","def");
+      props.put("Port",""+relay.port);
+      ConnectionPool pool = new ConnectionPool(props,1,2,100);
+      // a transaction left open is rolled back on release
+      Connection c = pool.getConnection();
+      c.setAutoCommit(false);
+      c.createStatement().executeUpdate("insert into p values(2)");
+      Check(1, c, 2);
+      pool.release(c);
+      Connection d = pool.getConnection();
+      if (d!=c)
+          System.out.println("Connection not reused (2)");
+      Check(2, d, 1);
+      // idle connections beyond minSize are closed after maxIdle
+      Connection e = pool.getConnection();
+      pool.release(d);
+      pool.release(e);
+      Thread.sleep(200);
+      Connection f = pool.getConnection();
+      if (f!=e || pool.openCount()!=1)
+          System.out.println("Idle connection not evicted (3)");
+      pool.release(f);
+      // a connection closed at the server end is not lent out
+      relay.drop();
+      Connection g = pool.getConnection();
+      if (g==f)
+          System.out.println("Closed connection borrowed (4)");
+      Check(4, g, 1);
+      pool.release(g);
+      pool.close();
+      relay.close();
+      conn.close();
+      System.out.println("Testing complete");
+  }
+
+  static void CreateTable() throws Exception
+  {
+      Statement stmt = conn.createStatement();
+       try {
+           stmt.executeUpdate("drop table p");
+       } catch (Exception e) {}
+       stmt.executeUpdate("create table p(b int)");
+       stmt.executeUpdate("insert into p values(1)");
+  }
+
+  static void Check(int q,Connection c,int n)
+  {
+     try {
+       ResultSet rs = c.createStatement().executeQuery("select * from p");
+       int k = 0;
+       while (rs.next())
+           k++;
+       rs.close();
+       if (k!=n)
+           System.out.println("Expected "+n+" rows, got "+k+" ("+q+")");
+    }
+    catch(Exception e)
+    {
+        System.out.println("Exception ("+q+") "+e.getMessage());
+    }
+  }
+
+  /* Relays connections to the server on port to: drop closes the ones
+   * open so far, as a server restart would */
+  static class Relay
+  {
+      final ServerSocket listener;
+      final int port;
+      final ArrayList<Socket> socks = new ArrayList<Socket>();
+      Relay(final int to) throws Exception
+      {
+          listener = new ServerSocket(0);
+          port = listener.getLocalPort();
+          Thread t = new Thread(new Runnable() {
+              public void run()
+              {
+                  try {
+                      for (;;)
+                      {
+                          Socket a = listener.accept();
+                          Socket b = new Socket("localhost",to);
+                          synchronized(socks)
+                          {
+                              socks.add(a);
+                              socks.add(b);
+                          }
+                          pump(a,b);
+                          pump(b,a);
+                      }
+                  } catch (Exception e) {} // the listener has been closed
+              }
+          });
+          t.setDaemon(true);
+          t.start();
+      }
+      static void pump(final Socket from,final Socket to)
+      {
+          Thread t = new Thread(new Runnable() {
+              public void run()
+              {
+                  byte[] b = new byte[4096];
+                  try {
+                      for (int n = from.getInputStream().read(b);n>0;
+                              n = from.getInputStream().read(b))
+                          to.getOutputStream().write(b,0,n);
+                  } catch (Exception e) {}
+                  try {
+                      from.close();
+                      to.close();
+                  } catch (Exception e) {}
+              }
+          });
+          t.setDaemon(true);
+          t.start();
+      }
+      void drop() throws Exception
+      {
+          synchronized(socks)
+          {
+              for (Socket s : socks)
+                  s.close();
+              socks.clear();
+          }
+      }
+      void close() throws Exception
+      {
+          listener.close();
+          drop();
+      }
+  }
+}
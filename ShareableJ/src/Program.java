@@ -1,5 +1,9 @@
 
 import org.shareabledata.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
 /*
  * To change this license header, choose License Headers in Project Properties.
  * To change this template file, choose Tools | Templates
@@ -11,18 +15,29 @@ import org.shareabledata.*;
  */
 public class Program {
         static int test = 0, qry = 0;
-        boolean commit = false;
+        boolean commit = false, reload = false, durable = false;
         StrongConnect conn;
         Program(String[] args) throws Exception
         {
             conn = new StrongConnect("127.0.0.1", 50433, "testdb");
+            if (args.length >= 1 && args[0].compareTo("durable") == 0)
+            {
+                durable = true;
+                reload = args.length == 2 && args[1].compareTo("reload") == 0;
+                return;
+            }
             if (args.length >= 2)
             {
                 test = Integer.parseInt(args[0]);
                 qry = Integer.parseInt(args[1]);
             }
             if (args.length == 3)
-                commit = true;
+            {
+                if (args[2].compareTo("reload") == 0)
+                    reload = true;
+                else
+                    commit = true;
+            }
         }
         public static void main(String[] args)
         {
@@ -33,6 +48,12 @@ public class Program {
                 System.out.println("Test"); 
                 System.out.println("Test 10 0");
                 System.out.println("Test 0 0 commit");
+                System.out.println("After Test, restart the server keeping testdb, and");
+                System.out.println("Test 0 0 reload");
+                System.out.println("The reload tests (14 on) can also be run by themselves with");
+                System.out.println("Test durable");
+                System.out.println("and, after a restart keeping testdb,");
+                System.out.println("Test durable reload");
                 System.out.println("The next message should be 'Testing complete'");
                 new Program(args).Tests();
                 System.out.println("Testing complete");
@@ -53,6 +74,17 @@ public class Program {
                 conn.Rollback();
         }
         void Tests() throws Exception
+        {
+            if (!durable)
+                BasicTests();
+            Test14(test);
+            Test15(test);
+            Test16(test);
+            Test17(test);
+            Test18(test);
+            Test19(test);
+        }
+        void BasicTests() throws Exception
         {
             Test1(test);
             Test2(test);
@@ -522,7 +554,357 @@ public class Program {
             }
             Rollback();
         }
+        /// <summary>
+        /// The reload tests commit their tables so that "Test 0 0 reload" (or
+        /// "Test durable reload") can check them again after a restart. Each change is committed
+        /// explicitly so that it is written to the log.
+        /// </summary>
+        void Durable(String c) throws Exception
+        {
+            conn.BeginTransaction();
+            conn.ExecuteNonQuery(c);
+            conn.Commit();
+        }
+        void Test14(int t) throws Exception
+        {
+            if (t > 0 && t != 14)
+                return;
+            if (!reload)
+            {
+                Durable("create table RT(X integer primary key,Y integer,Z string)");
+                Durable("insert RT values(1,10,'One')");
+                Durable("insert RT values(2,20,'Two')");
+                Durable("insert RT values(3,10,'Three')");
+                Durable("insert RT values(4,30,'Four')");
+                Durable("create materialized view RV as select X,Z from RT where Y=10");
+                Durable("create materialized view RS as select Y,count(X) as N,sum(X) as S from RT groupby Y");
+                CheckResults(14, 1, "select from RV", "[{X:1,Z:'One'},{X:3,Z:'Three'}]");
+                CheckResults(14, 2, "select from RS",
+                        "[{Y:10,N:2,S:4},{Y:20,N:1,S:2},{Y:30,N:1,S:4}]");
+                Durable("insert RT values(5,10,'Five')");
+                Durable("update RT where X=2 set Y=10");
+                Durable("update RT where X=3 set Z='Drei'");
+                Durable("delete RT where X=1");
+            }
+            CheckResults(14, 3, "select from RV",
+                    "[{X:2,Z:'Two'},{X:3,Z:'Drei'},{X:5,Z:'Five'}]");
+            CheckResults(14, 4, "select from RS", "[{Y:10,N:3,S:10},{Y:30,N:1,S:4}]");
+            conn.BeginTransaction();
+            conn.ExecuteNonQuery("insert RT values(6,10,'Six')");
+            conn.ExecuteNonQuery("delete RT where X=5");
+            CheckResults(14, 5, "select from RV",
+                    "[{X:2,Z:'Two'},{X:3,Z:'Drei'},{X:6,Z:'Six'}]");
+            CheckResults(14, 6, "select from RS", "[{Y:10,N:3,S:11},{Y:30,N:1,S:4}]");
+            conn.Rollback();
+        }
+        void Test15(int t) throws Exception
+        {
+            if (t > 0 && t != 15)
+                return;
+            if (!reload)
+            {
+                Durable("create table RC(A integer primary key,B string)");
+                Durable("create table RD(C integer references RC,D integer)");
+                for (var i = 1; i <= 6; i++)
+                    Durable("insert RC values(" + i + ",'b" + i + "')");
+                Durable("update RC where A=2 set B='two'");
+                Durable("delete RC where A=5");
+                Durable("insert RD values(3,30)");
+                conn.Compact();
+            }
+            CheckResults(15, 1, "select from RC",
+                    "[{A:1,B:'b1'},{A:2,B:'two'},{A:3,B:'b3'},{A:4,B:'b4'},{A:6,B:'b6'}]");
+            CheckResults(15, 2, "select from RD", "[{C:3,D:30}]");
+            conn.BeginTransaction();
+            CheckExceptionNonQuery(15, 3, "insert RC values(3,'dup')",
+                    "Duplicate Key constraint violation");
+            CheckExceptionNonQuery(15, 4, "insert RD values(5,50)",
+                    "Referential constraint violation");
+            conn.ExecuteNonQuery("insert RC values(5,'five')");
+            conn.ExecuteNonQuery("insert RD values(5,50)");
+            CheckResults(15, 5, "select from RD", "[{C:3,D:30},{C:5,D:50}]");
+            conn.Rollback();
+        }
+        void Test16(int t) throws Exception
+        {
+            if (t > 0 && t != 16)
+                return;
+            if (!reload)
+            {
+                Durable("create table RM(K integer primary key,L integer,M string)");
+                for (var i = 1; i <= 10; i++)
+                    Durable("insert RM values(" + (i * 10) + "," + (i % 3) + ",'m" + i + "')");
+                Durable("delete RM where K=100");
+                Durable("delete RM where K=10");
+            }
+            CheckResults(16, 1, "select count(K),min(K),max(K) from RM",
+                    "[{col1:8,col2:20,col3:90}]");
+            CheckResults(16, 2, "select count(K) from RM where K=30", "[{col1:1}]");
+            CheckResults(16, 3, "select count(K) from RM where K=35", "[{col1:0}]");
+            CheckResults(16, 4, "select count(K),max(K) from RM where L=1",
+                    "[{col1:2,col2:70}]");
+            CheckResults(16, 5, "select min(M),max(M) from RM", "[{col1:'m2',col2:'m9'}]");
+            conn.BeginTransaction();
+            conn.ExecuteNonQuery("insert RM values(5,1,'m0')");
+            conn.ExecuteNonQuery("delete RM where K=90");
+            CheckResults(16, 6, "select count(K),min(K),max(K) from RM",
+                    "[{col1:8,col2:5,col3:80}]");
+            CheckResults(16, 7, "select count(K),max(K) from RM where L=1",
+                    "[{col1:3,col2:70}]");
+            conn.Rollback();
+        }
+        void Test17(int t) throws Exception
+        {
+            if (t > 0 && t != 17)
+                return;
+            if (!reload)
+            {
+                // the table is created and loaded in one transaction
+                conn.ExecuteNonQuery("create table RB(K integer primary key,V string)");
+                var rs = new java.util.ArrayList<Serialisable[]>();
+                for (var i = 1; i <= 5; i++)
+                    rs.add(new Serialisable[] { new SInteger(i), new SString("b" + i) });
+                conn.BulkLoad("RB", null, 2, rs);
+                CheckResults(17, 1, "select from RB",
+                        "[{K:1,V:'b1'},{K:2,V:'b2'},{K:3,V:'b3'},{K:4,V:'b4'},{K:5,V:'b5'}]");
+                conn.Commit();
+                // generated keys follow each other within a batch
+                rs.clear();
+                for (var i = 6; i <= 8; i++)
+                    rs.add(new Serialisable[] { new SString("b" + i) });
+                conn.BulkLoad("RB", new String[] { "V" }, 3, rs);
+                // a violation partway through a batch of several buffers
+                var s = new StringBuilder();
+                for (var i = 0; i < 600; i++)
+                    s.append('x');
+                rs.clear();
+                rs.add(new Serialisable[] { new SInteger(9), new SString(s.toString()) });
+                rs.add(new Serialisable[] { new SInteger(3), new SString(s.toString()) });
+                rs.add(new Serialisable[] { new SInteger(10), new SString(s.toString()) });
+                try
+                {
+                    conn.BulkLoad("RB", null, 3, rs);
+                    System.out.println("Didnt get exception (17 2)");
+                }
+                catch (Exception e)
+                {
+                    if (e.getMessage().compareTo("Duplicate Key constraint violation") != 0)
+                        System.out.println("Unexpected exception (17 2) " + e.getMessage());
+                }
+                rs.set(1, new Serialisable[] { new SString("3"), new SString(s.toString()) });
+                try
+                {
+                    conn.BulkLoad("RB", null, 3, rs);
+                    System.out.println("Didnt get exception (17 3)");
+                }
+                catch (Exception e)
+                {
+                    if (e.getMessage().compareTo("Expected integer got String") != 0)
+                        System.out.println("Unexpected exception (17 3) " + e.getMessage());
+                }
+            }
+            CheckResults(17, 4, "select from RB",
+                    "[{K:1,V:'b1'},{K:2,V:'b2'},{K:3,V:'b3'},{K:4,V:'b4'},{K:5,V:'b5'},"
+                    + "{K:6,V:'b6'},{K:7,V:'b7'},{K:8,V:'b8'}]");
+        }
 
+        /// <summary>
+        /// The pool reaches the server through a Relay, so that the test can
+        /// close a pooled connection at the server end
+        /// </summary>
+        void Test18(int t) throws Exception
+        {
+            if (t > 0 && t != 18)
+                return;
+            if (!reload)
+            {
+                Durable("create table RP(K integer primary key,V string)");
+                Durable("insert RP values(1,'p1')");
+                try (var relay = new Relay(50433))
+                {
+                    var pool = new StrongConnectionPool("127.0.0.1", relay.port,
+                            "testdb", 1, 2, 100);
+                    // a transaction left open is rolled back on return
+                    var c = pool.Borrow();
+                    c.BeginTransaction();
+                    c.ExecuteNonQuery("insert RP values(2,'p2')");
+                    CheckResults(c, 18, 1, "select from RP", "[{K:1,V:'p1'},{K:2,V:'p2'}]");
+                    pool.Return(c);
+                    var d = pool.Borrow();
+                    if (d != c)
+                        System.out.println("Connection not reused (18 2)");
+                    CheckResults(d, 18, 2, "select from RP", "[{K:1,V:'p1'}]");
+                    // idle connections beyond minSize are closed after maxIdle
+                    var e = pool.Borrow();
+                    pool.Return(d);
+                    pool.Return(e);
+                    Thread.sleep(200);
+                    var f = pool.Borrow();
+                    if (f != e || pool.Open() != 1)
+                        System.out.println("Idle connection not evicted (18 3)");
+                    pool.Return(f);
+                    // a connection closed at the server end is not lent out
+                    relay.Drop();
+                    var g = pool.Borrow();
+                    if (g == f)
+                        System.out.println("Closed connection borrowed (18 4)");
+                    CheckResults(g, 18, 4, "select from RP", "[{K:1,V:'p1'}]");
+                    pool.Return(g);
+                    pool.Close();
+                }
+            }
+            CheckResults(18, 5, "select from RP", "[{K:1,V:'p1'}]");
+        }
+        /// <summary>
+        /// Requests on a StrongAsyncConnect are sent before the replies to
+        /// earlier ones are read: each future should get its own reply
+        /// </summary>
+        void Test19(int t) throws Exception
+        {
+            if (t > 0 && t != 19)
+                return;
+            if (!reload)
+            {
+                Durable("create table RA(K integer primary key,V string)");
+                var a = new StrongAsyncConnect("127.0.0.1", 50433, "testdb");
+                var cs = new String[] { "K", "V" };
+                var f1 = a.BeginTransactionAsync();
+                var f2 = a.ExecuteNonQueryAsync("insert RA values(1,'a1')");
+                var f3 = a.InsertAsync("RA", cs,
+                        new Serialisable[] { new SInteger(2), new SString("a2") },
+                        new Serialisable[] { new SInteger(3), new SString("a3") });
+                var f4 = a.ExecuteQueryAsync("select from RA where K=2");
+                var f5 = a.CommitAsync();
+                var f6 = a.ExecuteQueryAsync("select from RZ");
+                var f7 = a.BeginTransactionAsync();
+                var rs = new ArrayList<Serialisable[]>();
+                for (var i = 4; i <= 7; i++)
+                    rs.add(new Serialisable[] { new SInteger(i), new SString("a" + i) });
+                var f8 = a.BulkLoadAsync("RA", cs, 3, rs);
+                var f9 = a.CommitAsync();
+                // several threads at once, each checking its own replies
+                var ts = new Thread[4];
+                var qs = new ArrayList<CompletableFuture<DocArray>>();
+                var ks = new ArrayList<Integer>();
+                for (var i = 0; i < ts.length; i++)
+                {
+                    ts[i] = new Thread(() -> {
+                        for (var j = 1; j <= 7; j++)
+                        {
+                            var f = a.ExecuteQueryAsync("select V from RA where K=" + j);
+                            synchronized (qs)
+                            {
+                                qs.add(f);
+                                ks.add(j);
+                            }
+                        }
+                    });
+                    ts[i].start();
+                }
+                for (var th : ts)
+                    th.join();
+                var f10 = a.ExecuteQueryAsync("select from RA");
+                f1.get();
+                if (f2.get() != Types.Done)
+                    System.out.println("Unexpected reply (19 1) " + f2.get());
+                f3.get();
+                CheckResults(f4, 19, 2, "[{K:2,V:'a2'}]");
+                f5.get();
+                try
+                {
+                    f6.get();
+                    System.out.println("Didnt get exception (19 3)");
+                }
+                catch (Exception e)
+                {
+                    if (e.getCause().getMessage().compareTo("No table RZ") != 0)
+                        System.out.println("Unexpected exception (19 3) " + e.getMessage());
+                }
+                f7.get();
+                if (f8.get() != 4)
+                    System.out.println("Wrong row count (19 4) " + f8.get());
+                f9.get();
+                for (var i = 0; i < qs.size(); i++)
+                    CheckResults(qs.get(i), 19, 5, "[{V:'a" + ks.get(i) + "'}]");
+                CheckResults(f10, 19, 6, "[{K:1,V:'a1'},{K:2,V:'a2'},{K:3,V:'a3'},"
+                        + "{K:4,V:'a4'},{K:5,V:'a5'},{K:6,V:'a6'},{K:7,V:'a7'}]");
+                a.CloseAsync().get();
+            }
+            CheckResults(19, 7, "select from RA", "[{K:1,V:'a1'},{K:2,V:'a2'},{K:3,V:'a3'},"
+                    + "{K:4,V:'a4'},{K:5,V:'a5'},{K:6,V:'a6'},{K:7,V:'a7'}]");
+        }
+        /// <summary>
+        /// Relays connections to the server on port to: Drop closes the
+        /// ones open so far, as a server restart would
+        /// </summary>
+        static class Relay implements AutoCloseable
+        {
+            final ServerSocket listener;
+            final int port;
+            final ArrayList<Socket> socks = new ArrayList<>();
+            Relay(int to) throws Exception
+            {
+                listener = new ServerSocket(0);
+                port = listener.getLocalPort();
+                var t = new Thread(() -> {
+                    try
+                    {
+                        for (;;)
+                        {
+                            var a = listener.accept();
+                            var b = new Socket("127.0.0.1", to);
+                            synchronized (socks)
+                            {
+                                socks.add(a);
+                                socks.add(b);
+                            }
+                            Pump(a, b);
+                            Pump(b, a);
+                        }
+                    }
+                    catch (Exception e) { } // the listener has been closed
+                });
+                t.setDaemon(true);
+                t.start();
+            }
+            static void Pump(Socket from,Socket to)
+            {
+                var t = new Thread(() -> {
+                    var b = new byte[4096];
+                    try
+                    {
+                        var i = from.getInputStream();
+                        var o = to.getOutputStream();
+                        for (var n = i.read(b); n > 0; n = i.read(b))
+                            o.write(b, 0, n);
+                    }
+                    catch (Exception e) { }
+                    try
+                    {
+                        from.close();
+                        to.close();
+                    }
+                    catch (Exception e) { }
+                });
+                t.setDaemon(true);
+                t.start();
+            }
+            void Drop() throws Exception
+            {
+                synchronized (socks)
+                {
+                    for (var s : socks)
+                        s.close();
+                    socks.clear();
+                }
+            }
+            @Override
+            public void close() throws Exception
+            {
+                listener.close();
+                Drop();
+            }
+        }
         void CheckExceptionQuery(int t, int q, String c, String m)
         {
             if (qry > 0 && qry != q)
@@ -558,12 +940,28 @@ public class Program {
             System.out.println("Didnt get exception (" + t + " " + q + ") " + m);
         }
         void CheckResults(int t,int q,String c,String d)
+        {
+            CheckResults(conn, t, q, c, d);
+        }
+        void CheckResults(StrongConnect cn,int t,int q,String c,String d)
+        {
+            if (qry > 0 && qry != q)
+                return;
+            try
+            {
+                Check(cn.ExecuteQuery(c), new DocArray(d));
+            } catch(Exception e)
+            {
+                System.out.println("Exception (" + t + " " + q + ") " + e.getMessage());
+            }
+        }
+        void CheckResults(CompletableFuture<DocArray> f,int t,int q,String d)
         {
             if (qry > 0 && qry != q)
                 return;
             try
             {
-                Check(conn.ExecuteQuery(c), new DocArray(d));
+                Check(f.get(), new DocArray(d));
             } catch(Exception e)
             {
                 System.out.println("Exception (" + t + " " + q + ") " + e.getMessage());
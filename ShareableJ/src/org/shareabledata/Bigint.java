@@ -77,31 +77,25 @@ public class Bigint implements Comparable {
     }
 
     public Bigint(long iVal) {
-        if (iVal == 0) {
-            bytes = new byte[0];
-        } else if (iVal >= -127 && iVal <= 127) {
-            bytes = new byte[]{(byte) iVal};
-        } else {
-            ArrayList<Byte> v = new ArrayList<Byte>();
-            byte b = (iVal < 0) ? 0 : (byte) -1;
-            while (iVal != 0 && iVal != -1) {
-                b = (byte) (iVal & 0xff);
-                v.add(b);
-                iVal >>= 8;
-            }
-            if (iVal == -1 && b > 0) 
-                v.add((byte) -1);
-            if (iVal==0 && b<0)
-                v.add((byte)0);
-            var bs = new byte[v.size()];
-            int len = 0;
-            for (int j = v.size() - 1; j >= 0; j--) {
-                bs[len++] = v.get(j);
-            }
-            bytes = bs;
-        }
+        var n = Length(iVal);
+        var bs = new byte[n];
+        for (int j = 0; j < n; j++)
+            bs[j] = (byte) (iVal >> (8 * (n - 1 - j)));
+        bytes = bs;
     }
-    
+    /// <summary>
+    /// The number of bytes in the minimal two's complement representation
+    /// of a long (0 for zero): the length prefix used by PutInteger
+    /// </summary>
+    static int Length(long iVal) {
+        if (iVal == 0)
+            return 0;
+        int n = 1;
+        for (long h = iVal >> 7; n < 8 && h != 0 && h != -1; h >>= 8)
+            n++;
+        return n;
+    }
+
     int toInt()
     {
         int n = bytes.length; // better <4
@@ -23,6 +23,28 @@ public class Buffer {
         pos = 0;
     }
 
+    /// <summary>
+    /// Copy up to n bytes from the unread part of the buffer
+    /// </summary>
+    /// <returns>the number of bytes copied</returns>
+    int Get(byte[] b, int off, int n) {
+        var k = Math.min(n, len - pos);
+        if (k <= 0)
+            return 0;
+        System.arraycopy(buf, pos, b, off, k);
+        pos += k;
+        return k;
+    }
+    /// <summary>
+    /// Copy up to n bytes into the free part of the buffer
+    /// </summary>
+    /// <returns>the number of bytes copied</returns>
+    int Put(byte[] b, int off, int n) {
+        var k = Math.min(n, Size - pos);
+        System.arraycopy(b, off, buf, pos, k);
+        pos += k;
+        return k;
+    }
     Buffer(long s, int n){
         buf = new byte[Size];
         start = s;
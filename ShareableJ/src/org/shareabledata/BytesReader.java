@@ -0,0 +1,33 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.shareabledata;
+/**
+ *
+ * @author Malcolm
+ * Decodes from a byte array (see BytesWriter)
+ * This class is not shareable
+ */
+public class BytesReader extends ReaderBase {
+        final byte[] bytes;
+        public BytesReader(byte[] b)
+        {
+            bytes = b;
+            buf.len = b.length;
+        }
+        @Override
+        public int ReadByte()
+        {
+            return (buf.pos < bytes.length) ? bytes[buf.pos++] : -1;
+        }
+        @Override
+        public int ReadBytes(byte[] b,int off,int n)
+        {
+            n = Math.min(n, bytes.length - buf.pos);
+            System.arraycopy(bytes, buf.pos, b, off, n);
+            buf.pos += n;
+            return n;
+        }
+}
@@ -0,0 +1,44 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.shareabledata;
+import java.util.*;
+/**
+ *
+ * @author Malcolm
+ * Serialises into a growing byte array: used for index pages and for
+ * record payloads that are to be compressed.
+ * This class is not shareable
+ */
+public class BytesWriter extends WriterBase {
+        public byte[] bytes = new byte[Buffer.Size];
+        public int len = 0;
+        void Reserve(int n)
+        {
+            if (len + n > bytes.length)
+                bytes = Arrays.copyOf(bytes, Math.max(2 * bytes.length, len + n));
+        }
+        @Override
+        public void WriteByte(byte b)
+        {
+            Reserve(1);
+            bytes[len++] = b;
+        }
+        @Override
+        public void WriteBytes(byte[] b,int off,int n)
+        {
+            Reserve(n);
+            System.arraycopy(b, off, bytes, len, n);
+            len += n;
+        }
+        /// <summary>
+        /// Overwrite a 4-byte length at position p
+        /// </summary>
+        void PutLength(int p,int n)
+        {
+            for (var j = 0; j < 4; j++)
+                bytes[p + j] = (byte)(n >> (8 * (3 - j)));
+        }
+}
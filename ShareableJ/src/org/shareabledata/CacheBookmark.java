@@ -0,0 +1,35 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.shareabledata;
+
+/**
+ *
+ * @author Malcolm
+ * The single row of the _Cache system table: the counts of the server's
+ * ResultCache
+ */
+public class CacheBookmark extends RowBookmark {
+        public final SysRows _srs;
+        CacheBookmark(SysRows rs,long[] c) throws Exception
+        {
+            super(rs,_Cx(rs,rs._Row(new SInteger(new Bigint(c[0])), // Hits
+                    new SInteger(new Bigint(c[1])), // Misses
+                    new SInteger(new Bigint(c[2])), // Invalidated
+                    new SInteger(new Bigint(c[3])), // Evicted
+                    new SInteger(new Bigint(c[4])), // Entries
+                    new SInteger(new Bigint(c[5]))),null),0); // Bytes
+            _srs = rs;
+        }
+        public static CacheBookmark New(SysRows rs) throws Exception
+        {
+            return new CacheBookmark(rs, ResultCache.Counts());
+        }
+        @Override
+        public Bookmark<Serialisable> Next()
+        {
+            return null;
+        }
+}
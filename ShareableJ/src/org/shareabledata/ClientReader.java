@@ -16,14 +16,14 @@ public class ClientReader extends SocketReader
         boolean getting;
         public ClientReader(Socket c)  throws Exception
         { super(c); } 
-        public boolean GetBuf(long p) // parameter is ignored
+        public boolean GetBuf(long p) throws Exception // parameter is ignored
         {
             getting = true;
             int rcount;
             try
             {
-                var rc = client.getInputStream().read(buf.buf, Buffer.Size, 0);
-                if (rc == 0)
+                var rc = Fill();
+                if (rc < 2)
                 {
                     rcount = 0;
                     getting = false;
@@ -36,6 +36,11 @@ public class ClientReader extends SocketReader
                 getting = false;
                 return rcount > 0;
             }
+            catch (ServerException e)
+            {
+                getting = false;
+                throw e;
+            }
             catch (Exception e)
             {
                 return false;
@@ -45,6 +50,7 @@ public class ClientReader extends SocketReader
         // an illegal nonzero rcount value indicates an exception
         int GetException() throws Exception
         {
+            buf.pos = 2;
             var rcount = (buf.buf[buf.pos++] << 7) + (buf.buf[buf.pos++] & 0x7f);
             buf.len = rcount + 4;
             var b = buf.buf[buf.pos++];
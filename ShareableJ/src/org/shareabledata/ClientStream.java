@@ -25,9 +25,25 @@ public class ClientStream {
             rdr.buf.len = 0;
         }
         public ClientTriple Receive() throws Exception
+        {
+            Send();
+            return Reply();
+        }
+        /// <summary>
+        /// Send the request written so far. The server answers each request
+        /// with one reply, in order, so several requests can be sent before
+        /// the first reply is read (see StrongAsyncConnect).
+        /// </summary>
+        void Send() throws Exception
         {
             if (wtr.buf.pos > 2)
                 wtr.PutBuf();
+        }
+        /// <summary>
+        /// Read the start of the next reply: each reply begins a new buffer
+        /// </summary>
+        ClientTriple Reply() throws Exception
+        {
             rdr.buf.pos = 2;
             rdr.buf.len = 0;
             long ts = 0,te = 0;
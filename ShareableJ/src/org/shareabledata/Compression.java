@@ -0,0 +1,73 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.shareabledata;
+import java.util.zip.*;
+/**
+ *
+ * @author Malcolm
+ * Compression of record payloads in the transaction log (see
+ * Writer.PutFields and SRecord). The fields of a record are deflated
+ * separately, so that each record keeps its own position, which is its uid.
+ * A compressed payload is flagged by a negative field count:
+ *   PutInt(-1) PutInt(raw length) PutInt(compressed length) bytes
+ * Old logs, and logs written with compression off, are read as before.
+ */
+public class Compression {
+        /// <summary>
+        /// Payloads shorter than this are written uncompressed. 0 turns
+        /// compression off, which is the default.
+        /// </summary>
+        public static volatile int minLength = 0;
+        /// <summary>
+        /// The field count that flags a compressed payload
+        /// </summary>
+        static final int Flag = -1;
+        static final ThreadLocal<Deflater> deflaters =
+                ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED, true));
+        static final ThreadLocal<Inflater> inflaters =
+                ThreadLocal.withInitial(() -> new Inflater(true));
+        /// <summary>
+        /// Compress the first n bytes of b
+        /// </summary>
+        /// <returns>the compressed bytes, or null if they would be no shorter</returns>
+        public static byte[] Deflate(byte[] b,int n)
+        {
+            var d = deflaters.get();
+            d.reset();
+            d.setInput(b, 0, n);
+            d.finish();
+            var r = new byte[n];
+            var m = 0;
+            while (!d.finished() && m < n)
+                m += d.deflate(r, m, n - m);
+            if (!d.finished())
+                return null;
+            var z = new byte[m];
+            System.arraycopy(r, 0, z, 0, m);
+            return z;
+        }
+        /// <summary>
+        /// Decompress z, which holds n bytes
+        /// </summary>
+        public static byte[] Inflate(byte[] z,int n) throws Exception
+        {
+            var f = inflaters.get();
+            f.reset();
+            f.setInput(z);
+            var r = new byte[n];
+            var m = 0;
+            while (m < n && !f.finished())
+            {
+                var k = f.inflate(r, m, n - m);
+                if (k == 0 && (f.needsInput() || f.needsDictionary()))
+                    break;
+                m += k;
+            }
+            if (m != n)
+                throw new Exception("Bad compressed record");
+            return r;
+        }
+}
@@ -0,0 +1,80 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.shareabledata;
+/**
+ *
+ * @author Malcolm
+ * When a commit reaches the disk (see LogFile.Committed). The log is
+ * written through the operating system, and forced to the device
+ * (FileChannel.force) according to the policy of its database:
+ *   sync       every commit is forced before it is acknowledged
+ *   Nms        the log is forced every N milliseconds
+ *   Nc         the log is forced every N commits
+ *   os         the operating system writes the log when it likes
+ * A periodic or os policy acknowledges a commit when it is written, so a
+ * crash of the host can lose the last commits. Each commit ends with an
+ * SCommit byte in the log, and a commit that was only partly written is
+ * cut off when the database is next opened (see SDatabase.Load).
+ * This class is shareable
+ */
+public class Durability {
+        public static final int Sync = 0, Periodic = 1, Buffered = 2;
+        public final int mode;
+        public final long millis; // for Periodic, or 0
+        public final int commits; // for Periodic, or 0
+        /// <summary>
+        /// The policy for databases not listed in databases
+        /// </summary>
+        public static volatile Durability Default = new Durability(Sync, 0, 0);
+        public static volatile SDict<String,Durability> databases = null;
+        Durability(int m,long ms,int c)
+        {
+            mode = m; millis = ms; commits = c;
+        }
+        public static Durability Parse(String s) throws Exception
+        {
+            try {
+                if (s.equals("sync"))
+                    return new Durability(Sync, 0, 0);
+                if (s.equals("os"))
+                    return new Durability(Buffered, 0, 0);
+                if (s.endsWith("ms"))
+                    return new Durability(Periodic,
+                            Long.parseLong(s.substring(0, s.length() - 2)), 0);
+                if (s.endsWith("c"))
+                    return new Durability(Periodic, 0,
+                            Integer.parseInt(s.substring(0, s.length() - 1)));
+            } catch (NumberFormatException e) { }
+            throw new Exception("Unknown durability " + s);
+        }
+        /// <summary>
+        /// Set the policy for a database, or the default if db is null
+        /// </summary>
+        public static void Set(String db,Durability d)
+        {
+            if (db == null)
+                Default = d;
+            else
+                databases = (databases == null) ? new SDict<>(db, d)
+                        : databases.Add(db, d);
+        }
+        public static Durability For(String db)
+        {
+            var ds = databases;
+            var d = (ds == null) ? null : ds.Lookup(db);
+            return (d == null) ? Default : d;
+        }
+        @Override
+        public String toString()
+        {
+            switch (mode)
+            {
+                case Sync: return "sync";
+                case Buffered: return "os";
+            }
+            return (millis > 0) ? millis + "ms" : commits + "c";
+        }
+}
@@ -16,6 +16,19 @@ public class EvalRowSet extends RowSet {
             super(r._tr,q,cx);
             var ags = (cx==null)?null:cx.Ags();
             SDict<Long, Serialisable> vs = null;
+            var fs = new RowBatch.Aggregates(ags);
+            var mv = r.Metadata(ags); // no need to read the rows?
+            var pv = (mv!=null)?null:ParallelScan.Aggregate(_tr, r, fs);
+            var bc = (mv!=null || pv!=null)?null:r.Batches();
+            if (mv!=null)
+                vs = mv;
+            else if (pv!=null)
+                for (var v : pv)
+                    vs = fs.Merge(vs, v);
+            else if (bc!=null)
+                for (var rb = bc.Next(); rb != null; rb = bc.Next())
+                    vs = fs.AddIn(_tr, vs, rb);
+            else
             for (var b = (RowBookmark)r.First();b!=null;
                 b=(RowBookmark)b.Next())
                 for (var ab = ags.First();ab!=null;ab=ab.Next())
@@ -34,6 +47,17 @@ public class EvalRowSet extends RowSet {
                         }
                     }
                 }
+            if (vs == null && ags != null) // no rows: COUNT is 0, the others null
+                for (var ab = ags.First(); ab != null; ab = ab.Next())
+                {
+                    var vf = ab.getValue().val;
+                    if (vf.type != Types.SFunction)
+                        continue;
+                    var f = (SFunction)vf;
+                    var v = (f.func == SFunction.Func.Count) ? new SInteger(0)
+                            : Serialisable.Null;
+                    vs = (vs==null)?new SDict(f.fid, v):vs.Add(f.fid,v);
+                }
             _vals = vs;
         }
         public Bookmark<Serialisable> First()
@@ -0,0 +1,367 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.shareabledata;
+
+/**
+ *
+ * @author Malcolm
+ * A compiled form of a prepared expression, built once for a RowSet and
+ * then evaluated for each row. Each node handles one operator, with fast
+ * paths for integer operands: comparisons in a where condition (Test)
+ * allocate nothing, and columns are read from their slot in the current
+ * row rather than through the Context chain. Anything else, and any
+ * operand a node does not expect, falls back to Serialisable.Lookup, so
+ * results are always those of the interpreted expression. Row i of a
+ * RowBatch can be evaluated in the same way, reading columns from the
+ * batch, without making a row or a Context for it.
+ * This class is shareable
+ */
+public abstract class Evaluator {
+        /// <summary>
+        /// The interpreted expression this node computes
+        /// </summary>
+        public final Serialisable expr;
+        Evaluator(Serialisable x)
+        {
+            expr = x;
+        }
+        public abstract Serialisable Eval(SDatabase tr,Context cx);
+        /// <summary>
+        /// Whether the value is SBoolean.True (see RowBookmark.Matches)
+        /// </summary>
+        public boolean Test(SDatabase tr,Context cx)
+        {
+            return Eval(tr, cx) == SBoolean.True;
+        }
+        /// <summary>
+        /// Evaluate for row i of a batch. Nodes that cannot read the batch
+        /// use the row's Context.
+        /// </summary>
+        public Serialisable Eval(SDatabase tr,RowBatch b,int i)
+        {
+            return Eval(tr, b.Cx(i));
+        }
+        public boolean Test(SDatabase tr,RowBatch b,int i)
+        {
+            return Eval(tr, b, i) == SBoolean.True;
+        }
+        /// <summary>
+        /// The Context for combining operands that Lookup must finish:
+        /// values need none
+        /// </summary>
+        static Context Cx(Serialisable lf,Serialisable rg,RowBatch b,int i)
+        {
+            return (lf.isValue() && rg.isValue()) ? Context.Empty : b.Cx(i);
+        }
+        public static Evaluator Compile(Serialisable x)
+        {
+            if (x instanceof SColumn)
+                return new Column((SColumn)x);
+            if (x instanceof SExpression)
+            {
+                var e = (SExpression)x;
+                switch (e.op)
+                {
+                    case SExpression.Op.Plus:
+                    case SExpression.Op.Minus:
+                    case SExpression.Op.Times:
+                    case SExpression.Op.Divide:
+                        return new Arith(e, Compile(e.left), Compile(e.right));
+                    case SExpression.Op.Eql:
+                    case SExpression.Op.NotEql:
+                    case SExpression.Op.Lss:
+                    case SExpression.Op.Leq:
+                    case SExpression.Op.Gtr:
+                    case SExpression.Op.Geq:
+                        return new Compare(e, Compile(e.left), Compile(e.right));
+                    case SExpression.Op.And:
+                    case SExpression.Op.Or:
+                        return new Logic(e, Compile(e.left), Compile(e.right));
+                }
+                return new Interpret(x);
+            }
+            if (x.isValue() && !(x instanceof SRow))
+                return new Const(x);
+            return new Interpret(x);
+        }
+        /// <summary>
+        /// Compile a list of conditions or columns
+        /// </summary>
+        public static Evaluator[] Compile(SList<Serialisable> xs)
+        {
+            if (xs == null)
+                return null;
+            var r = new Evaluator[xs.Length];
+            var i = 0;
+            for (var b = xs.First(); b != null; b = b.Next())
+                r[i++] = Compile(b.getValue());
+            return r;
+        }
+        public static Evaluator[] Compile(SDict<Integer,Serialisable> xs)
+        {
+            if (xs == null)
+                return null;
+            var r = new Evaluator[xs.Length];
+            var i = 0;
+            for (var b = xs.First(); b != null; b = b.Next())
+                r[i++] = Compile(b.getValue().val);
+            return r;
+        }
+        /// <summary>
+        /// A constant: evaluation returns it
+        /// </summary>
+        static final class Const extends Evaluator
+        {
+            Const(Serialisable x)
+            {
+                super(x);
+            }
+            @Override
+            public Serialisable Eval(SDatabase tr,Context cx)
+            {
+                return expr;
+            }
+            @Override
+            public boolean Test(SDatabase tr,Context cx)
+            {
+                return expr == SBoolean.True;
+            }
+            @Override
+            public Serialisable Eval(SDatabase tr,RowBatch b,int i)
+            {
+                return expr;
+            }
+            @Override
+            public boolean Test(SDatabase tr,RowBatch b,int i)
+            {
+                return expr == SBoolean.True;
+            }
+        }
+        /// <summary>
+        /// A column of the current row. The rows of a RowBookmark are the
+        /// first entry in its Context, and the rows of a RowSet share a
+        /// RowType, so the column's ordinal is found once for each RowType.
+        /// </summary>
+        static final class Column extends Evaluator
+        {
+            static final class Slot
+            {
+                final RowType rowType;
+                final int ordinal;
+                Slot(RowType t,int i)
+                {
+                    rowType = t; ordinal = i;
+                }
+            }
+            final long uid;
+            volatile Slot slot = null;
+            Column(SColumn c)
+            {
+                super(c);
+                uid = c.uid;
+            }
+            @Override
+            public Serialisable Eval(SDatabase tr,Context cx)
+            {
+                if (cx.refs instanceof SRow)
+                {
+                    var rw = (SRow)cx.refs;
+                    var s = slot;
+                    if (s == null || s.rowType != rw.rowType)
+                        slot = s = new Slot(rw.rowType, rw.rowType.Ordinal(uid));
+                    var i = s.ordinal;
+                    if (rw.cols != null && i >= 0 && i < rw.cols.length)
+                    {
+                        var v = rw.cols[i];
+                        if (v != Serialisable.Null)
+                            return v;
+                    }
+                }
+                return expr.Lookup(tr, cx);
+            }
+            /// <summary>
+            /// A null in the batch gives the column itself, as
+            /// SColumn.Lookup does for a null in the current row
+            /// </summary>
+            @Override
+            public Serialisable Eval(SDatabase tr,RowBatch b,int i)
+            {
+                var s = slot;
+                if (s == null || s.rowType != b.rowType)
+                    slot = s = new Slot(b.rowType, b.rowType.Ordinal(uid));
+                if (s.ordinal < 0)
+                    return expr.Lookup(tr, b.Cx(i));
+                var v = b.Get(s.ordinal, i);
+                return (v == Serialisable.Null) ? expr : v;
+            }
+        }
+        /// <summary>
+        /// Arithmetic: integers are done here, other types by SExpression
+        /// </summary>
+        static final class Arith extends Evaluator
+        {
+            final int op;
+            final Evaluator left, right;
+            Arith(SExpression x,Evaluator lf,Evaluator rg)
+            {
+                super(x);
+                op = x.op; left = lf; right = rg;
+            }
+            @Override
+            public Serialisable Eval(SDatabase tr,Context cx)
+            {
+                return Apply(tr, left.Eval(tr, cx), right.Eval(tr, cx), cx, null, 0);
+            }
+            @Override
+            public Serialisable Eval(SDatabase tr,RowBatch b,int i)
+            {
+                return Apply(tr, left.Eval(tr, b, i), right.Eval(tr, b, i), null, b, i);
+            }
+            Serialisable Apply(SDatabase tr,Serialisable lf,Serialisable rg,
+                    Context cx,RowBatch b,int i)
+            {
+                if (lf.type == Types.SInteger && rg.type == Types.SInteger)
+                {
+                    var lv = ((SInteger)lf).value;
+                    var rv = ((SInteger)rg).value;
+                    switch (op)
+                    {
+                        case SExpression.Op.Plus: return new SInteger(lv + rv);
+                        case SExpression.Op.Minus: return new SInteger(lv - rv);
+                        case SExpression.Op.Times: return new SInteger(lv * rv);
+                        case SExpression.Op.Divide: return new SInteger(lv / rv);
+                    }
+                }
+                return new SExpression(lf, op, rg).Lookup(tr,
+                        (cx != null) ? cx : Cx(lf, rg, b, i));
+            }
+        }
+        /// <summary>
+        /// A comparison. Test does not allocate.
+        /// </summary>
+        static final class Compare extends Evaluator
+        {
+            final int op;
+            final Evaluator left, right;
+            Compare(SExpression x,Evaluator lf,Evaluator rg)
+            {
+                super(x);
+                op = x.op; left = lf; right = rg;
+            }
+            @Override
+            public Serialisable Eval(SDatabase tr,Context cx)
+            {
+                return Apply(left.Eval(tr, cx), right.Eval(tr, cx));
+            }
+            @Override
+            public boolean Test(SDatabase tr,Context cx)
+            {
+                var lf = left.Eval(tr, cx);
+                var rg = right.Eval(tr, cx);
+                return lf.isValue() && rg.isValue() && Holds(Cmp(lf, rg));
+            }
+            @Override
+            public Serialisable Eval(SDatabase tr,RowBatch b,int i)
+            {
+                return Apply(left.Eval(tr, b, i), right.Eval(tr, b, i));
+            }
+            @Override
+            public boolean Test(SDatabase tr,RowBatch b,int i)
+            {
+                var lf = left.Eval(tr, b, i);
+                var rg = right.Eval(tr, b, i);
+                return lf.isValue() && rg.isValue() && Holds(Cmp(lf, rg));
+            }
+            Serialisable Apply(Serialisable lf,Serialisable rg)
+            {
+                if (!(lf.isValue() && rg.isValue()))
+                    return new SExpression(lf, op, rg);
+                return SBoolean.For(Holds(Cmp(lf, rg)));
+            }
+            static int Cmp(Serialisable lf,Serialisable rg)
+            {
+                if (lf.type == Types.SInteger && rg.type == Types.SInteger)
+                    return Integer.compare(((SInteger)lf).value, ((SInteger)rg).value);
+                return lf.compareTo(rg);
+            }
+            boolean Holds(int c)
+            {
+                switch (op)
+                {
+                    case SExpression.Op.Eql: return c == 0;
+                    case SExpression.Op.NotEql: return c != 0;
+                    case SExpression.Op.Lss: return c < 0;
+                    case SExpression.Op.Leq: return c <= 0;
+                    case SExpression.Op.Gtr: return c > 0;
+                    default: return c >= 0;
+                }
+            }
+        }
+        /// <summary>
+        /// And and Or. Test stops at the first operand that decides it.
+        /// </summary>
+        static final class Logic extends Evaluator
+        {
+            final boolean and;
+            final Evaluator left, right;
+            Logic(SExpression x,Evaluator lf,Evaluator rg)
+            {
+                super(x);
+                and = x.op == SExpression.Op.And; left = lf; right = rg;
+            }
+            @Override
+            public Serialisable Eval(SDatabase tr,Context cx)
+            {
+                return Apply(tr, left.Eval(tr, cx), right.Eval(tr, cx), cx, null, 0);
+            }
+            @Override
+            public Serialisable Eval(SDatabase tr,RowBatch b,int i)
+            {
+                return Apply(tr, left.Eval(tr, b, i), right.Eval(tr, b, i), null, b, i);
+            }
+            Serialisable Apply(SDatabase tr,Serialisable lf,Serialisable rg,
+                    Context cx,RowBatch b,int i)
+            {
+                if (lf instanceof SBoolean && rg instanceof SBoolean)
+                {
+                    var l = ((SBoolean)lf).sbool;
+                    var r = ((SBoolean)rg).sbool;
+                    return SBoolean.For(and ? (l && r) : (l || r));
+                }
+                return new SExpression(lf, and ? SExpression.Op.And : SExpression.Op.Or, rg)
+                        .Lookup(tr, (cx != null) ? cx : Cx(lf, rg, b, i));
+            }
+            @Override
+            public boolean Test(SDatabase tr,Context cx)
+            {
+                if (and)
+                    return left.Test(tr, cx) && right.Test(tr, cx);
+                return Eval(tr, cx) == SBoolean.True;
+            }
+            @Override
+            public boolean Test(SDatabase tr,RowBatch b,int i)
+            {
+                if (and)
+                    return left.Test(tr, b, i) && right.Test(tr, b, i);
+                return Eval(tr, b, i) == SBoolean.True;
+            }
+        }
+        /// <summary>
+        /// Anything else is looked up as before
+        /// </summary>
+        static final class Interpret extends Evaluator
+        {
+            Interpret(Serialisable x)
+            {
+                super(x);
+            }
+            @Override
+            public Serialisable Eval(SDatabase tr,Context cx)
+            {
+                return expr.Lookup(tr, cx);
+            }
+        }
+}
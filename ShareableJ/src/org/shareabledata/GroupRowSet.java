@@ -34,26 +34,102 @@ public class GroupRowSet extends RowSet {
             inf =(inf==null)?new SList(t):inf.InsertAt(t,b.getValue().key);
         }
         _info = inf;
-        var t = new SMTree<Long>(inf);
-        SDict<Long, SDict<Long,Serialisable>> r = null;
+        var g = Group(sce, cx, inf);
+        _tree = g.tree;
+        _grouprows = g.rows;
+        _top = top;
+    }
+    /// <summary>
+    /// The groups found so far: a key is given the next number when it is
+    /// first seen. This class is not shareable.
+    /// </summary>
+    static class Groups
+    {
+        SMTree<Long> tree;
+        SDict<Long, SDict<Long,Serialisable>> rows = null;
         long n = 0;
-        for (var b=(RowBookmark)_sce.First();b!=null;b=(RowBookmark)b.Next())
+        Groups(SList<TreeInfo<Long>> inf)
+        {
+            tree = new SMTree<Long>(inf);
+        }
+        long Group(SCList<Variant> k) throws Exception
         {
-            var k = Key(b);
-            if (!t.Contains(k))
+            if (!tree.Contains(k))
             {
-                t = t.Add(k, n).t;
-                r =(r==null)?new SDict(n,null):r.Add(n,null);
+                tree = tree.Add(k, n).t;
+                rows =(rows==null)?new SDict(n,null):rows.Add(n,null);
                 n++;
             }
-            var mb = t.PositionAt(k);
-            var m = (long)((mb!=null)?mb.getValue().val:0);
-            var ag = AddIn(sce._tr, r.get(m), b._cx);
-            r =(r==null)?new SDict(m, ag):r.Add(m,ag);
+            var mb = tree.PositionAt(k);
+            return (long)((mb!=null)?mb.getValue().val:0);
+        }
+        /// <summary>
+        /// Add in the groups of a later part of the rows (see ParallelScan)
+        /// </summary>
+        void Merge(Groups p,RowBatch.Aggregates fs) throws Exception
+        {
+            var c = new MTreeCursor(p.tree);
+            for (var v = c.First(); v != null; v = c.Next())
+            {
+                var m = Group(c.Key());
+                rows = rows.Add(m, fs.Merge(rows.get(m), p.rows.get(v)));
+            }
+        }
+    }
+    /// <summary>
+    /// Group the rows of sce: in parallel parts if there are enough of them,
+    /// otherwise a batch or a row at a time
+    /// </summary>
+    Groups Group(RowSet sce,Context cx,SList<TreeInfo<Long>> inf) throws Exception
+    {
+        var ps = ParallelScan.Parts(sce);
+        if (ps!=null)
+        {
+            var fs = new RowBatch.Aggregates(cx.Ags());
+            var gs = ParallelScan.Map(sce, ps, c -> Group(c, fs, new Groups(inf)));
+            if (gs!=null)
+            {
+                var g = gs.get(0);
+                for (var i = 1; i < gs.size(); i++)
+                    g.Merge(gs.get(i), fs);
+                return g;
+            }
+        }
+        var g = new Groups(inf);
+        var bc = sce.Batches();
+        if (bc!=null)
+        {
+            var rb = bc.Next();
+            if (rb!=null)
+            {
+                var fs = new RowBatch.Aggregates(cx.Ags());
+                for (; rb != null; rb = bc.Next())
+                    Group(rb, fs, g);
+            }
+            return g;
+        }
+        for (var b=(RowBookmark)sce.First();b!=null;b=(RowBookmark)b.Next())
+        {
+            var m = g.Group(Key(b));
+            g.rows = g.rows.Add(m,AddIn(sce._tr, g.rows.get(m), b._cx));
+        }
+        return g;
+    }
+    Groups Group(RowBatch.Cursor c,RowBatch.Aggregates fs,Groups g)
+            throws Exception
+    {
+        for (var rb = c.Next(); rb != null; rb = c.Next())
+            Group(rb, fs, g);
+        return g;
+    }
+    void Group(RowBatch rb,RowBatch.Aggregates fs,Groups g) throws Exception
+    {
+        for (var j = 0; j < rb.count; j++)
+        {
+            var i = rb.sel[j];
+            var m = g.Group(Key(rb,i));
+            g.rows = g.rows.Add(m, fs.AddIn(_tr, g.rows.get(m), rb, i));
         }
-        _tree = t;
-        _grouprows = r;
-        _top = top;
     }
     protected SCList<Variant> Key(RowBookmark b) throws Exception
         {
@@ -66,6 +142,21 @@ public class GroupRowSet extends RowSet {
         }
         return k;
     }
+    /// <summary>
+    /// The group key of row i of a batch, as Key
+    /// </summary>
+    protected SCList<Variant> Key(RowBatch rb,int i) throws Exception
+    {
+        SCList<Variant> k = null;
+        var n = 0;
+        for (var g = _gqry.groupby.First(); g != null; g = g.Next(),n++)
+        {
+            var o = rb.rowType.Ordinal(g.getValue().val);
+            var v= new Variant((o<0)?null:rb.Get(o,i),true);
+            k =(k==null)?new SCList(v):k.InsertAt(v,n);
+        }
+        return k;
+    }
     protected SRow _Row(MTreeBookmark<Long> b)
     {
         var r = new SRow();
@@ -29,4 +29,20 @@ public abstract class IOBase {
     {
         throw new Exception("Not implemented");
     }
+    /// <summary>
+    /// Bulk versions of ReadByte and WriteByte. These defaults go a byte at
+    /// a time: subclasses copy whole runs to or from the buffer.
+    /// </summary>
+    /// <returns>the number of bytes read, less than len only at end of input</returns>
+    public int ReadBytes(byte[] b, int off, int len) throws Exception
+    {
+        for (int j = 0; j < len; j++)
+            b[off + j] = (byte)ReadByte();
+        return len;
+    }
+    public void WriteBytes(byte[] b, int off, int len) throws Exception
+    {
+        for (int j = 0; j < len; j++)
+            WriteByte(b[off + j]);
+    }
 }
@@ -15,25 +15,30 @@ public class IndexRowSet extends RowSet {
         public final SCList<Variant> _key;
         public final int _op;
         public final boolean _unique;
+        final Evaluator[] _where; // compiled from _wh
+        final RowType _rt; // the layout of the rows
         public IndexRowSet(SDatabase db,STable t,SIndex ix,SCList<Variant> key,
-                int op,SList<Serialisable> wh,Context cx)
+                int op,SList<Serialisable> wh,Context cx) throws Exception
         {
             super(db.Rdc(ix,key),t,null);
             _ix = ix; _wh = wh;
             _key = key; _op = op;
             _unique = key!=null && key.Length == _ix.cols.Length;
+            _where = Evaluator.Compile(wh);
+            _rt = RowType.For(_tr, _tr.Table(t));
         }
        @Override
         public Bookmark<Serialisable> First()
         {
             try {
-                var b = (MTreeBookmark<Long>)((_key==null)?_ix.rows.First()
-                        :_ix.rows.PositionAt(_key));
+                var rows = _ix.Rows(_tr);
+                var b = (MTreeBookmark<Long>)((_key==null)?rows.First()
+                        :rows.PositionAt(_key));
                 for (;b!=null;b=NextOrPrev(_op,b))
                 {
                     var r = _tr.Get(b.getValue().val);
-                    var rb = new IndexRowBookmark(this, new SRow(_tr,r), b, 0);
-                    if (r.Matches(rb,_wh))
+                    var rb = new IndexRowBookmark(this, new SRow(_tr,r,_rt), b, 0);
+                    if (rb.Matches(_where))
                         return rb;
                 }
             } catch(Exception e)
@@ -42,6 +47,63 @@ public class IndexRowSet extends RowSet {
             }
             return null;
         }
+        /// <summary>
+        /// Without a key this is the whole table (see TableRowSet.Metadata).
+        /// If the conditions are just equalities on a prefix of the index,
+        /// COUNTs of values that cannot be null are the size of its subtree.
+        /// </summary>
+        @Override
+        public SDict<Long,Serialisable> Metadata(SDict<Long,Serialisable> ags)
+                throws Exception
+        {
+            var tb = (STable)_tr.objects.get(_ix.table);
+            if (_key == null)
+                return (_where == null) ? TableRowSet.Metadata(_tr,tb,ags) : null;
+            if (ags == null || _op != SExpression.Op.Eql || _wh == null
+                    || _wh.Length != _key.Length || !_ix.Built(_tr))
+                return null;
+            var n = Count(_ix.Rows(_tr),_key);
+            if (n < 0)
+                return null;
+            SDict<Long,Serialisable> vs = null;
+            for (var b = ags.First(); b != null; b = b.Next())
+            {
+                var f = (SFunction)b.getValue().val;
+                if (f.func != SFunction.Func.Count || 
+                        !TableRowSet.NotNull(_tr,tb,f.arg))
+                    return null;
+                if (n > 0)
+                    vs = (vs==null)?new SDict(f.fid,new SInteger(n)):
+                            vs.Add(f.fid,new SInteger(n));
+            }
+            return vs;
+        }
+        /// <summary>
+        /// The number of entries in t whose keys start with k, or -1 if t
+        /// is paged
+        /// </summary>
+        static int Count(SMTree t,SCList<Variant> k)
+        {
+            for (; k != null; k = (SCList<Variant>)k.next)
+            {
+                if (t instanceof SPagedTree)
+                    return -1;
+                var v = (t._impl==null)?null:(Variant)t._impl.Lookup(k.element);
+                if (v == null)
+                    return 0;
+                switch (v.variant)
+                {
+                    case Compound: 
+                        t = (SMTree)v.ob; 
+                        break;
+                    case Partial: 
+                        return ((SDict)v.ob).Length;
+                    default: 
+                        return 1;
+                }
+            }
+            return (t instanceof SPagedTree) ? -1 : t.Length;
+        }
         static MTreeBookmark NextOrPrev(int op,MTreeBookmark<Long> b)
         {
             return (MTreeBookmark)((op == SExpression.Op.Lss || op == SExpression.Op.Leq) ?
@@ -67,8 +129,8 @@ public class IndexRowSet extends RowSet {
                 {
                     var r = _irs._tr.Get((long)b.getValue().val);
                     var rb = new IndexRowBookmark(_irs,
-                                new SRow(_irs._tr, r), b , Position+1);
-                    if (r.Matches(rb,_irs._wh))
+                                new SRow(_irs._tr, r, _irs._rt), b , Position+1);
+                    if (rb.Matches(_irs._where))
                         return rb;
                 }
                 } catch(Exception e){}
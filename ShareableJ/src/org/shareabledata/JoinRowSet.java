@@ -4,6 +4,7 @@
  * and open the template in the editor.
  */
 package org.shareabledata;
+import java.util.Arrays;
 
 /**
  *
@@ -55,67 +56,62 @@ public class JoinRowSet extends RowSet {
     static SRow _Row(JoinRowSet jrs,RowBookmark lbm,boolean ul,
             RowBookmark rbm,boolean ur) 
     {
-        var r = new SRow();
-        Bookmark<SSlot<Integer, Ident>> ab;
         SRow lr = null,rr = null;
         try { lr = lbm.Ob(); } catch(Exception e){}
         try { rr = rbm.Ob(); } catch(Exception e){}
-        SDict<Long,Ident> ds = null;
-        for (var b = jrs._qry.display.First(); b != null; b = b.Next())
-        {
-            var id = b.getValue().val;
-            ds = (ds==null)?new SDict(id.uid,id):ds.Add(id.uid,id);
-        }
+        var nl = (lbm != null && ul && lr != null && lr.cols != null) ? lr.cols.length : 0;
+        var nr = (rbm != null && ur && rr != null && rr.cols != null) ? rr.cols.length : 0;
+        if (nl + nr == 0)
+            return new SRow();
+        var ids = new Ident[nl + nr];
+        var vs = new Serialisable[nl + nr];
+        var n = 0;
         switch (jrs._join.joinType)
         {
             default:
                 {
-                    if (lbm != null && ul)
+                    SDict<Long,Ident> ds = null;
+                    for (var b = jrs._qry.display.First(); b != null; b = b.Next())
                     {
-                        ab = (lr==null)?null:lr.names.First();
-                        if (ab!=null && ul)
-                            for (var b = lr.cols.First(); ab != null && b != null; ab = ab.Next(), b = b.Next())
-                            {
-                                var n = ab.getValue().val;
-                                var k = ds.get(n.uid);
-                                var v = b.getValue().val;
-                                r = r.Add(k, v);
-                            }
+                        var id = b.getValue().val;
+                        ds = (ds==null)?new SDict(id.uid,id):ds.Add(id.uid,id);
                     }
-                    if (rbm != null && ur)
+                    for (var i = 0; i < nl; i++, n++)
                     {
-                        ab = (rr==null)?null:rr.names.First();
-                        if (ab!=null && ur)
-                        for (var b = rr.cols.First(); ab != null && b != null; ab = ab.Next(), b = b.Next())
-                        {
-                                var n = ab.getValue().val;
-                                var k = ds.get(n.uid);
-                                var v = b.getValue().val;
-                                r = r.Add(k, v);
-                        }
+                        ids[n] = ds.get(lr.rowType.idents[i].uid);
+                        vs[n] = lr.cols[i];
+                    }
+                    for (var i = 0; i < nr; i++, n++)
+                    {
+                        ids[n] = ds.get(rr.rowType.idents[i].uid);
+                        vs[n] = rr.cols[i];
                     }
                     break;
                 }
             case SJoin.JoinType.Natural:
                 {
-                    if (lbm != null && ul)
+                    for (var i = 0; i < nl; i++, n++)
                     {
-                        ab = lr.names.First();
-                        for (var b = lr.cols.First(); ab != null && b != null; ab = ab.Next(), b = b.Next())
-                            r =r.Add(ab.getValue().val, b.getValue().val);
-                    }
-                    if (rbm != null && ur)
-                    {
-                        ab = rr.names.First();
-                        for (var b = rr.cols.First(); ab != null && b != null; ab = ab.Next(), b = b.Next())
-                              if (!((SJoin)jrs._qry).uses.Contains(ab.getValue().val.uid))
-             //               if (lbm==null || !ul || !lr.vals.Contains(ab.getValue().val))
-                                r =r.Add(ab.getValue().val, b.getValue().val);
+                        ids[n] = lr.rowType.idents[i];
+                        vs[n] = lr.cols[i];
                     }
+                    for (var i = 0; i < nr; i++)
+                        if (!((SJoin)jrs._qry).uses.Contains(rr.rowType.idents[i].uid))
+                        {
+                            ids[n] = rr.rowType.idents[i];
+                            vs[n++] = rr.cols[i];
+                        }
                     break;
                 }
         }
-        return r;
+        if (n == 0)
+            return new SRow();
+        if (n < ids.length)
+        {
+            ids = Arrays.copyOf(ids, n);
+            vs = Arrays.copyOf(vs, n);
+        }
+        return new SRow(new RowType(ids,null),vs,null,false);
     }
 
     public Bookmark<Serialisable> First()
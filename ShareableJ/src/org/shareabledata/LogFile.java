@@ -0,0 +1,443 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.shareabledata;
+import java.io.*;
+import java.lang.ref.Cleaner;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+/**
+ *
+ * @author Malcolm
+ * The transaction log of a database. Positions in the log (and so uids)
+ * are global, but the log can be kept in fixed-size segment files:
+ * position p is at offset p % segmentSize of segment p / segmentSize, so
+ * an object may continue into the next segment. The segments are listed
+ * in a manifest, name.manifest, which is replaced atomically when a
+ * segment is added. Every segment but the last is sealed: it will not
+ * change again, so it is read through a memory map, and it can be copied,
+ * compressed or archived while the database is in use.
+ * A database without a manifest is a single file, name, as before.
+ * Compaction (see SDatabase.Compact) writes a new generation of segments
+ * (for a single file, a new file name.g.0) and then writes the manifest,
+ * so that no file is renamed over one that is still open. The files of
+ * the old log stay open for the snapshots that still use it, and are
+ * closed and deleted once none of them refers to it (see Retire).
+ * Files are written through the operating system and forced to the device
+ * according to the Durability of the database (see Committed): a segment
+ * is forced when it is sealed unless the policy is os.
+ * This class is not shareable
+ */
+public class LogFile {
+        /// <summary>
+        /// The segment size for new databases: 0 for a single file
+        /// </summary>
+        public static volatile long SegmentSize = 0;
+        static final String Manifest = ".manifest";
+        /// <summary>
+        /// A segment file. Sealed segments are mapped on first read.
+        /// </summary>
+        static final class Segment
+        {
+            final File path;
+            final RandomAccessFile file;
+            final FileChannel channel;
+            volatile MappedByteBuffer map = null;
+            Segment(File p) throws IOException
+            {
+                path = p;
+                file = new RandomAccessFile(p, "rw");
+                channel = file.getChannel();
+            }
+        }
+        final File dir;
+        final String name;
+        final long size; // segment size: Long.MAX_VALUE for a single file
+        final int generation;
+        volatile Segment[] segs;
+        volatile long length;
+        final Durability durability;
+        /// <summary>
+        /// The log is on the device up to forced
+        /// </summary>
+        volatile long forced;
+        int pending = 0; // commits since the last force
+        final Object forcing = new Object();
+        ScheduledFuture<?> flush = null;
+        static ScheduledExecutorService flusher = null;
+        /// <summary>
+        /// Closes the files of logs that have been replaced (see Retire)
+        /// </summary>
+        static final Cleaner closer = Cleaner.create();
+        static final int DeleteTries = 12;
+        LogFile(File d,String n,long sz,int g,Segment[] ss) throws IOException
+        {
+            dir = d; name = n; size = sz; generation = g; segs = ss;
+            var last = ss[ss.length - 1];
+            length = (ss.length - 1) * sz + last.channel.size();
+            forced = length;
+            durability = Durability.For(n);
+            if (durability.millis > 0)
+                flush = Flusher().scheduleWithFixedDelay(this::Flush,
+                        durability.millis, durability.millis, TimeUnit.MILLISECONDS);
+        }
+        static synchronized ScheduledExecutorService Flusher()
+        {
+            if (flusher == null)
+                flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                    var t = new Thread(r, "LogFile flusher");
+                    t.setDaemon(true);
+                    return t;
+                });
+            return flusher;
+        }
+        /// <summary>
+        /// Open the log of database name in folder path, creating it
+        /// (segmented if SegmentSize is set) if it does not exist
+        /// </summary>
+        public static LogFile Open(String path,String name) throws IOException
+        {
+            return Open(path, name, true);
+        }
+        /// <summary>
+        /// sweep is false when Install reopens the log: the files of the log
+        /// it replaces are still in use
+        /// </summary>
+        static LogFile Open(String path,String name,boolean sweep) throws IOException
+        {
+            var dir = new File(path);
+            var mf = new File(path, name + Manifest);
+            if (mf.exists())
+            {
+                var ls = Files.readAllLines(mf.toPath());
+                var sz = Long.parseLong(ls.get(0));
+                var g = Integer.parseInt(ls.get(1));
+                var ss = new Segment[ls.size() - 2];
+                for (var i = 0; i < ss.length; i++)
+                    ss[i] = new Segment(new File(path, ls.get(i + 2)));
+                if (sweep)
+                    Sweep(dir, name, g);
+                return new LogFile(dir, name, sz, g, ss);
+            }
+            var f = new File(path, name);
+            var sz = SegmentSize;
+            if (f.exists() || sz <= 0)
+                return new LogFile(dir, name, Long.MAX_VALUE, 0,
+                        new Segment[] { new Segment(f) });
+            return Create(dir, name, sz, 0);
+        }
+        /// <summary>
+        /// A new empty log with the given segment size and generation
+        /// </summary>
+        static LogFile Create(File dir,String name,long sz,int g) throws IOException
+        {
+            var lf = new LogFile(dir, name, sz, g,
+                    new Segment[] { new Segment(new File(dir, SegmentName(name, g, 0))) });
+            lf.segs[0].file.setLength(0);
+            lf.length = 0;
+            lf.WriteManifest();
+            return lf;
+        }
+        /// <summary>
+        /// Delete the files of generations before g that were left behind
+        /// when the server stopped before a replaced log was closed (see
+        /// Retire). Nothing else can have them open at this point.
+        /// </summary>
+        static void Sweep(File dir,String name,int g)
+        {
+            var fs = dir.listFiles();
+            if (fs == null)
+                return;
+            for (var f : fs)
+            {
+                var n = f.getName();
+                if (n.equals(name))
+                {
+                    Delete(f, 0);
+                    continue;
+                }
+                if (!n.startsWith(name + "."))
+                    continue;
+                var ps = n.substring(name.length() + 1).split("\\.");
+                if (ps.length == 2 && ps[0].matches("[0-9]{1,9}")
+                        && ps[1].matches("[0-9]+")
+                        && Integer.parseInt(ps[0]) < g)
+                    Delete(f, 0);
+            }
+        }
+        static String SegmentName(String name,int g,int i)
+        {
+            return name + "." + g + "." + i;
+        }
+        /// <summary>
+        /// Write the manifest to a new file, then move it into place:
+        /// segment size, generation, and the segment file names
+        /// </summary>
+        void WriteManifest() throws IOException
+        {
+            var ls = new ArrayList<String>();
+            ls.add("" + size);
+            ls.add("" + generation);
+            for (var s : segs)
+                ls.add(s.path.getName());
+            var t = new File(dir, name + Manifest + ".new");
+            Files.write(t.toPath(), ls);
+            try (var ch = FileChannel.open(t.toPath(), StandardOpenOption.WRITE))
+            {
+                ch.force(true);
+            }
+            Files.move(t.toPath(), new File(dir, name + Manifest).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+        public long length()
+        {
+            return length;
+        }
+        /// <summary>
+        /// Read into bb from position p, without crossing a segment boundary
+        /// </summary>
+        /// <returns>the number of bytes read, or -1 at the end of the log</returns>
+        public int read(ByteBuffer bb,long p) throws IOException
+        {
+            var ss = segs;
+            var i = (int)(p / size);
+            if (i >= ss.length)
+                return -1;
+            var s = ss[i];
+            var o = p - i * size;
+            var n = (int)Math.min(bb.remaining(), size - o);
+            if (i < ss.length - 1 && size <= Integer.MAX_VALUE)
+            {
+                var m = Map(s);
+                var d = m.duplicate();
+                d.position((int)o).limit((int)o + n);
+                bb.put(d);
+                return n;
+            }
+            var lim = bb.limit();
+            bb.limit(bb.position() + n);
+            try
+            {
+                return s.channel.read(bb, o);
+            }
+            finally
+            {
+                bb.limit(lim);
+            }
+        }
+        MappedByteBuffer Map(Segment s) throws IOException
+        {
+            var m = s.map;
+            if (m == null)
+                synchronized (s)
+                {
+                    m = s.map;
+                    if (m == null)
+                        s.map = m = s.channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                }
+            return m;
+        }
+        /// <summary>
+        /// Append the contents of bb, adding segments as required. Callers
+        /// hold the monitor of this LogFile (see STransaction.Commit).
+        /// </summary>
+        public void append(ByteBuffer bb) throws IOException
+        {
+            while (bb.hasRemaining())
+            {
+                var ss = segs;
+                var i = (int)(length / size);
+                if (i >= ss.length)
+                {
+                    if (durability.mode != Durability.Buffered)
+                        ss[i - 1].channel.force(false);
+                    var ns = Arrays.copyOf(ss, i + 1);
+                    ns[i] = new Segment(new File(dir, SegmentName(name, generation, i)));
+                    ns[i].file.setLength(0);
+                    segs = ns;
+                    WriteManifest();
+                    continue;
+                }
+                var lim = bb.limit();
+                bb.limit(bb.position()
+                        + (int)Math.min(bb.remaining(), (i + 1) * size - length));
+                try
+                {
+                    while (bb.hasRemaining())
+                        length += ss[i].channel.write(bb, length - i * size);
+                }
+                finally
+                {
+                    bb.limit(lim);
+                }
+            }
+        }
+        /// <summary>
+        /// Cut the log back to position p, the end of its last complete
+        /// commit (see SDatabase.Open)
+        /// </summary>
+        void truncate(long p) throws IOException
+        {
+            var ss = segs;
+            var i = (int)Math.min(p / size, ss.length - 1);
+            ss[i].file.setLength(p - i * size);
+            ss[i].channel.force(true);
+            if (i < ss.length - 1)
+            {
+                for (var j = i + 1; j < ss.length; j++)
+                {
+                    ss[j].file.close();
+                    Delete(ss[j].path, 0);
+                }
+                segs = Arrays.copyOf(ss, i + 1);
+                WriteManifest();
+            }
+            length = p;
+            forced = p;
+        }
+        /// <summary>
+        /// Force the last segment to the device: the others are sealed
+        /// </summary>
+        public void force(boolean metaData) throws IOException
+        {
+            var ss = segs;
+            ss[ss.length - 1].channel.force(metaData);
+        }
+        /// <summary>
+        /// Apply the durability policy to a commit that ended at position p.
+        /// STransaction.Commit calls this after releasing the log, and the
+        /// server acknowledges the commit when it returns.
+        /// </summary>
+        public void Committed(long p) throws IOException
+        {
+            switch (durability.mode)
+            {
+                case Durability.Sync:
+                    Force(p);
+                    break;
+                case Durability.Periodic:
+                    if (durability.commits > 0)
+                    {
+                        synchronized (forcing)
+                        {
+                            if (++pending < durability.commits)
+                                return;
+                        }
+                        Force(p);
+                    }
+                    break;
+            }
+        }
+        /// <summary>
+        /// Make sure the log is on the device up to position p. Commits that
+        /// wait here while another is forced are usually covered by that
+        /// force, so concurrent commits share one.
+        /// </summary>
+        void Force(long p) throws IOException
+        {
+            synchronized (forcing)
+            {
+                if (forced >= p)
+                    return;
+                var n = length;
+                force(false);
+                forced = n;
+                pending = 0;
+            }
+        }
+        void Flush()
+        {
+            try {
+                Force(length);
+            } catch (IOException e) { }
+        }
+        public void close() throws IOException
+        {
+            if (flush != null)
+                flush.cancel(false);
+            Force(length);
+            for (var s : segs)
+                s.file.close();
+        }
+        /// <summary>
+        /// A new empty log to replace this one (see Install)
+        /// </summary>
+        LogFile Successor() throws IOException
+        {
+            var g = generation + 1;
+            var lf = new LogFile(dir, name, size, g,
+                    new Segment[] { new Segment(new File(dir, SegmentName(name, g, 0))) });
+            lf.segs[0].file.setLength(0);
+            lf.length = 0;
+            return lf;
+        }
+        /// <summary>
+        /// Make a successor log the log of the database by writing its
+        /// manifest. A single-file log gets a manifest here too, so that its
+        /// file is never replaced while open readers still use it: this
+        /// log's files are deleted once they are closed (see Retire).
+        /// </summary>
+        /// <returns>the new log, reopened</returns>
+        LogFile Install(LogFile nl) throws IOException
+        {
+            if (flush != null)
+                flush.cancel(false);
+            nl.force(true);
+            nl.WriteManifest();
+            nl.close();
+            Retire();
+            return Open(dir.getPath(), name, false);
+        }
+        /// <summary>
+        /// Close and delete the files of this replaced log when it becomes
+        /// unreachable. Snapshots taken before the switch (and their
+        /// readers, which have no close of their own) hold the LogFile, so
+        /// that is when the last of them has gone. No commit can add a
+        /// segment after Install (see STransaction.Commit).
+        /// </summary>
+        void Retire()
+        {
+            // must not refer to this, or to the segments, whose maps have
+            // to be released before the files can be deleted on Windows
+            var ss = segs;
+            var fs = new RandomAccessFile[ss.length];
+            var ps = new File[ss.length];
+            for (var i = 0; i < ss.length; i++)
+            {
+                fs[i] = ss[i].file;
+                ps[i] = ss[i].path;
+            }
+            closer.register(this, () -> {
+                for (var f : fs)
+                    try {
+                        f.close();
+                    } catch (IOException e) { }
+                for (var p : ps)
+                    Delete(p, 0);
+            });
+        }
+        /// <summary>
+        /// Delete a file of a replaced log. Where open or mapped files
+        /// cannot be deleted (Windows), a map that the garbage collector
+        /// has not yet released makes this fail: it is tried again with
+        /// increasing delays, and reported if it still fails.
+        /// </summary>
+        static void Delete(File p,int tries)
+        {
+            if (p.delete() || !p.exists())
+                return;
+            if (tries >= DeleteTries)
+            {
+                System.out.println("Could not delete " + p);
+                return;
+            }
+            Flusher().schedule(() -> Delete(p, tries + 1), 1L << tries,
+                    TimeUnit.SECONDS);
+        }
+}
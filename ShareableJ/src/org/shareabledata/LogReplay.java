@@ -0,0 +1,214 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.shareabledata;
+import java.util.concurrent.*;
+/**
+ *
+ * @author Malcolm
+ * Parallel replay of the log for SDatabase.Load. There are three stages.
+ * A splitter thread walks the log, stepping over records without decoding
+ * them (ReaderBase.SkipRecord) and grouping runs of them into segments.
+ * A pool of workers decodes the segments. The installer, on the calling
+ * thread, applies everything in log order.
+ * Schema objects change the way later objects are decoded, so the
+ * splitter decodes them as it goes, into a database with no rows, and the
+ * installer decodes them again against the real database.
+ * As in SDatabase.Load, the result ends at the last complete commit.
+ * This class is not shareable.
+ */
+class LogReplay {
+        /// <summary>
+        /// The number of records decoded by one worker task
+        /// </summary>
+        static final int BatchSize = 256;
+        /// <summary>
+        /// Shorter tails of the log are loaded on one thread
+        /// </summary>
+        static final long MinParallel = 1L << 20;
+        /// <summary>
+        /// A run of records ending at the given positions, or (recs==null)
+        /// a schema object at start, or (ends==null) the end of a commit at
+        /// start. Once the log is exhausted, a segment with no ends gives
+        /// the final position.
+        /// </summary>
+        static class Segment
+        {
+            final long start;
+            final long[] ends;
+            final Future<SDbObject[]> recs;
+            Segment(long s,long[] e,Future<SDbObject[]> r)
+            {
+                start = s; ends = e; recs = r;
+            }
+        }
+        final SDatabase db;
+        final ExecutorService workers;
+        final BlockingQueue<Segment> segments;
+        LogReplay(SDatabase d,int nw)
+        {
+            db = d;
+            workers = Executors.newFixedThreadPool(nw, r -> {
+                var t = new Thread(r, "LogReplay");
+                t.setDaemon(true);
+                return t;
+            });
+            segments = new ArrayBlockingQueue<>(4 * nw);
+        }
+        /// <summary>
+        /// The installer
+        /// </summary>
+        SDatabase Load() throws Exception
+        {
+            var splitter = new Thread(this::Split, "LogReplay");
+            splitter.setDaemon(true);
+            splitter.start();
+            try
+            {
+                var d = db;
+                var lp = db.curpos; // the end of the last installed object
+                var cd = db; // the database as of the last complete commit
+                var cp = db.curpos;
+                var marked = false;
+                var rd = new Reader(db);
+                for (;;)
+                {
+                    var sg = segments.take();
+                    if (sg.ends == null)
+                    {
+                        cd = d;
+                        cp = sg.start;
+                        marked = true;
+                        continue;
+                    }
+                    if (sg.ends.length == 0)
+                        return marked ? new SDatabase(cd, cp)
+                                : new SDatabase(d, lp);
+                    if (sg.recs == null)
+                    {
+                        rd.db = d;
+                        rd.Seek(sg.start);
+                        var s = (SDbObject)rd._Get();
+                        lp = rd.Position();
+                        d = rd.db._Add(s, lp);
+                        continue;
+                    }
+                    SDbObject[] rs;
+                    try
+                    {
+                        rs = sg.recs.get();
+                    }
+                    catch (ExecutionException e)
+                    {
+                        var c = e.getCause();
+                        throw (c instanceof Exception) ? (Exception)c : e;
+                    }
+                    for (var i = 0; i < rs.length; i++)
+                        d = d._Add(rs[i], sg.ends[i]);
+                    lp = sg.ends[rs.length - 1];
+                }
+            }
+            finally
+            {
+                splitter.interrupt();
+                workers.shutdownNow();
+            }
+        }
+        /// <summary>
+        /// The splitter
+        /// </summary>
+        void Split()
+        {
+            Reader rd = null;
+            try
+            {
+                rd = new Reader(db);
+                var ends = new long[BatchSize];
+                var n = 0;
+                var start = rd.Position();
+                for (;;)
+                {
+                    var p = rd.Position();
+                    var tp = rd.ReadByte();
+                    if (tp == Types.SRecord || tp == Types.SUpdate
+                            || tp == Types.SDelete)
+                    {
+                        if (n == 0)
+                            start = p;
+                        rd.SkipRecord(tp);
+                        ends[n++] = rd.Position();
+                        if (n == BatchSize)
+                        {
+                            Decode(rd.db, start, ends, n);
+                            n = 0;
+                        }
+                        continue;
+                    }
+                    if (n > 0)
+                    {
+                        Decode(rd.db, start, ends, n);
+                        n = 0;
+                    }
+                    if (tp == Types.SCommit)
+                    {
+                        segments.put(new Segment(rd.Position(), null, null));
+                        continue;
+                    }
+                    var s = (tp < 0) ? null : rd._Get(tp);
+                    if (s == null || s == Serialisable.Null)
+                        break;
+                    rd.db = rd.db._Add((SDbObject)s, rd.Position());
+                    segments.put(new Segment(p, new long[]{ rd.Position() }, null));
+                }
+                segments.put(new Segment(rd.Position(), new long[0], null));
+            }
+            catch (InterruptedException e)
+            {
+                // the installer has given up
+            }
+            catch (Exception e)
+            {
+                if (rd != null && rd.Position() >= rd.limit)
+                {
+                    // the tail of the log was cut short by a crash: the
+                    // installer stops at the last complete commit
+                    try
+                    {
+                        segments.put(new Segment(rd.limit, new long[0], null));
+                    }
+                    catch (InterruptedException x)
+                    {
+                    }
+                    return;
+                }
+                var f = new CompletableFuture<SDbObject[]>();
+                f.completeExceptionally(e);
+                try
+                {
+                    segments.put(new Segment(-1, new long[]{ -1 }, f));
+                }
+                catch (InterruptedException x)
+                {
+                }
+            }
+        }
+        /// <summary>
+        /// Queue a worker task to decode n records starting at s.
+        /// d is the splitter's schema, which is immutable.
+        /// </summary>
+        void Decode(SDatabase d,long s,long[] ends,int n) throws Exception
+        {
+            var e = new long[n];
+            System.arraycopy(ends, 0, e, 0, n);
+            segments.put(new Segment(s, e, workers.submit(() -> {
+                var rd = new Reader(d);
+                rd.Seek(s);
+                var rs = new SDbObject[n];
+                for (var i = 0; i < n; i++)
+                    rs[i] = (SDbObject)rd._Get();
+                return rs;
+            })));
+        }
+}
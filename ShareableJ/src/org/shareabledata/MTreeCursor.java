@@ -0,0 +1,120 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.shareabledata;
+
+/**
+ *
+ * @author Malcolm
+ * A cursor for traversing the values of an in-memory SMTree in key order,
+ * forwards or backwards, changed in place as it moves (see SCursor).
+ * A step within one key of the outer tree allocates nothing; moving to
+ * the next key of a compound or partial tree starts a cursor on its subtree.
+ * The key is only built if Key() is called.
+ * This class is not shareable
+ */
+public class MTreeCursor {
+        public final SMTree _tree;
+        final SCursor<Variant,Variant> _outer;
+        MTreeCursor _inner = null; // for a Compound entry
+        SCursor<Long,Boolean> _part = null; // for a Partial entry
+        Long _val = null;
+        public MTreeCursor(SMTree t)
+        {
+            _tree = t;
+            _outer = new SCursor<>(t._impl);
+        }
+        /// <summary>
+        /// The value the cursor is on, or null
+        /// </summary>
+        public Long getValue()
+        {
+            return _val;
+        }
+        public Long First()
+        {
+            return Enter(_outer.First(),false);
+        }
+        public Long Last()
+        {
+            return Enter(_outer.Last(),true);
+        }
+        public Long Next()
+        {
+            if (_val == null)
+                return null;
+            Long v = null;
+            if (_inner != null)
+                v = _inner.Next();
+            else if (_part != null)
+            {
+                var s = _part.Next();
+                v = (s==null)?null:s.key;
+            }
+            if (v != null)
+                return _val = v;
+            return Enter(_outer.Next(),false);
+        }
+        public Long Previous()
+        {
+            if (_val == null)
+                return null;
+            Long v = null;
+            if (_inner != null)
+                v = _inner.Previous();
+            else if (_part != null)
+            {
+                var s = _part.Previous();
+                v = (s==null)?null:s.key;
+            }
+            if (v != null)
+                return _val = v;
+            return Enter(_outer.Previous(),true);
+        }
+        /// <summary>
+        /// The key of the current value, or null
+        /// </summary>
+        public SCList<Variant> Key()
+        {
+            if (_val == null)
+                return null;
+            return new SCList<>(_outer.getValue().key,
+                    (_inner==null)?null:_inner.Key());
+        }
+        /// <summary>
+        /// Start on the first (or last) value of the outer entry s, going on
+        /// to the following (or preceding) entries if it has none
+        /// </summary>
+        Long Enter(SSlot<Variant,Variant> s,boolean last)
+        {
+            for (; s != null; s = last?_outer.Previous():_outer.Next())
+            {
+                var ov = s.val;
+                _inner = null;
+                _part = null;
+                switch (ov.variant)
+                {
+                    case Compound:
+                        _inner = new MTreeCursor((SMTree)ov.ob);
+                        _val = last?_inner.Last():_inner.First();
+                        break;
+                    case Partial:
+                    {
+                        _part = new SCursor<>((SDict<Long,Boolean>)ov.ob);
+                        var p = last?_part.Last():_part.First();
+                        _val = (p==null)?null:p.key;
+                        break;
+                    }
+                    default:
+                        _val = (Long)ov.ob;
+                }
+                if (_val != null)
+                    return _val;
+            }
+            _inner = null;
+            _part = null;
+            return _val = null;
+        }
+}
@@ -0,0 +1,77 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.shareabledata;
+
+/**
+ *
+ * @author Malcolm
+ * The rows of a materialized view: these are already computed, so this
+ * RowSet just traverses them (see SMaterializedView)
+ */
+public class MaterializedRowSet extends RowSet {
+        public final SMaterializedView _vw;
+        final RowType _rt; // the layout of the rows
+        public MaterializedRowSet(SDatabase db,SMaterializedView v,Context cx)
+                throws Exception
+        {
+            super(db.Rdc(v.table),v,cx);
+            _vw = (SMaterializedView)_tr.Table(v);
+            _rt = RowType.For(_tr,_vw);
+        }
+        @Override
+        public Bookmark<Serialisable> First()
+        {
+            try {
+            if (_vw.grouped)
+            {
+                var b = (_vw.groups==null)?null:_vw.groups.First();
+                return (b==null)?null:new MaterializedRowBookmark(this,b,0);
+            }
+            var b = (_vw.contribs==null)?null:_vw.contribs.First();
+            return (b==null)?null:new MaterializedRowBookmark(this,b,0);
+            } catch(Exception e) {
+                return null;
+            }
+        }
+        SRow Row(Object ob) throws Exception
+        {
+            Serialisable[] vs;
+            if (ob instanceof SMaterializedView.Group)
+                vs = ((SMaterializedView.Group)ob).Row(_vw);
+            else
+                vs = (Serialisable[])ob;
+            return new SRow(_rt,vs,null,false);
+        }
+        /// <summary>
+        /// As for a TableRowSet, the row is also available by the view's uid
+        /// </summary>
+        static Context _Cx(MaterializedRowSet rs,SRow r)
+        {
+            return Context.New(r,Context.New(new SDict(rs._vw.uid,r),rs._cx));
+        }
+        class MaterializedRowBookmark extends RowBookmark
+        {
+            public final MaterializedRowSet _mrs;
+            public final Bookmark<? extends SSlot<?,?>> _bmk;
+            MaterializedRowBookmark(MaterializedRowSet rs,
+                    Bookmark<? extends SSlot<?,?>> bmk,int pos) throws Exception
+            {
+                super(rs,MaterializedRowSet._Cx(rs,rs.Row(bmk.getValue().val)),pos);
+                _mrs = rs; _bmk = bmk;
+            }
+            @Override
+            public Bookmark<Serialisable> Next()
+            {
+                try {
+                var b = _bmk.Next();
+                return (b==null)?null:
+                        new MaterializedRowBookmark(_mrs,b,Position+1);
+                } catch(Exception e) {
+                    return null;
+                }
+            }
+        }
+}
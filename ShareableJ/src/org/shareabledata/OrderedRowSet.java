@@ -29,13 +29,14 @@ public class OrderedRowSet extends RowSet {
             var t = new SMTree<Serialisable>(ti);
             SDict<Integer, SRow> r = null;
             int m = 0;
+            var oc = new SListCursor<>(sel.order);
             for (var b = (RowBookmark)sce.First(); b != null; b = (RowBookmark)b.Next(),m++)
             {
                 var k = new Variant[n];
                 var i = 0;
-                for (var c = sel.order.First(); c != null; c = c.Next())
-                    k[i] = new Variant(c.getValue().col.Lookup(_tr,b._cx),
-                            !c.getValue().desc);
+                for (var c = oc.First(); c != null; c = oc.Next())
+                    k[i] = new Variant(c.col.Lookup(_tr,b._cx),
+                            !c.desc);
                 t = t.Add(m,k);
                 r=(r==null)?new SDict(0,b.Ob()):r.Add(m, b.Ob());
             }
@@ -50,12 +51,13 @@ public class OrderedRowSet extends RowSet {
             var t = new SMTree<Serialisable>(ti);
             SDict<Integer, SRow> r = null;
             int m = 0;
+            var tc = new SListCursor<>(ti);
             for (var b = (RowBookmark)sce.First(); b != null; b = (RowBookmark)b.Next())
             {
                 var k = new Variant[ti.Length];
                 var i = 0;
-                for (var c = ti.First(); c != null; c = c.Next())
-                    k[i] = new Variant(c.getValue().headName.Lookup(_tr,b._cx),true);
+                for (var c = tc.First(); c != null; c = tc.Next())
+                    k[i] = new Variant(c.headName.Lookup(_tr,b._cx),true);
                 t = t.Add(m, k);
                 r=(r==null)?new SDict(m, b.Ob()):r.Add(m,b.Ob());
                 m++;
@@ -0,0 +1,232 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.shareabledata;
+import java.io.*;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+/**
+ *
+ * @author Malcolm
+ * The page store for an SPagedTree. A written page is never changed, so
+ * every root that has been published stays readable for as long as an old
+ * snapshot refers to it. Each page is stored as a 4-byte length followed by
+ * its body, and its id is its position in the file.
+ * Space is reused: each written page counts the written pages and published
+ * roots that refer to it. A tree holds the Root it was derived from, and
+ * once no tree holds a Root its count is released. A page whose count falls
+ * to 0 cannot be reached from any live snapshot, so its space goes on a free
+ * list for its size class (a power of 2) and its children are released in
+ * turn.
+ * Decoded pages are kept in a single LRU cache shared by all page files,
+ * limited to CachePages pages.
+ * A page file holds derived data: the tree is rebuilt from the log when
+ * the database is opened, so the file is a temporary file.
+ * This class is not shareable.
+ */
+public class PageFile {
+        public static volatile int CachePages = 8192;
+        static final Map<PageKey,SPagedTree.Page> cache =
+            new LinkedHashMap<PageKey,SPagedTree.Page>(1024, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<PageKey,SPagedTree.Page> e)
+                {
+                    return size() > CachePages;
+                }
+            };
+        /// <summary>
+        /// Cache key: a page id is only unique within its file
+        /// </summary>
+        static final class PageKey
+        {
+            final PageFile file;
+            final long id;
+            PageKey(PageFile f,long i) { file = f; id = i; }
+            @Override
+            public boolean equals(Object o)
+            {
+                return (o instanceof PageKey) && ((PageKey)o).file == file
+                        && ((PageKey)o).id == id;
+            }
+            @Override
+            public int hashCode()
+            {
+                return System.identityHashCode(file) * 31 + Long.hashCode(id);
+            }
+        }
+        /// <summary>
+        /// A published root page. Every tree whose pages are in the file holds
+        /// the Root it was written as or derived from.
+        /// </summary>
+        static final class Root
+        {
+            final SPagedTree.Page page;
+            Root(SPagedTree.Page p) { page = p; }
+        }
+        static final class RootRef extends WeakReference<Root>
+        {
+            final long id;
+            RootRef(Root r,ReferenceQueue<Root> q)
+            {
+                super(r, q);
+                id = r.page.id;
+            }
+        }
+        /// <summary>
+        /// A written page: its reference count, its size class and its
+        /// children (null for a leaf)
+        /// </summary>
+        static final class Slot
+        {
+            int refs = 0;
+            final int size;
+            final long[] kids;
+            Slot(int s,long[] k) { size = s; kids = k; }
+        }
+        static final int MinSize = 6; // 64 bytes
+        final FileChannel file;
+        final AtomicLong length = new AtomicLong(1); // id 0 means not written
+        final HashMap<Long,Slot> slots = new HashMap<>();
+        final ArrayDeque<Long>[] free = new ArrayDeque[32];
+        final HashSet<RootRef> roots = new HashSet<>();
+        final ReferenceQueue<Root> released = new ReferenceQueue<>();
+        PageFile()
+        {
+            try
+            {
+                var f = File.createTempFile("sidx", ".pages");
+                f.deleteOnExit();
+                file = new RandomAccessFile(f, "rw").getChannel();
+            }
+            catch (IOException e)
+            {
+                throw new Error("Cannot create index page file");
+            }
+        }
+        /// <summary>
+        /// Fetch a page from the cache or the file
+        /// </summary>
+        SPagedTree.Page Read(long id)
+        {
+            var k = new PageKey(this, id);
+            synchronized (cache)
+            {
+                var p = cache.get(k);
+                if (p != null)
+                    return p;
+            }
+            try
+            {
+                var hd = ByteBuffer.allocate(4);
+                while (hd.hasRemaining() && file.read(hd, id + hd.position()) > 0)
+                    ;
+                var bs = ByteBuffer.allocate(hd.getInt(0));
+                while (bs.hasRemaining() && file.read(bs, id + 4 + bs.position()) > 0)
+                    ;
+                var p = SPagedTree.Page.Get(id, new BytesReader(bs.array()));
+                synchronized (cache)
+                {
+                    cache.put(k, p);
+                }
+                return p;
+            }
+            catch (Exception e)
+            {
+                throw new Error("Bad index page " + id);
+            }
+        }
+        /// <summary>
+        /// Write the unwritten pages reachable from root, children first, and
+        /// publish the result. The pages are replaced by written copies.
+        /// </summary>
+        /// <returns>the Root for the written copy of root</returns>
+        synchronized Root Write(SPagedTree.Page root)
+        {
+            try
+            {
+                Reclaim();
+                var ws = new ArrayList<SPagedTree.Page>();
+                var r = root.Write(this, new BytesWriter(), ws);
+                var g = new Root(r);
+                slots.get(r.id).refs++;
+                roots.add(new RootRef(g, released));
+                synchronized (cache)
+                {
+                    for (var p : ws)
+                        cache.put(new PageKey(this, p.id), p);
+                }
+                return g;
+            }
+            catch (Exception e)
+            {
+                throw new Error("Cannot write index pages");
+            }
+        }
+        /// <summary>
+        /// Store a serialised page (see SPagedTree.Page.Write) in a free slot
+        /// of its size class, or at the end of the file
+        /// </summary>
+        /// <returns>the new page id</returns>
+        long Put(BytesWriter w,long[] kids) throws IOException
+        {
+            var s = MinSize;
+            while ((1L << s) < w.len)
+                s++;
+            var fl = free[s];
+            long id;
+            if (fl != null && !fl.isEmpty())
+                id = fl.pop();
+            else
+                id = length.getAndAdd(1L << s);
+            var bb = ByteBuffer.wrap(w.bytes, 0, w.len);
+            while (bb.hasRemaining())
+                file.write(bb, id + bb.position());
+            slots.put(id, new Slot(s, kids));
+            if (kids != null)
+                for (var c : kids)
+                    slots.get(c).refs++;
+            return id;
+        }
+        /// <summary>
+        /// Release the roots that no tree holds any longer
+        /// </summary>
+        void Reclaim()
+        {
+            for (var r = (RootRef)released.poll(); r != null;
+                    r = (RootRef)released.poll())
+            {
+                roots.remove(r);
+                Release(r.id);
+            }
+        }
+        void Release(long id)
+        {
+            var st = new ArrayDeque<Long>();
+            st.push(id);
+            while (!st.isEmpty())
+            {
+                var p = st.pop();
+                var s = slots.get(p);
+                if (--s.refs > 0)
+                    continue;
+                slots.remove(p);
+                if (free[s.size] == null)
+                    free[s.size] = new ArrayDeque<>();
+                free[s.size].push(p);
+                synchronized (cache)
+                {
+                    cache.remove(new PageKey(this, p));
+                }
+                if (s.kids != null)
+                    for (var c : s.kids)
+                        st.push(c);
+            }
+        }
+}
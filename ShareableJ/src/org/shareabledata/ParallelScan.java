@@ -0,0 +1,147 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.shareabledata;
+import java.util.ArrayList;
+import java.util.concurrent.*;
+/**
+ *
+ * @author Malcolm
+ * Parallel execution of a batch pipeline over a large table. The rows
+ * SDict of the table's snapshot is immutable, so it is divided into key
+ * ranges (SDict.Splits) and each Part is run through the same filter and
+ * projection (RowSet.Batches(p)) as a task on a shared ForkJoinPool.
+ * The results of the parts are then taken in key order: batches for the
+ * server, or partial aggregates that EvalRowSet and GroupRowSet merge.
+ * Parallelism is the server-wide number of threads (StrongStart -j), and
+ * tables with fewer than MinRows rows are scanned on the session thread.
+ * This class is not shareable.
+ */
+public class ParallelScan {
+        public static volatile int Parallelism =
+                Runtime.getRuntime().availableProcessors();
+        public static volatile long MinRows = 32768;
+        /// <summary>
+        /// Each thread gets this many parts on average, to even out skew
+        /// </summary>
+        static final int PartsPerThread = 2;
+        static ForkJoinPool pool = null;
+        /// <summary>
+        /// The rows with keys after after, up to and including last: a
+        /// null bound is the start or end of the table
+        /// </summary>
+        public static class Part
+        {
+            public final Long after, last;
+            Part(Long a,Long l)
+            {
+                after = a; last = l;
+            }
+        }
+        /// <summary>
+        /// Work to do on the batches of one part
+        /// </summary>
+        public interface Task<T>
+        {
+            T Run(RowBatch.Cursor c) throws Exception;
+        }
+        static synchronized ForkJoinPool Pool()
+        {
+            if (pool == null)
+                pool = new ForkJoinPool(Parallelism);
+            return pool;
+        }
+        /// <summary>
+        /// The parts for a parallel scan of rs, or null if it should run on
+        /// this thread. Scans started by a task are not divided again.
+        /// </summary>
+        public static Part[] Parts(RowSet rs)
+        {
+            var np = Parallelism;
+            if (np < 2 || ForkJoinTask.inForkJoinPool())
+                return null;
+            var ts = rs.Scan();
+            if (ts == null || ts._tb.rows == null || ts._tb.rows.Length < MinRows)
+                return null;
+            var ks = ts._tb.rows.Splits(np * PartsPerThread);
+            if (ks.isEmpty())
+                return null;
+            var r = new Part[ks.size() + 1];
+            for (var i = 0; i < r.length; i++)
+                r[i] = new Part((i == 0) ? null : ks.get(i - 1),
+                        (i == ks.size()) ? null : ks.get(i));
+            return r;
+        }
+        /// <summary>
+        /// Run t on each part of rs, giving the results in part order, or
+        /// null if rs cannot work in batches
+        /// </summary>
+        public static <T> ArrayList<T> Map(RowSet rs,Part[] ps,Task<T> t)
+                throws Exception
+        {
+            var cs = new RowBatch.Cursor[ps.length];
+            for (var i = 0; i < ps.length; i++)
+                if ((cs[i] = rs.Batches(ps[i])) == null)
+                    return null;
+            var fs = new ArrayList<ForkJoinTask<T>>();
+            for (var c : cs)
+                fs.add(Pool().submit(() -> t.Run(c)));
+            var r = new ArrayList<T>();
+            try {
+                for (var f : fs)
+                    r.add(f.get());
+            } catch (ExecutionException e) {
+                for (var f : fs)
+                    f.cancel(false);
+                var c = e.getCause();
+                if (c instanceof Exception)
+                    throw (Exception)c;
+                throw e;
+            }
+            return r;
+        }
+        /// <summary>
+        /// The batches of rs, computed in parallel if it is large enough
+        /// </summary>
+        public static RowBatch.Cursor Batches(RowSet rs) throws Exception
+        {
+            var ps = Parts(rs);
+            var bs = (ps == null) ? null : Map(rs, ps, c -> {
+                var r = new ArrayList<RowBatch>();
+                for (var b = c.Next(); b != null; b = c.Next())
+                    r.add(b.Copy());
+                return r;
+            });
+            if (bs == null)
+                return rs.Batches();
+            return new RowBatch.Cursor() {
+                int part = 0, next = 0;
+                @Override
+                public RowBatch Next()
+                {
+                    for (; part < bs.size(); part++, next = 0)
+                        if (next < bs.get(part).size())
+                            return bs.get(part).get(next++);
+                    return null;
+                }
+            };
+        }
+        /// <summary>
+        /// The aggregates fs over each part of rs, computed in parallel, for
+        /// the caller to merge in order (RowBatch.Aggregates.Merge); or null
+        /// if rs should be scanned on this thread
+        /// </summary>
+        public static ArrayList<SDict<Long,Serialisable>> Aggregate(SDatabase tr,
+                RowSet rs,RowBatch.Aggregates fs) throws Exception
+        {
+            var ps = Parts(rs);
+            return (ps == null) ? null : Map(rs, ps, c -> {
+                SDict<Long,Serialisable> r = null;
+                for (var b = c.Next(); b != null; b = c.Next())
+                    r = fs.AddIn(tr, r, b);
+                return r;
+            });
+        }
+}
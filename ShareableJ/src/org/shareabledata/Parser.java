@@ -68,35 +68,37 @@ public class Parser {
         JOIN = 50,
         KEY = 51,
         LEFT = 52,
-        MAX = 53,
-        MIN = 54,
-        NATURAL = 55,
-        NOT = 56,
-        NOTNULL = 57,
-        NULL = 58,
-        NUMERIC = 59,
-        ON = 60,
-        OR = 61,
-        ORDERBY = 62,
-        OUTER = 63,
-        PRIMARY = 64,
-        REFERENCES = 65,
-        RIGHT = 66,
-        ROLLBACK = 67,
-        SELECT = 68,
-        SET = 69,
-        STRING = 70,
-        SUM = 71,
-        TABLE = 72,
-        TIMESPAN = 73,
-        TO = 74,
-        TRUE = 75,
-        UNIQUE = 76,
-        UPDATE = 77,
-        USING = 78,
-        VALUE = 79,
-        VALUES = 80,
-        WHERE = 81;
+        MATERIALIZED = 53,
+        MAX = 54,
+        MIN = 55,
+        NATURAL = 56,
+        NOT = 57,
+        NOTNULL = 58,
+        NULL = 59,
+        NUMERIC = 60,
+        ON = 61,
+        OR = 62,
+        ORDERBY = 63,
+        OUTER = 64,
+        PRIMARY = 65,
+        REFERENCES = 66,
+        RIGHT = 67,
+        ROLLBACK = 68,
+        SELECT = 69,
+        SET = 70,
+        STRING = 71,
+        SUM = 72,
+        TABLE = 73,
+        TIMESPAN = 74,
+        TO = 75,
+        TRUE = 76,
+        UNIQUE = 77,
+        UPDATE = 78,
+        USING = 79,
+        VALUE = 80,
+        VALUES = 81,
+        VIEW = 82,
+        WHERE = 83;
     static String[] syms= new String[]{ 
         "Null","ID","LITERAL","LPAREN","COMMA","RPAREN", //0-5
         "COLON","EQUAL","NEQ","LEQ","LSS","GEQ","GTR","DOT", // 6-13
@@ -105,11 +107,12 @@ public class Parser {
         "COUNT","CREATE","CROSS","DATE","DEFAULT","DELETE","DESC", //27-33
         "DISTINCT","DROP","FALSE","FOR","FOREIGN","FROM","FULL", //34-40
         "GENERATED","GROUPBY","HAVING","INDEX","INSERT","INTEGER","IN", //41-47
-        "INNER","IS","JOIN","KEY","LEFT","MAX","MIN", // 48-54
-        "NATURAL","NOT","NOTNULL","NULL","NUMERIC","ON","OR", // 55-61
-        "ORDERBY","OUTER","PRIMARY","REFERENCES","RIGHT","ROLLBACK",//62-67
-        "SELECT","SET","STRING","SUM","TABLE","TIMESPAN",//68-73
-        "TO","TRUE","UNIQUE","UPDATE","USING","VALUE","VALUES","WHERE"}; // 74-81
+        "INNER","IS","JOIN","KEY","LEFT","MATERIALIZED","MAX", // 48-54
+        "MIN","NATURAL","NOT","NOTNULL","NULL","NUMERIC","ON", // 55-61
+        "OR","ORDERBY","OUTER","PRIMARY","REFERENCES","RIGHT",//62-67
+        "ROLLBACK","SELECT","SET","STRING","SUM","TABLE",//68-73
+        "TIMESPAN","TO","TRUE","UNIQUE","UPDATE","USING",//74-79
+        "VALUE","VALUES","VIEW","WHERE"}; // 80-83
     }
     class Lexer
     {
@@ -493,6 +496,9 @@ public class Parser {
                             case Sym.PRIMARY:
                                 Next(); Mustbe(Sym.INDEX);
                                 return new ParsePair(CreateIndex(true),uids);
+                            case Sym.MATERIALIZED:
+                                Next(); Mustbe(Sym.VIEW);
+                                return new ParsePair(CreateView(),uids);
                         }
                         throw new Exception("Unknown Create " + lxr.tok);
                     }
@@ -657,6 +663,17 @@ public class Parser {
             }
             return ctb;
         }
+        /// <summary>
+        /// CreateView: CREATE MATERIALIZED VIEW id AS Select .
+        /// </summary>
+        Serialisable CreateView() throws Exception
+        {
+            var vw = MustBeID();
+            Mustbe(Sym.AS);
+            if (lxr.tok != Sym.SELECT)
+                throw new Exception("Syntax error: " + Sym.syms[lxr.tok]);
+            return new SCreateView(vw, (SQuery)Select().UpdateAliases(uids));
+        }
         SCreateTable TableDef(long tb,SCreateTable ctb)
                 throws Exception
         {
@@ -1193,7 +1210,13 @@ public class Parser {
                     {
                         var t = lxr.tok;
                         Next(); Mustbe(Sym.LPAREN);
-                        var a = Value();
+                        Serialisable a;
+                        if (t == Sym.COUNT && lxr.tok == Sym.TIMES)
+                        { // COUNT(*) counts the rows
+                            Next();
+                            a = SInteger.One;
+                        } else
+                            a = Value();
                         Mustbe(Sym.RPAREN);
                         return Call(t, a);
                     }
@@ -8,21 +8,25 @@ package org.shareabledata;
 import java.util.ArrayList;
 import java.util.List;
 import java.io.*;
+import java.nio.ByteBuffer;
 /**
  * This class is not shareable
  * @author Malcolm
  */
 public class Reader extends ReaderBase {
-    public RandomAccessFile file;
+    /// <summary>
+    /// Reads are positional, so readers of a snapshot share neither a file
+    /// pointer nor a lock with each other or with a committing Writer
+    /// </summary>
+    public LogFile file;
     public final long limit;
     public boolean GetBuf(long s) throws Exception
     {
         int m = (limit == 0 || limit >= s + Buffer.Size) ? Buffer.Size : (int)(limit - s);
-        synchronized(file)
-        {
-            file.seek(s);
-            buf.len = file.read(buf.buf, 0, m);
-        }
+        var bb = ByteBuffer.wrap(buf.buf, 0, m);
+        while (bb.hasRemaining() && file.read(bb, s + bb.position()) > 0)
+            ;
+        buf.len = (bb.position() == 0 && m > 0) ? -1 : bb.position();
         buf.start = s;
         return buf.len>0;
     }
@@ -39,6 +43,83 @@ public class Reader extends ReaderBase {
         }
         return buf.buf[buf.pos++];
     }
+    @Override
+    public int ReadBytes(byte[] b, int off, int len) throws Exception
+    {
+        var n = 0;
+        while (n < len && Position() < limit)
+        {
+            if (buf.pos==buf.len)
+            {
+                if (!GetBuf(buf.start + buf.len))
+                    break;
+                buf.pos = 0;
+            }
+            n += buf.Get(b, off + n, (int)Math.min(len - n, limit - Position()));
+        }
+        return n;
+    }
+    /// <summary>
+    /// The next object in the log, stepping over the ends of commits
+    /// </summary>
+    @Override
+    public Serialisable _Get() throws Exception
+    {
+        var tp = ReadByte();
+        while (tp == Types.SCommit)
+            tp = ReadByte();
+        return (tp < 0) ? null : _Get(tp);
+    }
+    /// <summary>
+    /// Move to position s, reusing the buffer if it holds s
+    /// </summary>
+    void Seek(long s) throws Exception
+    {
+        if (s >= buf.start && s < buf.start + buf.len)
+            buf.pos = (int)(s - buf.start);
+        else
+        {
+            GetBuf(s);
+            buf.pos = 0;
+        }
+    }
+    /// <summary>
+    /// Step through the fields of the record or update at s without
+    /// decoding them, noting in offs[j][i] where the value of column j of
+    /// rt starts, or -1 if the record has no such field. False if the
+    /// fields cannot be found this way because they are compressed.
+    /// (See RowBatch.Load)
+    /// </summary>
+    boolean Offsets(long s,RowType rt,long[][] offs,int i) throws Exception
+    {
+        Seek(s);
+        var tp = ReadByte();
+        if (tp != Types.SRecord && tp != Types.SUpdate)
+            return false;
+        GetLong(); // table
+        var n = GetInt();
+        if (n == Compression.Flag)
+            return false;
+        for (var j = 0; j < offs.length; j++)
+            offs[j][i] = -1;
+        for (var k = 0; k < n; k++)
+        {
+            var j = rt.Ordinal(GetLong());
+            if (j >= 0)
+                offs[j][i] = Position();
+            SkipValue();
+        }
+        return true;
+    }
+    /// <summary>
+    /// Decode the value of column c of table tb found at s by Offsets
+    /// </summary>
+    Serialisable Field(long s,STable tb,long c) throws Exception
+    {
+        Seek(s);
+        var tp = ReadByte();
+        return (tp == Types.SStringRef) ? StringRef(tb, c, GetLong()) : _Get(tp);
+    }
     Reader(SDatabase d) throws Exception
     {
         db = d;
@@ -48,7 +129,6 @@ public class Reader extends ReaderBase {
     }
     Reader(SDatabase d, long s) throws Exception
     {
-        db = d;
         db = d;
         file = d.File();
         limit = d.curpos;
@@ -6,6 +6,7 @@
 package org.shareabledata;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 
 /**
  * 
@@ -17,32 +18,53 @@ public abstract class ReaderBase extends IOBase {
     public long lastAlias = SDbObject.maxAlias;
     public Serialisable req;
     public SDatabase db;   // a copy, updatable during Get, Load
+    HashMap<Long,SDict<Long,Serialisable>> refs = null; // see StringRef
     public long Position()
     { return buf.start + buf.pos; }
     public Bigint GetInteger() throws Exception
     {
-        var n = ReadByte();
+        return GetInteger(ReadByte());
+    }
+    /// <summary>
+    /// The body of an integer whose length byte n has already been read
+    /// </summary>
+    Bigint GetInteger(int n) throws Exception
+    {
         var cs = new byte[n];
-        for (int j = 0; j < n; j++)
-            cs[j] = (byte)ReadByte();
+        ReadBytes(cs, 0, n);
         return new Bigint(cs);
     }
     public static long pe13;
     public int GetInt() throws Exception
     {
         pe13 = Position();
-        return GetInteger().toInt();
+        return (int)GetLong();
     }
     public long GetLong() throws Exception
     {
-        return GetInteger().toLong();
+        return GetLong(ReadByte());
+    }
+    /// <summary>
+    /// Decode an integer of n bytes without allocating. As with
+    /// Bigint.toLong, only the low-order 8 bytes of a longer value are kept.
+    /// </summary>
+    long GetLong(int n) throws Exception
+    {
+        if (n < 0)
+            throw new Exception("Unexpected end of input");
+        if (n == 0)
+            return 0;
+        long v = (byte)ReadByte(); // sign-extends
+        for (int j = 1; j < n; j++)
+            v = (v << 8) | (ReadByte() & 0xff);
+        return v;
     }
     public String GetString() throws Exception
     {
         int n = GetInt();
         byte[] cs = new byte[n];
-        for (int j = 0; j < n; j++)
-        cs[j] = (byte)ReadByte();
+        if (ReadBytes(cs, 0, n) < n)
+            throw new Exception("Unexpected end of input");
         return new String(cs, 0, n, "UTF-8");
     }
     public Serialisable _Get() throws Exception
@@ -50,6 +72,13 @@ public abstract class ReaderBase extends IOBase {
         int tp = ReadByte();
         if (tp<0)
             return null;
+        return _Get(tp);
+    }
+    /// <summary>
+    /// Decode an object whose type byte tp has already been read
+    /// </summary>
+    Serialisable _Get(int tp) throws Exception
+    {
         Serialisable s;
         switch (tp)
         {
@@ -67,10 +96,11 @@ public abstract class ReaderBase extends IOBase {
             case Types.SColumn: s = SColumn.Get(this); break;
             case Types.SRecord: s = SRecord.Get(this); break;
             case Types.SUpdate: s = SUpdate.Get(this); break;
-            case Types.SDelete: s = SDelete.Get(this); break;
+            case Types.SDelete: s = new SDelete(this); break;
             case Types.SAlter: s = SAlter.Get(this); break;
             case Types.SDrop: s = SDrop.Get(this); break;
             case Types.SIndex: s = SIndex.Get(this); break;
+            case Types.SMaterializedView: s = SMaterializedView.Get(this); break;
             case Types.SCreateTable: s = SCreateTable.Get(this); break;
             case Types.SUpdateSearch: s = SUpdateSearch.Get(this); break;
             case Types.SDeleteSearch: s = SDeleteSearch.Get(this); break;
@@ -92,6 +122,97 @@ public abstract class ReaderBase extends IOBase {
         }
         return s;
     }
+    /// <summary>
+    /// Step over an SRecord, SUpdate or SDelete whose type byte tp has
+    /// already been read, without decoding it. LogReplay uses this to find
+    /// record boundaries: the layout follows the Put methods of those classes.
+    /// </summary>
+    void SkipRecord(int tp) throws Exception
+    {
+        SkipInteger(); // table
+        if (tp == Types.SDelete)
+            SkipInteger(); // delpos
+        else
+            SkipFields();
+        if (tp == Types.SUpdate)
+            SkipInteger(); // defpos
+        if (tp != Types.SRecord)
+            SkipFields(); // old key fields
+    }
+    void SkipFields() throws Exception
+    {
+        var n = GetInt();
+        if (n == Compression.Flag)
+        {
+            GetInt(); // raw length
+            var m = GetInt();
+            if (ReadBytes(new byte[m], 0, m) < m)
+                throw new Exception("Unexpected end of input");
+            return;
+        }
+        for (var i = 0; i < n; i++)
+        {
+            SkipInteger();
+            SkipValue();
+        }
+    }
+    /// <summary>
+    /// Step over a field value. Anything other than a simple value is
+    /// decoded in the ordinary way.
+    /// </summary>
+    void SkipValue() throws Exception
+    {
+        var tp = ReadByte();
+        switch (tp)
+        {
+            case Types.Serialisable: break;
+            case Types.SBoolean: ReadByte(); break;
+            case Types.SBigInt:
+            case Types.SInteger:
+            case Types.STimeSpan: SkipInteger(); break;
+            case Types.SNumeric:
+            case Types.SDate: SkipInteger(); SkipInteger(); SkipInteger(); break;
+            case Types.SString: Skip(GetInt()); break;
+            case Types.SStringRef: SkipInteger(); break;
+            default: _Get(tp); break;
+        }
+    }
+    /// <summary>
+    /// Decode a coded string: the value of column c in record u. This is
+    /// normally in tb's dictionary. A reader without the dictionary (the
+    /// workers of LogReplay) reads it from record u, where it is stored in
+    /// full.
+    /// </summary>
+    SString StringRef(STable tb,long c,long u) throws Exception
+    {
+        var d = (tb == null || tb.strings == null) ? null : tb.strings.Lookup(c);
+        var s = (d == null) ? null : d.values.Lookup(u);
+        if (s != null)
+            return s;
+        var r = (refs == null) ? null : refs.get(u);
+        if (r == null)
+        {
+            var rd = new Reader(db);
+            rd.Seek(u);
+            r = ((SRecord)rd._Get()).fields;
+            if (refs == null)
+                refs = new HashMap<>();
+            refs.put(u, r);
+        }
+        return (SString)r.get(c);
+    }
+    void SkipInteger() throws Exception
+    {
+        var n = ReadByte();
+        if (n < 0)
+            throw new Exception("Unexpected end of input");
+        Skip(n);
+    }
+    void Skip(int n) throws Exception
+    {
+        if (n > 0 && ReadBytes(new byte[n], 0, n) < n)
+            throw new Exception("Unexpected end of input");
+    }
     public STable GetTable() throws Exception
     {
         var tb = new STable(Position() - 1);
@@ -109,8 +230,12 @@ public abstract class ReaderBase extends IOBase {
     public SDbObject[] GetAll(long max) throws Exception
     {
         var r = new ArrayList();
-        while (Position() < max)
-            r.add((SDbObject)_Get());
+        while (Position() < max) {
+            var s = (SDbObject)_Get();
+            if (s == null)
+                break;
+            r.add(s);
+        }
         return (SDbObject[])r.toArray(new SDbObject[0]);
     }
     public Serialisable Lookup(long pos)
@@ -0,0 +1,216 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.shareabledata;
+import java.lang.ref.WeakReference;
+import java.util.*;
+/**
+ *
+ * @author Malcolm
+ * The server's cache of query results. A snapshot is immutable, so the
+ * result of a query depends only on the query and on the versions of the
+ * tables it reads, and each version of a table is a distinct STable. An
+ * Entry is keyed by the database, the names the client sent and the
+ * serialised query, and records the STables it was computed from (weakly,
+ * so that old versions of a table can still be collected). It is used only
+ * while the same STables are current; a commit that touches one of its
+ * tables removes it at once (Invalidate, from STransaction.Commit).
+ * Queries that read system tables or uncommitted data are not cached.
+ * The cache is off unless Capacity (StrongStart -c) is set, and keeps the
+ * total size of its entries within Capacity bytes, discarding the least
+ * recently used. The counts are in the _Cache system table.
+ * This class is not shareable.
+ */
+public class ResultCache {
+        public static volatile long Capacity = 0;
+        static long hits = 0, misses = 0, invalidated = 0, evicted = 0, bytes = 0;
+        /// <summary>
+        /// The entries, least recently used first
+        /// </summary>
+        static final LinkedHashMap<String,Entry> entries =
+                new LinkedHashMap<>(16, 0.75f, true);
+        /// <summary>
+        /// The keys of the entries that read each table, by database and uid
+        /// </summary>
+        static final HashMap<String,HashSet<String>> readers = new HashMap<>();
+        public static class Entry
+        {
+            final String key, dbname;
+            final long[] tables;
+            final WeakReference<SDbObject>[] versions;
+            final WeakReference<SDict<String,Long>> names;
+            public final String[] display;
+            public final String result;
+            final long size;
+            Entry(String k,SDatabase db,long[] ts,String[] d,String r)
+            {
+                key = k; dbname = db.name; tables = ts;
+                display = d; result = r;
+                versions = new WeakReference[ts.length];
+                for (var i = 0; i < ts.length; i++)
+                    versions[i] = new WeakReference<>(db.objects.Lookup(ts[i]));
+                names = new WeakReference<>(db.role.globalNames);
+                var n = 2L * (k.length() + r.length()) + 64L * (ts.length + 1);
+                if (d != null)
+                    for (var s : d)
+                        n += 2L * s.length();
+                size = n;
+            }
+            /// <summary>
+            /// Whether the tables and names of db are those of the entry
+            /// </summary>
+            boolean Current(SDatabase db)
+            {
+                if (names.get() != db.role.globalNames)
+                    return false;
+                for (var i = 0; i < tables.length; i++)
+                {
+                    var v = versions[i].get();
+                    if (v == null || v != db.objects.Lookup(tables[i]))
+                        return false;
+                }
+                return true;
+            }
+        }
+        /// <summary>
+        /// The key for query q with the names ns sent for it, or null if the
+        /// cache is off or tr has uncommitted changes
+        /// </summary>
+        public static String Key(STransaction tr,SDict<Long,String> ns,
+                Serialisable q) throws Exception
+        {
+            if (Capacity <= 0 || ns == null || tr.uid != STransaction._uid)
+                return null;
+            var sb = new StringBuilder(tr.name);
+            sb.append('\0');
+            for (var b = ns.First(); b != null; b = b.Next())
+            {
+                sb.append(b.getValue().key); sb.append('=');
+                sb.append(b.getValue().val); sb.append(';');
+            }
+            sb.append('\0');
+            var w = new BytesWriter();
+            q.Put(w);
+            for (var i = 0; i < w.len; i++)
+                sb.append((char)(w.bytes[i] & 0xff));
+            return sb.toString();
+        }
+        static String Reader(String db,long t)
+        {
+            return db + "\0" + t;
+        }
+        /// <summary>
+        /// The entry for key if it is current for tr, or null
+        /// </summary>
+        public static synchronized Entry Get(SDatabase tr,String key)
+        {
+            var e = entries.get(key);
+            if (e != null && !e.Current(tr))
+            {
+                Remove(e);
+                invalidated++;
+                e = null;
+            }
+            if (e == null)
+                misses++;
+            else
+                hits++;
+            return e;
+        }
+        /// <summary>
+        /// Remember the result r of the prepared query qy in tr
+        /// </summary>
+        public static void Put(SDatabase tr,String key,SQuery qy,
+                String[] display,String r)
+        {
+            var ts = qy.Tables(null);
+            if (ts == null)
+                return;
+            var tables = new long[ts.Length];
+            var i = 0;
+            for (var b = ts.First(); b != null; b = b.Next())
+            {
+                var u = b.getValue().key;
+                if (u < 0 || u >= STransaction._uid || tr.objects.Lookup(u) == null)
+                    return;
+                tables[i++] = u;
+            }
+            var e = new Entry(key, tr, tables, display, r);
+            if (e.size > Capacity)
+                return;
+            synchronized (ResultCache.class)
+            {
+                var o = entries.get(key);
+                if (o != null)
+                    Remove(o);
+                entries.put(key, e);
+                bytes += e.size;
+                for (var t : tables)
+                    readers.computeIfAbsent(Reader(e.dbname, t),
+                            k -> new HashSet<>()).add(key);
+                var it = entries.values().iterator();
+                while (bytes > Capacity && it.hasNext())
+                {
+                    var x = it.next();
+                    it.remove();
+                    Unlink(x);
+                    evicted++;
+                }
+            }
+        }
+        /// <summary>
+        /// A commit to database db has changed the given tables
+        /// </summary>
+        public static void Invalidate(String db,SDict<Long,Boolean> tables)
+        {
+            if (tables == null || Capacity <= 0)
+                return;
+            synchronized (ResultCache.class)
+            {
+                for (var b = tables.First(); b != null; b = b.Next())
+                {
+                    var ks = readers.remove(Reader(db, b.getValue().key));
+                    if (ks != null)
+                        for (var k : ks)
+                        {
+                            var e = entries.get(k);
+                            if (e != null)
+                            {
+                                Remove(e);
+                                invalidated++;
+                            }
+                        }
+                }
+            }
+        }
+        static void Remove(Entry e)
+        {
+            entries.remove(e.key);
+            Unlink(e);
+        }
+        static void Unlink(Entry e)
+        {
+            bytes -= e.size;
+            for (var t : e.tables)
+            {
+                var r = Reader(e.dbname, t);
+                var ks = readers.get(r);
+                if (ks != null)
+                {
+                    ks.remove(e.key);
+                    if (ks.isEmpty())
+                        readers.remove(r);
+                }
+            }
+        }
+        /// <summary>
+        /// Hits, Misses, Invalidated, Evicted, Entries and Bytes
+        /// </summary>
+        public static synchronized long[] Counts()
+        {
+            return new long[]{ hits, misses, invalidated, evicted,
+                entries.size(), bytes };
+        }
+}
@@ -0,0 +1,292 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.shareabledata;
+
+/**
+ *
+ * @author Malcolm
+ * A block of up to Size rows of a RowSet, held by column: Get(j,i) is
+ * column j of row i, with the layout rowType. The selection vector sel
+ * lists the count rows that are still wanted, so a filter only rewrites
+ * sel (see SearchRowSet). RowSets that can work this way return a Cursor
+ * from Batches(): for now scans, filters, projections and aggregates
+ * (TableRowSet, SearchRowSet, SelectRowSet, EvalRowSet and GroupRowSet).
+ * A Cursor reuses its batch, so a batch is only valid until the next call.
+ * A batch from a table scan is decoded lazily (see Load): a value is only
+ * taken from the log when it is first needed (Get), so a filter decodes
+ * its own columns, and the other columns are decoded just for the rows
+ * that pass.
+ * This class is not shareable
+ */
+public class RowBatch {
+        public static final int Size = 1024;
+        /// <summary>
+        /// The RowSet whose rows these are (see Cx)
+        /// </summary>
+        public final RowSet rs;
+        public final RowType rowType;
+        public final Serialisable[][] cols;
+        /// <summary>
+        /// The records of rows decoded in full, or null
+        /// </summary>
+        public final SRecord[] recs;
+        public final int[] sel;
+        public int count = 0;
+        /// <summary>
+        /// For lazy decoding, the log position of each value not yet
+        /// decoded, or -1
+        /// </summary>
+        final long[][] offs;
+        final STable table;
+        Reader rdr = null;
+        public RowBatch(RowSet r,RowType rt)
+        {
+            this(r,rt,Size,null);
+        }
+        RowBatch(RowSet r,RowType rt,int n)
+        {
+            this(r,rt,n,null);
+        }
+        /// <summary>
+        /// A batch for rows of table tb, decoded lazily if lazy
+        /// </summary>
+        RowBatch(TableRowSet ts,STable tb,boolean lazy,int n)
+        {
+            this(ts,ts._rt,n,lazy?tb:null);
+        }
+        private RowBatch(RowSet r,RowType rt,int n,STable tb)
+        {
+            rs = r;
+            rowType = rt;
+            cols = new Serialisable[rt.Length()][n];
+            recs = new SRecord[n];
+            sel = new int[n];
+            table = tb;
+            offs = (tb == null) ? null : new long[rt.Length()][n];
+        }
+        /// <summary>
+        /// Row i is the record at pos. If the batch is lazy and the record
+        /// is in the log, just find where its fields are; otherwise decode
+        /// it as SRow(db,rec) does.
+        /// </summary>
+        void Load(int i,long pos) throws Exception
+        {
+            var db = rs._tr;
+            if (offs != null && pos >= 0 && pos < db.curpos)
+            {
+                if (rdr == null)
+                    rdr = new Reader(db, pos);
+                if (rdr.Offsets(pos, rowType, offs, i))
+                {
+                    for (var j = 0; j < cols.length; j++)
+                        if (offs[j][i] < 0)
+                            cols[j][i] = Serialisable.Null;
+                    recs[i] = null;
+                    return;
+                }
+            }
+            var rc = db.Get(pos);
+            for (var j = 0; j < cols.length; j++)
+            {
+                cols[j][i] = SRow.Field(db, rc, rowType.columns[j]);
+                if (offs != null)
+                    offs[j][i] = -1;
+            }
+            recs[i] = rc;
+        }
+        /// <summary>
+        /// Column j of row i, decoding it if need be
+        /// </summary>
+        public Serialisable Get(int j,int i)
+        {
+            if (offs != null && offs[j][i] >= 0)
+            {
+                try {
+                    cols[j][i] = rdr.Field(offs[j][i], table, rowType.uids[j]);
+                } catch (Exception e)
+                {
+                    throw new Error("bad log at " + offs[j][i]);
+                }
+                offs[j][i] = -1;
+            }
+            return cols[j][i];
+        }
+        /// <summary>
+        /// Keep the selected rows that satisfy all of the conditions wh,
+        /// testing each condition in turn on the rows that are left
+        /// </summary>
+        public void Filter(SDatabase tr,Evaluator[] wh)
+        {
+            if (wh != null)
+                for (var e : wh)
+                {
+                    var n = 0;
+                    for (var k = 0; k < count; k++)
+                        if (e.Test(tr, this, sel[k]))
+                            sel[n++] = sel[k];
+                    count = n;
+                }
+        }
+        /// <summary>
+        /// A batch of just the selected rows, that the Cursor will not
+        /// reuse (see ParallelScan)
+        /// </summary>
+        public RowBatch Copy()
+        {
+            var r = new RowBatch(rs, rowType, count);
+            for (var k = 0; k < count; k++)
+            {
+                var i = sel[k];
+                for (var j = 0; j < cols.length; j++)
+                    r.cols[j][k] = Get(j, i);
+                r.recs[k] = recs[i];
+                r.sel[k] = k;
+            }
+            r.count = count;
+            return r;
+        }
+        /// <summary>
+        /// Row i as an SRow
+        /// </summary>
+        public SRow Row(int i)
+        {
+            var vs = new Serialisable[cols.length];
+            for (var j = 0; j < cols.length; j++)
+                vs[j] = Get(j, i);
+            return new SRow(rowType, vs, recs[i], false);
+        }
+        /// <summary>
+        /// The Context a RowBookmark would have for row i: Evaluators use
+        /// it for anything they cannot do from the columns
+        /// </summary>
+        public Context Cx(int i)
+        {
+            return RowBookmark._Cx(rs, Row(i), null);
+        }
+        public boolean isValue(int i)
+        {
+            for (var j = 0; j < cols.length; j++)
+                if (!Get(j, i).isValue())
+                    return false;
+            return true;
+        }
+        /// <summary>
+        /// Append row i as SRow.Append would
+        /// </summary>
+        public void Append(SDatabase db,StringBuilder sb,int i)
+        {
+            sb.append('{');
+            String cm = "";
+            for (var j = 0; j < cols.length; j++)
+            {
+                var v = Get(j, i);
+                if (v != Serialisable.Null)
+                {
+                    sb.append(cm); cm = ",";
+                    sb.append(rowType.idents[j].id);
+                    sb.append(":");
+                    v.Append(db, sb);
+                }
+            }
+            sb.append("}");
+        }
+        /// <summary>
+        /// The aggregate functions of a query with their arguments compiled
+        /// (see EvalRowSet and GroupRowSet)
+        /// </summary>
+        public static class Aggregates
+        {
+            final SFunction[] funcs;
+            final Evaluator[] args;
+            public Aggregates(SDict<Long,Serialisable> ags)
+            {
+                var n = 0;
+                if (ags!=null)
+                    for (var b = ags.First(); b != null; b = b.Next())
+                        if (b.getValue().val.type == Types.SFunction)
+                            n++;
+                funcs = new SFunction[n];
+                args = new Evaluator[n];
+                n = 0;
+                if (ags!=null)
+                    for (var b = ags.First(); b != null; b = b.Next())
+                        if (b.getValue().val.type == Types.SFunction)
+                        {
+                            funcs[n] = (SFunction)b.getValue().val;
+                            args[n] = Evaluator.Compile(funcs[n].arg);
+                            n++;
+                        }
+            }
+            /// <summary>
+            /// Add in row i of b to the accumulators cur
+            /// </summary>
+            public SDict<Long,Serialisable> AddIn(SDatabase tr,
+                    SDict<Long,Serialisable> cur,RowBatch b,int i)
+            {
+                for (var j = 0; j < funcs.length; j++)
+                {
+                    var f = funcs[j];
+                    var v = args[j].Eval(tr, b, i);
+                    if (v != Serialisable.Null)
+                    {
+                        var w = (cur!=null && cur.Contains(f.fid))?
+                                f.AddIn(cur.get(f.fid),v):f.StartCounter(v);
+                        cur = (cur==null)?new SDict(f.fid,w):cur.Add(f.fid,w);
+                    }
+                }
+                return cur;
+            }
+            /// <summary>
+            /// Add in all the selected rows of b: each accumulator goes
+            /// through the batch before it is put back in cur
+            /// </summary>
+            public SDict<Long,Serialisable> AddIn(SDatabase tr,
+                    SDict<Long,Serialisable> cur,RowBatch b)
+            {
+                for (var j = 0; j < funcs.length; j++)
+                {
+                    var f = funcs[j];
+                    var e = args[j];
+                    var w = (cur!=null && cur.Contains(f.fid))?cur.get(f.fid):null;
+                    for (var k = 0; k < b.count; k++)
+                    {
+                        var v = e.Eval(tr, b, b.sel[k]);
+                        if (v != Serialisable.Null)
+                            w = (w==null)?f.StartCounter(v):f.AddIn(w,v);
+                    }
+                    if (w!=null)
+                        cur = (cur==null)?new SDict(f.fid,w):cur.Add(f.fid,w);
+                }
+                return cur;
+            }
+            /// <summary>
+            /// Combine the accumulators of a later part of the rows with cur
+            /// </summary>
+            public SDict<Long,Serialisable> Merge(SDict<Long,Serialisable> cur,
+                    SDict<Long,Serialisable> part)
+            {
+                if (part == null)
+                    return cur;
+                for (var f : funcs)
+                    if (part.Contains(f.fid))
+                    {
+                        var w = part.get(f.fid);
+                        if (cur != null && cur.Contains(f.fid))
+                            w = f.Combine(cur.get(f.fid), w);
+                        cur = (cur==null)?new SDict(f.fid,w):cur.Add(f.fid,w);
+                    }
+                return cur;
+            }
+        }
+        /// <summary>
+        /// Batches of rows in order. Next returns null at the end, and
+        /// otherwise a batch with at least one selected row.
+        /// </summary>
+        public static abstract class Cursor
+        {
+            public abstract RowBatch Next() throws Exception;
+        }
+}
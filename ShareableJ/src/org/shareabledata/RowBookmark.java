@@ -37,13 +37,13 @@ package org.shareabledata;
         @Override
         public boolean defines(Long s) 
         {
-            return s==_rs._qry.getAlias()||((SRow)_cx.refs).vals.Contains(s);
+            return s==_rs._qry.getAlias()||((SRow)_cx.refs).defines(s);
         }
         public Serialisable get(Long s)
         {
             if (s==_rs._qry.getAlias())
                 return (SRow)_cx.refs;
-            return ((SRow)_cx.refs).vals.get(s);
+            return ((SRow)_cx.refs).get(s);
         }
         public boolean SameGroupAs(RowBookmark r)
         {
@@ -57,6 +57,17 @@ package org.shareabledata;
                     return false;
             return true;
         }
+        /// <summary>
+        /// Matches for a compiled where condition (see Evaluator)
+        /// </summary>
+        public boolean Matches(Evaluator[] wh)
+        {
+            if (wh!=null)
+            for (var e : wh)
+                if (!e.Test(_rs._tr,_cx))
+                    return false;
+            return true;
+        }
         public MTreeBookmark<Serialisable> Mb()
         {
             return null;
@@ -18,4 +18,37 @@ public abstract class RowSet  extends Collection<Serialisable> {
             super(0);
             _tr = d; _qry = q; _cx = cx;
         }
+        /// <summary>
+        /// The rows a batch at a time, or null if this RowSet only works
+        /// a row at a time (see RowBatch)
+        /// </summary>
+        public RowBatch.Cursor Batches() throws Exception
+        {
+            return Batches(null);
+        }
+        /// <summary>
+        /// The rows from part p of the table scan under this RowSet, or all
+        /// of them if p is null (see ParallelScan)
+        /// </summary>
+        public RowBatch.Cursor Batches(ParallelScan.Part p) throws Exception
+        {
+            return null;
+        }
+        /// <summary>
+        /// The table scan that Batches(p) divides into parts, if any
+        /// </summary>
+        public TableRowSet Scan()
+        {
+            return null;
+        }
+        /// <summary>
+        /// The values of the aggregates ags over these rows, found from
+        /// row counts and index trees without reading any rows, or null if
+        /// they cannot all be found that way (see EvalRowSet)
+        /// </summary>
+        public SDict<Long,Serialisable> Metadata(SDict<Long,Serialisable> ags)
+                throws Exception
+        {
+            return null;
+        }
 }
@@ -0,0 +1,117 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.shareabledata;
+
+/**
+ *
+ * @author Malcolm
+ * The layout of an SRow: the column idents in order, and the ordinal for
+ * each uid. Rows with the same columns share one RowType (see
+ * TableRowSet, IndexRowSet and SelectRowSet), so a row is just an array of
+ * values, and a column can be found by its ordinal (see Evaluator.Column).
+ * If a uid occurs twice the later column is found, as when an SRow was
+ * built by SRow.Add.
+ * This class is shareable
+ */
+public class RowType {
+        public static final RowType Empty = new RowType(new Ident[0], null);
+        /// <summary>
+        /// Rows at most this wide find uids by a scan of the uids array
+        /// </summary>
+        static final int Scan = 16;
+        public final Ident[] idents;
+        public final SDict<Integer,Ident> names;
+        /// <summary>
+        /// For rows from a table, its columns in order (see SRow(db,rec))
+        /// </summary>
+        public final SColumn[] columns;
+        final long[] uids;
+        final SDict<Long,Integer> ordinals; // only for wide rows
+        /// <summary>
+        /// The ordinals of the distinct uids in uid order (see SRow.compareTo)
+        /// </summary>
+        final int[] sorted;
+        RowType(Ident[] ids,SColumn[] cs)
+        {
+            idents = ids;
+            columns = cs;
+            uids = new long[ids.length];
+            SDict<Integer,Ident> ns = null;
+            SDict<Long,Integer> os = null;
+            for (var i = 0; i < ids.length; i++)
+            {
+                uids[i] = ids[i].uid;
+                ns = (ns == null) ? new SDict<>(i, ids[i]) : ns.Add(i, ids[i]);
+                os = (os == null) ? new SDict<>(ids[i].uid, i) : os.Add(ids[i].uid, i);
+            }
+            names = ns;
+            ordinals = (ids.length > Scan) ? os : null;
+            sorted = new int[(os == null) ? 0 : os.Length];
+            var k = 0;
+            if (os != null)
+                for (var b = os.First(); b != null; b = b.Next())
+                    sorted[k++] = b.getValue().val;
+        }
+        public RowType(SDict<Integer,Ident> ns)
+        {
+            this(Idents(ns), null);
+        }
+        static Ident[] Idents(SDict<Integer,Ident> ns)
+        {
+            var r = new Ident[(ns == null) ? 0 : ns.Length];
+            var i = 0;
+            if (ns != null)
+                for (var b = ns.First(); b != null; b = b.Next())
+                    r[i++] = b.getValue().val;
+            return r;
+        }
+        /// <summary>
+        /// The layout of the rows of table tb in database db
+        /// </summary>
+        public static RowType For(SDatabase db,STable tb) throws Exception
+        {
+            var n = (tb.cpos == null) ? 0 : tb.cpos.Length;
+            var ids = new Ident[n];
+            var cs = new SColumn[n];
+            var i = 0;
+            if (tb.cpos != null)
+                for (var b = tb.cpos.First(); b != null; b = b.Next(), i++)
+                {
+                    cs[i] = (SColumn)b.getValue().val;
+                    ids[i] = new Ident(cs[i].uid, db.Name(cs[i].uid));
+                }
+            return new RowType(ids, cs);
+        }
+        public int Length()
+        {
+            return idents.length;
+        }
+        /// <summary>
+        /// The ordinal of uid u, or -1
+        /// </summary>
+        public int Ordinal(long u)
+        {
+            if (ordinals == null)
+            {
+                for (var i = uids.length - 1; i >= 0; i--)
+                    if (uids[i] == u)
+                        return i;
+                return -1;
+            }
+            var r = ordinals.Lookup(u);
+            return (r == null) ? -1 : r;
+        }
+        /// <summary>
+        /// This layout with another column at the end
+        /// </summary>
+        public RowType Add(Ident n)
+        {
+            var ids = new Ident[idents.length + 1];
+            System.arraycopy(idents, 0, ids, 0, idents.length);
+            ids[idents.length] = n;
+            return new RowType(ids, null);
+        }
+}
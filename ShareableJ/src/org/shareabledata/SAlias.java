@@ -56,6 +56,11 @@ public class SAlias extends SQuery {
         {
             return new SAlias((SQuery)qry.Prepare(db,pt),alias,uid);
         }
+        @Override
+        public SDict<Long,Boolean> Tables(SDict<Long,Boolean> ts)
+        {
+            return qry.Tables(ts);
+        }
         public static SAlias Get(ReaderBase f) throws Exception
         {
             var u = f.GetLong();
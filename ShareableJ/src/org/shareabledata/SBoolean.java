@@ -44,8 +44,8 @@ public class SBoolean extends Serialisable implements Comparable {
             if (o instanceof SRow)
             {
                 var sr = (SRow)o;
-                if (sr.cols.Length==1)
-                    return compareTo(sr.vals.First().getValue().val);
+                if (sr.cols.length==1)
+                    return compareTo(sr.cols[0]);
             }
             var that = (SBoolean)o;
             return (sbool==that.sbool)?0:sbool?1:-1;
@@ -75,19 +75,27 @@ public class SColumn extends SSelector {
         public SColumn(SColumn c,String nm,Writer f) throws Exception
         {
             super(c,f);
-            f.PutString(nm);
+            c.PutDef(f,nm);
             dataType = c.dataType;
             table = f.Fix(c.table);
+            constraints = c.constraints;
+        }
+        /// <summary>
+        /// Write the definition of this column named nm, which follows its
+        /// type (see Get): used by Writer.Commit and Writer.Compact
+        /// </summary>
+        void PutDef(Writer f,String nm) throws Exception
+        {
+            f.PutString(nm);
             f.WriteByte((byte)dataType);
-            f.PutLong(table);
-            f.PutInt((c.constraints==null)?0:c.constraints.Length);
-            if (c.constraints!=null)
-            for (var b = c.constraints.First(); b != null; b = b.Next())
+            f.PutLong(f.Fix(table));
+            f.PutInt((constraints==null)?0:constraints.Length);
+            if (constraints!=null)
+            for (var b = constraints.First(); b != null; b = b.Next())
             {
                 f.PutString(b.getValue().key);
                 b.getValue().val.Fix(f).Put(f);
             }
-            constraints = c.constraints;
         }
         public static SColumn Get(ReaderBase f) throws Exception
         {
@@ -0,0 +1,34 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.shareabledata;
+
+/**
+ *
+ * @author Malcolm
+ * CREATE MATERIALIZED VIEW as sent by the client: the name of the view
+ * and its select statement (see StrongServer and SMaterializedView)
+ */
+public class SCreateView extends Serialisable {
+    public final long vdef;
+    public final SQuery qry;
+    public SCreateView(long vn,SQuery q)
+    {
+        super(Types.SCreateView);
+        vdef = vn; qry = q;
+    }
+    @Override
+    public void Put(WriterBase f) throws Exception
+    {
+        super.Put(f);
+        f.PutLong(vdef);
+        qry.Put(f);
+    }
+    @Override
+    public String toString()
+    {
+        return "CreateView "+SDbObject._Uid(vdef)+" "+qry.toString();
+    }
+}
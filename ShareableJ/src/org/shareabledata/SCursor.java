@@ -0,0 +1,141 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.shareabledata;
+
+/**
+ *
+ * @author Malcolm
+ * A cursor for traversing an SDict forwards or backwards. Unlike an
+ * SDictBookmark, it is changed in place as it moves: its path from the
+ * root is kept in a pair of arrays, so that a step allocates nothing and
+ * the entries returned are the SSlots in the tree's leaves.
+ * It is for scans inside the engine, where no one keeps a position for
+ * later; clients and RowSets still use Bookmarks.
+ * This class is not shareable
+ */
+public class SCursor<K extends Comparable,V> {
+        public final SDict<K,V> _dict;
+        SBucket<K,V>[] _stk; // the buckets from the root to a leaf
+        int[] _pos; // the position in each, gtr being at count
+        int _top = -1; // the leaf level, or -1 if not on an entry
+        public SCursor(SDict<K,V> d)
+        {
+            _dict = d;
+            var n = 0;
+            for (var b = (d==null)?null:d.root; b != null; n++)
+                b = (b instanceof SInner)?((SInner<K,V>)b).gtr:null;
+            _stk = new SBucket[n];
+            _pos = new int[n];
+        }
+        /// <summary>
+        /// Make room for a path down to level i
+        /// </summary>
+        void Level(int i)
+        {
+            if (i < _stk.length)
+                return;
+            _stk = java.util.Arrays.copyOf(_stk,i + 1);
+            _pos = java.util.Arrays.copyOf(_pos,i + 1);
+        }
+        /// <summary>
+        /// The entry the cursor is on, or null
+        /// </summary>
+        public SSlot<K,V> getValue()
+        {
+            return (_top<0)?null:((SLeaf<K,V>)_stk[_top]).slots[_pos[_top]];
+        }
+        public SSlot<K,V> First()
+        {
+            if (_stk.length == 0 || _dict.root.total == 0)
+                return null;
+            Down(_dict.root,0,false);
+            return getValue();
+        }
+        public SSlot<K,V> Last()
+        {
+            if (_stk.length == 0 || _dict.root.total == 0)
+                return null;
+            Down(_dict.root,0,true);
+            return getValue();
+        }
+        /// <summary>
+        /// Move to the first entry whose key is not less than k
+        /// </summary>
+        public SSlot<K,V> PositionAt(K k)
+        {
+            if (_stk.length == 0 || _dict.root.total == 0)
+                return null;
+            var b = _dict.root;
+            var i = 0;
+            for (; b instanceof SInner; i++)
+            {
+                Level(i);
+                var p = b.PositionFor(k).pos;
+                _stk[i] = b; _pos[i] = p;
+                b = Child(b,p);
+            }
+            Level(i);
+            _stk[i] = b;
+            _pos[i] = b.PositionFor(k).pos;
+            _top = i;
+            if (_pos[i] < b.count)
+                return getValue();
+            _pos[i] = b.count - 1;
+            return Next();
+        }
+        public SSlot<K,V> Next()
+        {
+            if (_top < 0)
+                return null;
+            if (++_pos[_top] < _stk[_top].count)
+                return getValue();
+            for (var i = _top - 1; i >= 0; i--)
+                if (++_pos[i] <= _stk[i].count)
+                {
+                    Down(Child(_stk[i],_pos[i]),i + 1,false);
+                    return getValue();
+                }
+            _top = -1;
+            return null;
+        }
+        public SSlot<K,V> Previous()
+        {
+            if (_top < 0)
+                return null;
+            if (--_pos[_top] >= 0)
+                return getValue();
+            for (var i = _top - 1; i >= 0; i--)
+                if (--_pos[i] >= 0)
+                {
+                    Down(Child(_stk[i],_pos[i]),i + 1,true);
+                    return getValue();
+                }
+            _top = -1;
+            return null;
+        }
+        static <K extends Comparable,V> SBucket<K,V> Child(SBucket<K,V> b,int p)
+        {
+            var inr = (SInner<K,V>)b;
+            return (p == inr.count)?inr.gtr:inr.slots[p].val;
+        }
+        /// <summary>
+        /// Go down from b at level i to its first (or last) leaf entry
+        /// </summary>
+        void Down(SBucket<K,V> b,int i,boolean last)
+        {
+            for (; b instanceof SInner; i++)
+            {
+                Level(i);
+                _stk[i] = b;
+                _pos[i] = last?b.count:0;
+                b = Child(b,_pos[i]);
+            }
+            Level(i);
+            _stk[i] = b;
+            _pos[i] = last?b.count - 1:0;
+            _top = i;
+        }
+}
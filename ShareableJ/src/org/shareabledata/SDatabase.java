@@ -6,6 +6,9 @@
 package org.shareabledata;
 
 import java.io.*;
+import java.nio.file.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 /**
  *
@@ -17,10 +20,39 @@ public class SDatabase {
     public final SDict<Long, SDbObject> objects;
     public final long curpos;
     public final SRole role;
-    static final Object files = new Object(); // a lock 
-    protected static SDict<String, RandomAccessFile> dbfiles = null;
-    protected static SDict<String, SDatabase> databases = null;
+    /// <summary>
+    /// The primary, foreign key and column-list maps of the indexes,
+    /// maintained as indexes are installed and dropped
+    /// </summary>
+    public final SKeys keys;
+    /// <summary>
+    /// The log this snapshot was read from: after Compact, older snapshots
+    /// keep reading the file they came from
+    /// </summary>
+    final LogFile file;
+    /// <summary>
+    /// The registry of open files and loaded databases. Each is an immutable
+    /// SDict published by compare-and-set, so readers never take a lock.
+    /// A database being loaded has an entry in opening, so that concurrent
+    /// Opens of the same file share one Load.
+    /// </summary>
+    protected static final AtomicReference<SDict<String, LogFile>> 
+            dbfiles = new AtomicReference<>(null);
+    protected static final AtomicReference<SDict<String, SDatabase>> 
+            databases = new AtomicReference<>(null);
+    static final AtomicReference<SDict<String, CompletableFuture<SDatabase>>> 
+            opening = new AtomicReference<>(null);
     public static final SDatabase _system = System();
+    /// <summary>
+    /// If set, indexes installed in a committed database (in particular,
+    /// while loading the log) are not built until first used: see SIndex.Rows
+    /// </summary>
+    public static volatile boolean lazyIndexes = false;
+    /// <summary>
+    /// The names of tables whose indexes are kept on disk (SPagedTree)
+    /// rather than on the heap, whatever the index definition says
+    /// </summary>
+    public static volatile SDict<String,Boolean> pagedTables = null;
 
     SDatabase getRollback() {
         return this;
@@ -31,35 +63,111 @@ public class SDatabase {
     }
 
     public static SDatabase Open(String path, String fname) throws Exception {
-        if (dbfiles != null && dbfiles.Contains(fname)) {
-            var r = databases.Lookup(fname);
-            if (r == null) {
-                throw new Exception("Database is loading");
+        for (;;) {
+            var r = Database(fname);
+            if (r != null)
+                return r;
+            var os = opening.get();
+            var of = (os == null) ? null : os.Lookup(fname);
+            if (of != null)
+                return Await(of);
+            var f = new CompletableFuture<SDatabase>();
+            if (!opening.compareAndSet(os, (os == null) ? 
+                    new SDict<>(fname, f) : os.Add(fname, f)))
+                continue;
+            LogFile file = null;
+            try {
+                // another session may have finished loading since we looked
+                r = Database(fname);
+                if (r == null) {
+                    file = LogFile.Open(path, fname);
+                    Publish(dbfiles, fname, file);
+                    r = new SDatabase(fname).Load();
+                    if (r.curpos < file.length()) // see Load
+                        file.truncate(r.curpos);
+                    Install(r);
+                }
+                f.complete(r);
+                return r;
+            } catch (Throwable e) { // Load reports a bad log with an Error
+                if (file != null)
+                {
+                    Unpublish(dbfiles, fname);
+                    try {
+                        file.close();
+                    } catch (IOException ce) { }
+                }
+                f.completeExceptionally(e);
+                throw e;
+            } finally {
+                Unpublish(opening, fname);
             }
-            return r;
         }
-        var db = new SDatabase(fname);
-        var file = new RandomAccessFile(new File(path,fname),"rws");
-        if (dbfiles == null) {
-            dbfiles = new SDict<>(fname, file);
-        } else {
-            dbfiles = dbfiles.Add(fname, file);
+    }
+    static SDatabase Await(CompletableFuture<SDatabase> f) throws Exception
+    {
+        try {
+            return f.get();
+        } catch (ExecutionException e) {
+            var c = e.getCause();
+            if (c instanceof Error)
+                throw (Error)c;
+            throw (c instanceof Exception) ? (Exception)c : e;
+        }
+    }
+    static <V> void Publish(AtomicReference<SDict<String, V>> reg, String n, V v)
+    {
+        for (;;) {
+            var o = reg.get();
+            if (reg.compareAndSet(o, (o == null) ? new SDict<>(n, v) : o.Add(n, v)))
+                return;
         }
-        db = db.Load();
-        Install(db);
-        return db;
+    }
+    static <V> void Unpublish(AtomicReference<SDict<String, V>> reg, String n)
+    {
+        for (;;) {
+            var o = reg.get();
+            if (o == null || !o.Contains(n) || reg.compareAndSet(o, o.Remove(n)))
+                return;
+        }
+    }
+    /// <summary>
+    /// The current committed state of the named database, or null
+    /// </summary>
+    static SDatabase Database(String n) {
+        var ds = databases.get();
+        return (ds == null) ? null : ds.Lookup(n);
     }
     protected static SDatabase System()
     {
         return SysTable.SysTables(new SDatabase());
     }
 
-    synchronized public static void Install(SDatabase db) {
-        if (databases == null) {
-            databases = new SDict<>(db.name, db);
-        } else {
-            databases = databases.Add(db.name, db);
+    /// <summary>
+    /// Online compaction: the log is rewritten with just the live schema
+    /// objects and the current version of each live record, and the new
+    /// file replaces the old one. Snapshots taken before the switch
+    /// continue to read the old file, but their transactions cannot commit.
+    /// </summary>
+    public static SDatabase Compact(String path, String fname) throws Exception {
+        var db = Open(path, fname);
+        var f = db.File();
+        synchronized (f) { // no commits while we copy
+            db = Database(fname);
+            if (db.file != f)
+                throw new Exception("Database " + fname + " is being compacted");
+            db = db.Load();
+            var nl = f.Successor();
+            new Writer(nl).Compact(db);
+            Publish(dbfiles, fname, f.Install(nl));
+            db = new SDatabase(fname).Load();
+            Install(db);
         }
+        return db;
+    }
+
+    public static void Install(SDatabase db) {
+        Publish(databases, db.name, db);
     }
 
     public SRecord Get(Long pos) {
@@ -91,12 +199,17 @@ public class SDatabase {
         objects = null;
         role = SRole.Public;
         curpos = 0;
+        file = null;
+        keys = SKeys.Empty;
     }
     SDatabase(String fname) {
         name = fname;
         objects = _system.objects;
         role = _system.role;
         curpos = 0;
+        keys = _system.keys;
+        var fs = dbfiles.get();
+        file = (fs == null) ? null : fs.Lookup(fname);
     }
 
     protected SDatabase(SDatabase db) {
@@ -104,6 +217,8 @@ public class SDatabase {
         objects = db.objects;
         role = db.role;
         curpos = db.curpos;
+        file = db.file;
+        keys = db.keys;
     }
 
     // CRUD on Records changes indexes as well as table, so we need this
@@ -113,6 +228,17 @@ public class SDatabase {
         objects = obs;
         role = r;
         curpos = c;
+        file = db.file;
+        keys = db.keys;
+    }
+    protected SDatabase(SDatabase db,SKeys k)
+    {
+        name = db.name;
+        objects = db.objects;
+        role = db.role;
+        curpos = db.curpos;
+        file = db.file;
+        keys = k;
     }
     protected SDatabase(SDatabase db,long pos)
     {
@@ -120,12 +246,18 @@ public class SDatabase {
         objects = db.objects;
         role = db.role;
         curpos = pos;
+        file = db.file;
+        keys = db.keys;
     }
     SDatabase New(SDict<Long, SDbObject> obs, 
             SRole r,long c)
     {
         return new SDatabase(this,obs,r,c);
     }
+    SDatabase New(SKeys k)
+    {
+        return new SDatabase(this,k);
+    }
     public SDatabase _Add(SDbObject s, String nm, long p) throws Exception
     {
         switch (s.type)
@@ -188,6 +320,8 @@ public class SDatabase {
                     role.Remove(Name(ot.uid)).Add(Name(a.uid), ot.uid),c);
         } else {
             var ot = (STable) obs.Lookup(a.defpos);
+            if (ot instanceof SMaterializedView)
+                throw new Exception("A materialized view cannot be altered");
             var nc = new SColumn(a.col, ot.uid, a.dataType);
             var nt = ot.Add(a.seq,nc,Name(nc.uid));
             return New(obs.Add(a.defpos, nt),role,c);
@@ -201,6 +335,7 @@ public class SDatabase {
             obs = obs.Add(d.uid, d);
         if (d.parent == -1) {
             var ro = role;
+            var ks = keys;
             var ot = objects.Lookup(d.drpos);
             switch(ot.type)
             {
@@ -210,7 +345,20 @@ public class SDatabase {
                     var tb = (STable)ot;
                     if (tb.indexes!=null)
                         for (var b=tb.indexes.First();b!=null;b=b.Next())
+                        {
+                            ks = ks.Remove((SIndex)obs.get(b.getValue().key));
                             obs = obs.Remove(b.getValue().key);
+                        }
+                    break;
+                }
+                case Types.SMaterializedView:
+                {
+                    var v = (SMaterializedView)ot;
+                    ro = ro.Remove(Name(v.uid));
+                    var tb = (STable)objects.get(v.table);
+                    var vs = tb.views.Remove(v.uid);
+                    tb = new STable(tb.indexes,(vs==null||vs.Length==0)?null:vs,tb);
+                    obs = obs.Add(tb.uid,tb);
                     break;
                 }
                 case Types.SIndex:
@@ -219,10 +367,11 @@ public class SDatabase {
                     var tb = (STable)objects.get(x.table);
                     tb = new STable(tb.indexes.Remove(x.uid),tb);
                     obs = obs.Add(tb.uid,tb);
+                    ks = ks.Remove(x);
                     break;
                 }
             }
-            return New(obs.Remove(d.drpos),ro,c);
+            return New(obs.Remove(d.drpos),ro,c).New(ks);
         } else {
             var ot = (STable)objects.Lookup(d.parent);
             var sc = (SColumn)obs.get(d.drpos);
@@ -245,6 +394,40 @@ public class SDatabase {
         }
     }
 
+    /// <summary>
+    /// Install the materialized view v with columns cs named ns, and
+    /// compute its rows from those of its table
+    /// </summary>
+    protected SDatabase Install(SMaterializedView v,String n,SColumn[] cs,
+            String[] ns,long c) throws Exception
+    {
+        var tb = (STable)objects.get(v.table);
+        tb = new STable(tb.indexes,(tb.views==null)?new SDict(v.uid,true):
+                tb.views.Add(v.uid,true),tb);
+        var db = New(objects.Add(v.uid,v).Add(tb.uid,tb),
+                new SRole(role,n,v.uid),c);
+        for (var i = 0; i < cs.length; i++)
+            db = db.Install(cs[i],ns[i],c);
+        var nv = ((SMaterializedView)db.objects.get(v.uid)).Build(db);
+        return db.New(db.objects.Add(nv.uid,nv),db.role,c);
+    }
+    /// <summary>
+    /// Maintain the materialized views of table st for the new version r
+    /// of row dp, or for its deletion if r is null
+    /// </summary>
+    SDict<Long,SDbObject> Views(SDict<Long,SDbObject> obs,STable st,
+            SRecord r,long dp) throws Exception
+    {
+        if (st.views==null)
+            return obs;
+        var rt = (r==null)?null:RowType.For(this,st);
+        for (var b = st.views.First(); b != null; b = b.Next())
+        {
+            var v = (SMaterializedView)obs.get(b.getValue().key);
+            obs = obs.Add(v.uid,(r==null)?v.Remove(this,dp):v.Add(this,r,rt));
+        }
+        return obs;
+    }
     protected SDatabase Install(SView v, String n, long c) {
         return New(objects.Add(v.uid, v),role.Add(n, v.uid),c);
     }
@@ -252,14 +435,23 @@ public class SDatabase {
     protected SDatabase Install(SIndex x, long c) throws Exception
     {
         var tb = (STable)objects.Lookup(x.table);
-        if (tb.rows != null) {
-            for (var b = tb.rows.First(); b != null; b = b.Next()) 
+        if (tb instanceof SMaterializedView)
+            throw new Exception("A materialized view cannot be indexed");
+        var pt = pagedTables;
+        if (pt != null && role.defines(tb.uid) && pt.Contains(Name(tb.uid)))
+            x = x.Paged(this);
+        if (lazyIndexes && getCommitted())
+            x = x.Lazy();
+        else if (tb.rows != null) {
+            var rc = new SCursor<>(tb.rows);
+            for (var s = rc.First(); s != null; s = rc.Next()) 
             try {
-                x = x.Add(Get(b.getValue().val), b.getValue().val);
+                x = x.Add(Get(s.val), s.val);
             } catch(Exception e){}
         }
         tb = new STable((tb.indexes==null)?new SDict(x.uid,true):tb.indexes.Add(x.uid,true),tb);
-        return New(objects.Add(x.uid, x).Add(tb.uid,tb),role,c);
+        return New(objects.Add(x.uid, x).Add(tb.uid,tb),role,c)
+                .New(keys.Add(x));
     }
     protected SDatabase Install(SDropIndex d,long c) throws Exception
     {
@@ -269,19 +461,60 @@ public class SDatabase {
         var tb = (STable)objects.Lookup(d.table);
         var x = tb.FindIndex(this,d.key);
         tb = new STable(tb.indexes.Remove(x.uid),tb);
-        return New(obs.Remove(x.uid).Add(tb.uid,tb),role,c);
+        return New(obs.Remove(x.uid).Add(tb.uid,tb),role,c)
+                .New(keys.Remove(x));
     }
 
-    public RandomAccessFile File() {
-        return dbfiles.Lookup(name);
+    /// <summary>
+    /// This database's version of table t, or t if it has none
+    /// </summary>
+    STable Table(STable t) {
+        var o = objects.Lookup(t.uid);
+        return (o instanceof STable) ? (STable)o : t;
+    }
+    public LogFile File() {
+        return file;
     }
 
+    /// <summary>
+    /// Replay the log from curpos. A long log is replayed in parallel
+    /// on a multi-core host (see LogReplay). The result ends at the last
+    /// complete commit: a crash can leave part of a commit, or part of a
+    /// record, at the end of the log, and Open cuts it off.
+    /// </summary>
     SDatabase Load() throws Exception {
+        var np = Runtime.getRuntime().availableProcessors();
+        if (np > 1 && File().length() - curpos >= LogReplay.MinParallel)
+            return new LogReplay(this, np - 1).Load();
         var rd = new Reader(this);
-        var db = this;
-        for (var s = (SDbObject)rd._Get(); s != null && s!=Serialisable.Null; s = (SDbObject)rd._Get())
+        var cd = this; // the database as of the last complete commit
+        var cp = curpos;
+        var marked = false; // logs written before commits were marked have no SCommit
+        for (;;) {
+            SDbObject s;
+            try {
+                var tp = rd.ReadByte();
+                if (tp == Types.SCommit) {
+                    cd = rd.db;
+                    cp = rd.Position();
+                    marked = true;
+                    continue;
+                }
+                s = (tp < 0) ? null : (SDbObject)rd._Get(tp);
+            } catch (Exception e) {
+                if (rd.Position() < rd.limit)
+                    throw e;
+                break; // the tail of the log was cut short by a crash
+            }
+            if (s == null || s == Serialisable.Null)
+                break;
             rd.db = rd.db._Add(s, rd.Position());
-        return new SDatabase(rd.db,rd.Position());
+            if (!marked) {
+                cd = rd.db;
+                cp = rd.Position();
+            }
+        }
+        return new SDatabase(cd, cp);
     }
     public SDatabase _Add(SDbObject s, long p) throws Exception {
         switch (s.type) {
@@ -308,29 +541,83 @@ public class SDatabase {
     /// </summary>
 
     public void Close() throws IOException {
-        synchronized (files) {
-            var f = dbfiles.Lookup(name);
-            databases = databases.Remove(name);
-            dbfiles = dbfiles.Remove(name);
-        }
+        var f = File();
+        Unpublish(databases, name);
+        Unpublish(dbfiles, name);
+        if (f != null)
+            f.close();
     }
 
+    /// <summary>
+    /// The version of x to maintain for a change to its table, or null.
+    /// A committed database leaves an unbuilt index alone: a transaction,
+    /// or an index already built for this snapshot, gets a maintained copy.
+    /// </summary>
+    SIndex Maintain(SIndex x) throws Exception {
+        if (x.rows != null)
+            return x;
+        if (getCommitted() && !x.Built(this))
+            return null;
+        return x.Materialise(this);
+    }
     protected SDatabase Install(SRecord r, long p) throws Exception {
         var obs = objects;
         var ro = role;
         if (r.uid>=STransaction._uid)
             obs = obs.Add(r.uid,r);
-        var st = ((STable)obs.Lookup(r.table)).Add(r);
+        var ot = (STable)obs.Lookup(r.table);
+        if (ot instanceof SMaterializedView)
+            throw new Exception("A materialized view cannot be updated");
+        var st = ot.Add(r);
         obs = obs.Add(r.table, st);
+        obs = Views(obs,st,r,r.Defpos());
         if (st.indexes!=null)
         for (var b = st.indexes.First(); b != null; b = b.Next()) {
-                var x = (SIndex)obs.Lookup(b.getValue().key);
+                var x = Maintain((SIndex)obs.Lookup(b.getValue().key));
+                if (x == null)
+                    continue;
                 x.Check(this,r,false);
                 obs = obs.Add(x.uid,x.Add(r,r.uid));
             }
         return New(obs, ro, p);
     }
 
+    /// <summary>
+    /// Install a batch of new records for a single table (bulk load).
+    /// The table and each of its indexes are fetched and replaced once
+    /// for the whole batch rather than once per record.
+    /// </summary>
+    protected SDatabase Install(STable st, SRecord[] rs, long p) throws Exception {
+        if (st instanceof SMaterializedView)
+            throw new Exception("A materialized view cannot be updated");
+        var obs = objects;
+        var rws = st.rows;
+        for (var r : rs) {
+            if (r.uid>=STransaction._uid)
+                obs = obs.Add(r.uid,r);
+            var k = r.Defpos();
+            rws = (rws==null)?new SDict<Long,Long>(k,r.uid):rws.Add(k,r.uid);
+        }
+        st = new STable(st,rws);
+        obs = obs.Add(st.uid, st);
+        if (st.views!=null) {
+            var rt = RowType.For(this,st);
+            for (var b = st.views.First(); b != null; b = b.Next()) {
+                var v = (SMaterializedView)obs.get(b.getValue().key);
+                for (var r : rs)
+                    v = v.Add(this,r,rt);
+                obs = obs.Add(v.uid,v);
+            }
+        }
+        if (st.indexes!=null)
+        for (var b = st.indexes.First(); b != null; b = b.Next()) {
+            var x = Maintain((SIndex)obs.Lookup(b.getValue().key));
+            if (x != null)
+                obs = obs.Add(x.uid,x.Add(this,rs));
+        }
+        return New(obs, role, p);
+    }
+
     public SDatabase Install(SUpdate u, long c) throws Exception {
         var obs = objects;
         var ro = role;
@@ -338,13 +625,16 @@ public class SDatabase {
             obs = obs.Add(u.uid, u);
         var st = ((STable)obs.Lookup(u.table)).Add(u);
         obs = obs.Add(u.table, st);
+        obs = Views(obs,st,u,u.defpos);
         var fs = u.fields;
         if (u.oldfields!=null)
             for (var b = u.oldfields.First();b!=null;b=b.Next())
                 fs = fs.Add(b.getValue().key,b.getValue().val);
         if (st.indexes!=null)
         for (var b = st.indexes.First(); b != null; b = b.Next()) {
-            var x = (SIndex) obs.Lookup(b.getValue().key);
+            var x = Maintain((SIndex) obs.Lookup(b.getValue().key));
+            if (x == null)
+                continue;
             var uk = x.Key(u, x.cols);
             if (u.oldfields!=null)
             {
@@ -365,31 +655,34 @@ public class SDatabase {
         var st = ((STable)obs.Lookup(d.table));
         if (st.indexes!=null)
         for (var b = st.indexes.First(); b != null; b = b.Next()) {
-            var x = (SIndex) obs.Lookup(b.getValue().key);
+            var x = Maintain((SIndex) obs.Lookup(b.getValue().key));
+            if (x == null)
+                continue;
             obs = obs.Add(x.uid, x.Remove(d.oldfields, p));
             if (!x.primary)
                 continue;
+            var rs = keys.References(d.table);
+            if (rs == null)
+                continue;
             var k = x.Key(d.oldfields,x.cols);
-            for (var ob = obs.PositionAt(0L); ob != null; ob = ob.Next()) // don't bother with system tables
-                if (ob.getValue().val instanceof STable)
-                {
-                    var ot = (STable)ob.getValue().val;
-                    for (var ox = ot.indexes.First(); ox != null; ox = ox.Next())
-                    {
-                        var nx = (SIndex)obs.get(ox.getValue().key);
-                        if (nx.references == d.table && nx.rows.Contains(k))
-                            throw new Exception("Referential constraint: illegal delete");
-                    }
-                }
+            for (var ox = rs.First(); ox != null; ox = ox.Next())
+            {
+                var nx = (SIndex)obs.get(ox.getValue().key);
+                if (getCommitted() && !nx.Built(this))
+                    continue;
+                if (nx.Rows(this).Contains(k))
+                    throw new Exception("Referential constraint: illegal delete");
+            }
         }
         var ro = role;
         st = st.Remove(d.delpos);
         obs = obs.Add(d.table, st);
+        obs = Views(obs,st,null,d.delpos);
         return New(obs, ro, p);
     }
 
     public STransaction Transact(ReaderBase rdr,boolean auto) {
-        return new STransaction(databases.get(name), rdr, auto);
+        return new STransaction(Database(name), rdr, auto);
     }
 
     public SSlot<SDatabase,Long> MaybeAutoCommit() throws Exception {
@@ -413,14 +706,7 @@ public class SDatabase {
     }
 
     SIndex GetPrimaryIndex(long t) throws Exception {
-        for (var b = objects.First(); b != null; b = b.Next()) {
-            if (b.getValue().val.type == Types.SIndex) {
-                var x = (SIndex) b.getValue().val;
-                if (x.table == t) {
-                    return x;
-                }
-            }
-        }
-        return null;
+        var u = keys.Primary(t);
+        return (u==null)?null:(SIndex)objects.get(u);
     }
 }
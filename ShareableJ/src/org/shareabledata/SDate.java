@@ -15,10 +15,10 @@ public class SDate extends Serialisable implements Comparable {
         public SDate(int y,int mo,int d,int h,int mi,int s,int frac)
         {
             super(Types.SDate);
-            var r = new Bigint((((d-1)*24+h)*60+mi)*60+s);
-            r = r.Times(new Bigint(10000000)).Plus(new Bigint(frac));
+            // less than a month of ticks always fits in a long
+            var r = ((((d-1)*24+h)*60+mi)*60+s)*10000000L + frac;
             year = y; month = mo; 
-            rest = r;            
+            rest = new Bigint(r);
         }
         public SDate(int y,int m,Bigint r)
         {
@@ -52,8 +52,8 @@ public class SDate extends Serialisable implements Comparable {
             if (o instanceof SRow)
             {
                 var sr = (SRow)o;
-                if (sr.cols.Length==1)
-                    return compareTo(sr.vals.First().getValue().val);
+                if (sr.cols.length==1)
+                    return compareTo(sr.cols[0]);
             }
             var that = (SDate)o;
             var c = (year==that.year)?0:(year<that.year)?-1:1;
@@ -66,6 +66,14 @@ public class SDate extends Serialisable implements Comparable {
         }
         String str()
         {
+            if (rest.bytes.length <= 8)
+            {
+                var t = rest.toLong();
+                var f = (int)(t % 10000000);
+                var s = t / 10000000;
+                return str((int)(s / 86400) + 1, (int)(s / 3600 % 24),
+                        (int)(s / 60 % 60), (int)(s % 60), f);
+            }
             var sixty = new Bigint(60);
             var twentyfour = new Bigint(24);
             var s = rest.Divide(new Bigint(10000000));
@@ -76,6 +84,10 @@ public class SDate extends Serialisable implements Comparable {
             var min = mi.Remainder(sixty).toInt();
             var day = h.Divide(twentyfour).toInt()+1;
             var hour = h.Remainder(twentyfour).toInt();
+            return str(day, hour, min, sec, f);
+        }
+        String str(int day,int hour,int min,int sec,int f)
+        {
             if (hour==0&&min==0&&sec==0&&f==0)
                 return String.format("%d-%02d-%02d",year,month,day);
             if (f==0)
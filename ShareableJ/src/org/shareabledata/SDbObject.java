@@ -90,7 +90,7 @@ public class SDbObject extends Serialisable {
             throw new Error("Internal error - misplaced database object");
         }
         uid = f.length();
-        f.uids = f.uids.Add(s.uid, uid);
+        f.Relocate(s.uid);
         f.WriteByte((byte) s.type);
     }
     @Override
@@ -150,6 +150,15 @@ public class SDbObject extends Serialisable {
         super.Put(f);
         f.PutLong(uid);
     }
+    /// <summary>
+    /// A reference to an object that the Writer has given a new position
+    /// </summary>
+    @Override
+    public Serialisable Fix(Writer f)
+    {
+        return (f.uids!=null && f.uids.Contains(uid)) ?
+            new SDbObject(Types.SName, f.uids.get(uid)) : this;
+    }
     @Override
     public Serialisable Lookup(SDatabase tr,Context cx)
     {
@@ -59,25 +59,21 @@ public class SDelete extends SDbObject {
         }
         public void CheckConstraints(SDatabase db,STable st) throws Exception
         {
+            if (st.indexes!=null)
             for (var b = st.indexes.First(); b != null; b = b.Next())
             {
                 var px = (SIndex)db.objects.get(b.getValue().key);
                 if (!px.primary)
                     continue;
+                var rs = db.keys.References(table);
+                if (rs == null)
+                    continue;
                 var k = px.Key(oldfields, px.cols);
-                for (var ob = db.objects.PositionAt(0L); ob != null; ob = ob.Next()) // don't bother with system tables
-                {    
-                    var ov = ob.getValue().val;
-                    if(ov.type==Types.STable)
-                    {
-                        var ot = (STable)ov;
-                        for (var ox = ot.indexes.First(); ox != null; ox = ox.Next())
-                        {
-                            var x = (SIndex)db.objects.get(ox.getValue().key);
-                            if (x.references == table && x.rows.Contains(k))
-                                throw new Exception("Referential constraint: illegal delete");
-                        }
-                    }
+                for (var ox = rs.First(); ox != null; ox = ox.Next())
+                {
+                    var x = (SIndex)db.objects.get(ox.getValue().key);
+                    if (x.Rows(db).Contains(k))
+                        throw new Exception("Referential constraint: illegal delete");
                 }
             }            
         }
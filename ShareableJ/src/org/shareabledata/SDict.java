@@ -5,6 +5,8 @@
  */
 package org.shareabledata;
 
+import java.util.ArrayList;
+import java.util.Collections;
 /**
  *
  * @author Malcolm
@@ -108,40 +110,74 @@ public class SDict<K extends Comparable, V> extends Collection<SSlot<K, V>>
 
     public SDict<K, V> Merge(SDict<K, V> ud) {
         SDict<K, V> r = null;
-        var ob = First();
-        var ub = ud.First();
+        var oc = new SCursor<>(this);
+        var uc = new SCursor<>(ud);
+        var ob = oc.First();
+        var ub = uc.First();
         while (ob != null && ub != null) {
-            var ok = ob.getValue().key;
-            var uk = ub.getValue().key;
+            var ok = ob.key;
+            var uk = ub.key;
             var c = ok.compareTo(uk);
             if (c == 0) {
-                var uv = ub.getValue().val;
+                var uv = ub.val;
                 r = (r == null) ? new SDict<K, V>(uk, uv) : r.Add(uk, uv);
-                ob = ob.Next();
-                ub = ub.Next();
+                ob = oc.Next();
+                ub = uc.Next();
             } else if (c < 0) {
-                var ov = ob.getValue().val;
+                var ov = ob.val;
                 r = (r == null) ? new SDict(ok, ov) : r.Add(ok, ov);
-                ob = ob.Next();
+                ob = oc.Next();
             } else {
-                var uv = ub.getValue().val;
+                var uv = ub.val;
                 r = (r == null) ? new SDict<K, V>(uk, uv) : r.Add(uk, uv);
-                ub = ub.Next();
+                ub = uc.Next();
             }
         }
-        for (; ob != null; ob = ob.Next()) {
-            var ok = ob.getValue().key;
-            var ov = ob.getValue().val;
+        for (; ob != null; ob = oc.Next()) {
+            var ok = ob.key;
+            var ov = ob.val;
             r = (r == null) ? new SDict(ok, ov) : r.Add(ok, ov);
         }
-        for (; ub != null; ub = ub.Next()) {
-            var uk = ub.getValue().key;
-            var uv = ub.getValue().val;
+        for (; ub != null; ub = uc.Next()) {
+            var uk = ub.key;
+            var uv = ub.val;
             r = (r == null) ? new SDict<K, V>(uk, uv) : r.Add(uk, uv);
         }
         return r;
     }
 
+    /// <summary>
+    /// At most n-1 keys, in order, that divide this dict into ranges of
+    /// similar size: the separators of the upper levels of the tree, going
+    /// down until there are enough (see ParallelScan)
+    /// </summary>
+    public ArrayList<K> Splits(int n) {
+        var ks = new ArrayList<K>();
+        var level = new ArrayList<SBucket<K, V>>();
+        if (root != null)
+            level.add(root);
+        while (ks.size() < n - 1 && !level.isEmpty()) {
+            var next = new ArrayList<SBucket<K, V>>();
+            for (var b : level)
+                if (b instanceof SInner) {
+                    var inr = (SInner<K, V>) b;
+                    for (var i = 0; i < inr.count; i++) {
+                        ks.add(inr.slots[i].key);
+                        next.add(inr.slots[i].val);
+                    }
+                    next.add(inr.gtr);
+                }
+            level = next;
+        }
+        Collections.sort(ks);
+        if (ks.size() < n)
+            return ks;
+        var r = new ArrayList<K>();
+        for (var i = 1; i < n; i++)
+            r.add(ks.get(i * ks.size() / n));
+        return r;
+    }
+
     @Override
     public boolean defines(K s) {
         return Contains(s);
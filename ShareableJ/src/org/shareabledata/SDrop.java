@@ -68,17 +68,16 @@ public class SDrop extends SDbObject {
             if (pr == -1)
             {
                 dp = tb.uid;
-                for (var b = tr.objects.First(); b != null; b = b.Next())
-                    if (b.getValue().val instanceof SIndex)
-                    {
-                        var x = (SIndex)b.getValue().val;
-                        if (x.references == tb.uid)
-                            throw new Exception("Restricted by reference");
-                    }
+                if (tb.views!=null)
+                    throw new Exception("Restricted by materialized view");
+                if (tr.keys.References(tb.uid) != null)
+                    throw new Exception("Restricted by reference");
             }
             else
             {
                 pr = tb.uid;
+                if (tb instanceof SMaterializedView)
+                    throw new Exception("A materialized view cannot be altered");
                 var ss = tr.role.subs.get(tb.uid);
                 var cn = tr.role.uids.get(dp);
                 if (!ss.defs.defines(cn))
@@ -98,6 +97,10 @@ public class SDrop extends SDbObject {
                         if (c.getValue() == dp)
                             throw new Exception("Restrict: column " + cn + " is an index key");
                 }
+                if (tb.views!=null && st.length() == 0)
+                for (var b = tb.views.First(); b != null; b = b.Next())
+                    if (((SMaterializedView)tr.objects.get(b.getValue().key)).Uses(dp))
+                        throw new Exception("Restrict: column " + cn + " is used by a materialized view");
             } 
             return new SDrop(tr, dp, pr, st);
         }
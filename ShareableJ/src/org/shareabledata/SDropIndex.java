@@ -63,10 +63,11 @@ public class SDropIndex extends SDbObject {
         var x = tb.FindIndex(db, key);
         if (x!=null)
         {
-            for (var xb = db.objects.First(); xb != null; xb = xb.Next())
-                if (xb.getValue().val instanceof SIndex)
+            var rs = db.keys.References(tb.uid);
+            if (rs != null)
+                for (var xb = rs.First(); xb != null; xb = xb.Next())
                 {
-                    var rx = (SIndex)xb.getValue().val;
+                    var rx = (SIndex)db.objects.get(xb.getValue().key);
                     if (rx.refindex == x.uid)   
                         throw new Exception("Restricted by reference");
                 }
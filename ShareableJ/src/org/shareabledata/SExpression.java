@@ -389,6 +389,15 @@ public class SExpression extends SDbObject {
             return ags;
         }
         @Override
+        public SDict<Long,Boolean> Tables(SDict<Long,Boolean> ts)
+        {
+            if (left != null)
+                ts = left.Tables(ts);
+            if (right != null)
+                ts = right.Tables(ts);
+            return ts;
+        }
+        @Override
         public String toString()
         {
             return left.toString()+" "+new Op().ops[op]+" "+right.toString();
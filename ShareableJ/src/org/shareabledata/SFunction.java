@@ -94,6 +94,16 @@ public class SFunction extends Serialisable {
             }
             return Null;
         }
+        /// <summary>
+        /// Combine the results a and b of this aggregate over two parts of
+        /// its rows, a being for the earlier part (see ParallelScan)
+        /// </summary>
+        public Serialisable Combine(Serialisable a,Serialisable b)
+        {
+            if (func == Func.Count)
+                return new SInteger(((SInteger)a).value + ((SInteger)b).value);
+            return AddIn(a, b);
+        }
         public Serialisable AddIn(Serialisable a,Serialisable v)
         {
             switch (func)
@@ -167,6 +177,11 @@ public class SFunction extends Serialisable {
             return isAgg()? ((a==null)?new SDict(fid, this):a.Add(fid,this)) : a;
         }
         @Override
+        public SDict<Long,Boolean> Tables(SDict<Long,Boolean> ts)
+        {
+            return (arg==null)?ts:arg.Tables(ts);
+        }
+        @Override
         public String toString()
         {
             return new Func().names[func] + "(" + arg + ")";
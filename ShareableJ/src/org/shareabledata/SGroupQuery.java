@@ -100,6 +100,15 @@ public class SGroupQuery extends SQuery {
         return new SGroupQuery((SQuery)source.Prepare(db,pt),ds,cs,g,h);
     }
     @Override
+    public SDict<Long,Boolean> Tables(SDict<Long,Boolean> ts)
+    {
+        ts = source.Tables(super.Tables(ts));
+        if (having!=null)
+            for (var b = having.First(); b != null; b = b.Next())
+                ts = b.getValue().Tables(ts);
+        return ts;
+    }
+    @Override
     public Serialisable UseAliases(SDatabase db, SDict<Long, Long> ta)
     {
         SDict<Integer, Ident> ds = null;
@@ -33,6 +33,11 @@ public class SInPredicate extends Serialisable {
             return new SInPredicate(a,list.Prepare(db,pt));
         }
         @Override
+        public SDict<Long,Boolean> Tables(SDict<Long,Boolean> ts)
+        {
+            return list.Tables(arg.Tables(ts));
+        }
+        @Override
         public void Put(WriterBase f) throws Exception
         {
             super.Put(f);
@@ -52,8 +57,8 @@ public class SInPredicate extends Serialisable {
                             return SBoolean.True;
                     break;
                 case Types.SRow:
-                    for (var b = ((SRow)ls).cols.First(); b != null; b = b.Next())
-                        if (b.getValue().val.compareTo(a) == 0)
+                    for (var v : ((SRow)ls).cols)
+                        if (v.compareTo(a) == 0)
                             return SBoolean.True;
                     break;
                 case Types.SSelect:
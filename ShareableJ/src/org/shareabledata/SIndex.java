@@ -4,7 +4,7 @@
  * and open the template in the editor.
  */
 package org.shareabledata;
-
+import java.util.concurrent.atomic.*;
 /**
  *
  * @author Malcolm
@@ -16,7 +16,18 @@ public class SIndex extends SDbObject {
     public final long references;
     public final long refindex;
     public final SList<Long> cols;
-    public final SMTree<Serialisable> rows;
+    /// <summary>
+    /// Whether the tree is an SPagedTree, kept on disk
+    /// </summary>
+    public final boolean paged;
+    public final SMTree<Serialisable> rows; // null if not yet built
+    /// <summary>
+    /// For an index whose tree is built on first use (SDatabase.lazyIndexes):
+    /// the last tree built, with the table rows it was built from. A lazy
+    /// SIndex is shared by successive snapshots, so the tree is only
+    /// reused for a snapshot whose table has the same rows.
+    /// </summary>
+    final AtomicReference<SSlot<SDict<Long,Long>,SMTree<Serialisable>>> built;
     /// <summary>
     /// A primary or unique index
     /// </summary>
@@ -25,21 +36,32 @@ public class SIndex extends SDbObject {
 
     public SIndex(long t, boolean p, long r, SList<Long> c)
             throws Exception {
+        this(t, p, r, c, false);
+    }
+    public SIndex(long t, boolean p, long r, SList<Long> c, boolean pg)
+            throws Exception {
         super(Types.SIndex);
         table = t;
         primary = p;
         cols = c;
         references = r;
+        paged = pg;
         rows = new SMTree(null);
         refindex = -1L;
+        built = null;
     }
     public SIndex(STransaction tr,long t, boolean p, long r, SList<Long> c)
             throws Exception {
+        this(tr, t, p, r, c, false);
+    }
+    public SIndex(STransaction tr,long t, boolean p, long r, SList<Long> c,
+            boolean pg) throws Exception {
         super(Types.SIndex,tr);
         table = t;
         primary = p;
         cols = c;
         references = r;
+        paged = pg;
         if (r >= 0)
         {
             var rx = tr.GetPrimaryIndex(r);
@@ -49,29 +71,38 @@ public class SIndex extends SDbObject {
         }
         else
             refindex = -1;
-            rows = new SMTree(Info((STable)tr.objects.get(table), cols,references>=0));
+            rows = NewRows(Info((STable)tr.objects.get(table), cols,references>=0));
+        built = null;
     }
 
     SIndex(ReaderBase f) throws Exception 
     {
         super(Types.SIndex,f);
         table = f.GetLong();
-        primary = f.ReadByte()!=0;
+        var fl = f.ReadByte();
+        primary = (fl & 1)!=0;
+        paged = (fl & 2)!=0;
         var n = f.GetInt();
         var c = new Long[n];
         for (var i = 0; i < n; i++)
             c[i] = f.GetLong();
         references = f.GetLong();
-        refindex = -1;
         cols = new SList(c);
         if (f instanceof Reader)
         {
             var rdr = (Reader) f;
-            rows = new SMTree<Serialisable>(Info((STable)rdr.db.objects.get(table), cols, references >= 0));
+            // refindex is not in the log: it is the primary index of the
+            // referenced table, which comes earlier in the log
+            var rx = (references >= 0) ? rdr.db.GetPrimaryIndex(references) : null;
+            refindex = (rx == null) ? -1 : rx.uid;
+            rows = NewRows(Info((STable)rdr.db.objects.get(table), cols, references >= 0));
         }
         else
+        {
+            refindex = -1;
             rows = new SMTree(null);
-
+        }
+        built = null;
     }
     @Override
     public Serialisable Prepare(STransaction tr,SDict<Long,Long>pt)
@@ -102,26 +133,35 @@ public class SIndex extends SDbObject {
                 throw new Exception("Ref table " + rn + " not found");
             ru = ro.globalNames.get(rn);
          }
-        return new SIndex(tr,tb,pr,ru,new SList(c));
+        return new SIndex(tr,tb,pr,ru,new SList(c),paged);
     }
     public SIndex(SDatabase db,SIndex x, Writer f) throws Exception {
         super(x, f);
+        x.PutDef(f);
         table = f.Fix(x.table);
-        f.PutLong(table);
         primary = x.primary;
-        f.WriteByte((byte) (primary ? 1 : 0));
+        paged = x.paged;
         Long[] c = new Long[x.cols.Length];
-        f.PutInt(x.cols.Length);
         var i = 0;
-        for (var b = x.cols.First(); b != null; b = b.Next()) {
-            c[i] = f.Fix(b.getValue());
-            f.PutLong(c[i++]);
-        }
+        for (var b = x.cols.First(); b != null; b = b.Next())
+            c[i++] = f.Fix(b.getValue());
         references = f.Fix(x.references);
         refindex = f.Fix(x.refindex);
-        f.PutLong(references);
         cols = new SList(c);
-        rows = new SMTree(Info((STable)db.objects.get(table), cols, references >= 0));
+        rows = NewRows(Info((STable)db.objects.get(table), cols, references >= 0));
+        built = null;
+    }
+    /// <summary>
+    /// Write the definition of this index, which follows its type (see
+    /// Get): used by Writer.Commit and Writer.Compact
+    /// </summary>
+    void PutDef(Writer f) throws Exception {
+        f.PutLong(f.Fix(table));
+        f.WriteByte(Flags());
+        f.PutInt(cols.Length);
+        for (var b = cols.First(); b != null; b = b.Next())
+            f.PutLong(f.Fix(b.getValue()));
+        f.PutLong(f.Fix(references));
     }
 
     public SIndex(SIndex x, SMTree<Serialisable>.MTResult mt) throws Exception 
@@ -132,10 +172,12 @@ public class SIndex extends SDbObject {
         }
         table = x.table;
         primary = x.primary;
+        paged = x.paged;
         references = x.references;
         refindex = x.refindex;
         cols = x.cols;
         rows = mt.t;
+        built = null;
     }
     
     public SIndex(SIndex x, SMTree<Serialisable> mt) throws Exception 
@@ -143,17 +185,115 @@ public class SIndex extends SDbObject {
         super(x);
         table = x.table;
         primary = x.primary;
+        paged = x.paged;
         references = x.references;
         refindex = x.refindex;
         cols = x.cols;
         rows = mt;
+        built = (mt == null) ? new AtomicReference<>(null) : null;
+    }
+    /// <summary>
+    /// An unbuilt copy of this index (see Rows)
+    /// </summary>
+    SIndex Lazy() throws Exception
+    {
+        return new SIndex(this, (SMTree<Serialisable>)null);
+    }
+    /// <summary>
+    /// The tree of this index for the given snapshot. An unbuilt index is
+    /// built from the table rows on first use; the result is published
+    /// atomically for other users of the same snapshot.
+    /// </summary>
+    public SMTree<Serialisable> Rows(SDatabase db)
+    {
+        if (rows != null)
+            return rows;
+        var tb = (STable)db.objects.get(table);
+        var bt = built.get();
+        if (bt != null && bt.key == tb.rows)
+            return bt.val;
+        SMTree<Serialisable> t;
+        try
+        {
+            t = NewRows(Info(tb, cols, references >= 0));
+        }
+        catch (Exception e)
+        {
+            throw new Error("Bad index " + _Uid(uid));
+        }
+        var rc = new SCursor<>(tb.rows);
+        for (var s = rc.First(); s != null; s = rc.Next())
+        {
+            var p = s.val;
+            var mt = t.Add(Key(db.Get(p), cols), p);
+            if (mt.tb == TreeBehaviour.Allow)
+                t = mt.t;
+        }
+        built.set(new SSlot<>(tb.rows, t));
+        return t;
+    }
+    /// <summary>
+    /// Whether Rows(db) is already available without building
+    /// </summary>
+    boolean Built(SDatabase db)
+    {
+        if (rows != null)
+            return true;
+        var bt = built.get();
+        return bt != null && bt.key == ((STable)db.objects.get(table)).rows;
+    }
+    /// <summary>
+    /// A copy of this index whose tree is held and maintained
+    /// </summary>
+    SIndex Materialise(SDatabase db) throws Exception
+    {
+        return (rows != null) ? this : new SIndex(this, Rows(db));
+    }
+    /// <summary>
+    /// An empty tree for this index
+    /// </summary>
+    SMTree<Serialisable> NewRows(SList<TreeInfo<Serialisable>> ti)
+    {
+        return paged ? new SPagedTree<Serialisable>(ti) : new SMTree<Serialisable>(ti);
+    }
+    /// <summary>
+    /// A copy of this index that keeps its tree on disk: used by Install
+    /// for the tables listed in SDatabase.pagedTables
+    /// </summary>
+    SIndex Paged(SDatabase db) throws Exception
+    {
+        if (paged)
+            return this;
+        var x = new SIndex(this, true);
+        return (rows == null) ? x.Lazy()
+                : new SIndex(x, x.NewRows(Info((STable)db.objects.get(table),
+                        cols, references >= 0)));
+    }
+    private SIndex(SIndex x, boolean pg) throws Exception
+    {
+        super(x);
+        table = x.table;
+        primary = x.primary;
+        paged = pg;
+        references = x.references;
+        refindex = x.refindex;
+        cols = x.cols;
+        rows = x.rows;
+        built = x.built;
+    }
+    /// <summary>
+    /// The flags byte of the serialised index
+    /// </summary>
+    byte Flags()
+    {
+        return (byte)((primary ? 1 : 0) | (paged ? 2 : 0));
     }
     @Override
     public void Put(WriterBase f) throws Exception
     {
         super.Put(f);
         f.PutLong(table);
-        f.WriteByte((byte)(primary ? 1 : 0));
+        f.WriteByte(Flags());
         f.PutInt(cols.Length);
         for (var b = cols.First(); b != null; b = b.Next())
             f.PutLong(b.getValue());
@@ -166,12 +306,12 @@ public class SIndex extends SDbObject {
             throws Exception
     {
         var k = Key(r, cols);
-        if ((!updating) && refindex == -1 && rows.Contains(k))
+        if ((!updating) && refindex == -1 && Rows(db).Contains(k))
             throw new Exception("Duplicate Key constraint violation");
         if (refindex != -1)
         {
             var rx = (SIndex)db.objects.get(refindex);
-            if (!rx.rows.Contains(k))
+            if (!rx.Rows(db).Contains(k))
                 throw new Exception("Referential constraint violation");
         }
     }
@@ -183,6 +323,28 @@ public class SIndex extends SDbObject {
         return new SIndex(this, rows.Add(Key(r, cols), c));
     }
 
+    /// <summary>
+    /// Index maintenance for a batch of new records (bulk load).
+    /// Each key is checked against the index as it grows, so duplicates
+    /// within the batch are caught as well as those already present.
+    /// </summary>
+    public SIndex Add(SDatabase db,SRecord[] rs) throws Exception {
+        var rx = (refindex == -1)?null:(SIndex)db.objects.get(refindex);
+        var t = rows;
+        for (var r : rs) {
+            var k = Key(r, cols);
+            if (rx == null && t.Contains(k))
+                throw new Exception("Duplicate Key constraint violation");
+            if (rx != null && !rx.Rows(db).Contains(k))
+                throw new Exception("Referential constraint violation");
+            var mt = t.Add(k, r.uid);
+            if (mt.tb != TreeBehaviour.Allow)
+                throw new Exception("Index constraint violation");
+            t = mt.t;
+        }
+        return new SIndex(this, t);
+    }
+
     public SIndex Update(long r, SCList<Variant> ok, SUpdate u, 
             SCList<Variant> uk, long c) throws Exception {
         return new SIndex(this, 
@@ -209,9 +371,10 @@ public class SIndex extends SDbObject {
     }
         SCList<Variant> Key(SDict<Long,Serialisable>f,SList<Long>cols)
         {
-            if (cols.Length == 0)
+            if (cols == null || cols.Length == 0)
                 return null;
-            return new SCList(f.Lookup(cols.element), Key(f, cols.next)); // not null
+            return new SCList<>(new Variant(f.Lookup(cols.element), true),
+                    Key(f, cols.next)); // not null
         }
         SCList<Variant> Key(SRecord sr,SList<Long> cols)
         {
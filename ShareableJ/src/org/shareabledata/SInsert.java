@@ -117,19 +117,22 @@ public class SInsert extends Serialisable  {
                 for (var rb = (RowBookmark)rs.First();rb!=null;rb=(RowBookmark)rb.Next())
                 {
                     SDict<Long, Serialisable> f = null;
-                    var c = rb.Ob().vals.First();
+                    // the selected values in uid order
+                    var ob = rb.Ob();
+                    var so = ob.rowType.sorted;
+                    var c = 0;
                     if (cols==null)
-                        for (var b = tb.cpos.First(); c!= null && b != null; b = b.Next(), c = c.Next())
+                        for (var b = tb.cpos.First(); c < so.length && b != null; b = b.Next(), c++)
                         {
                             var sc = (SColumn)b.getValue().val;
-                            var v = sc.Check(tr,c.getValue().val.Lookup(tr,cx), cx);
+                            var v = sc.Check(tr,ob.cols[so[c]].Lookup(tr,cx), cx);
                             f=(f==null)?new SDict(sc.uid, v):f.Add(sc.uid, v);
                         }
                     else
-                        for (var b = cols; c != null && b.Length != 0; b = b.next, c = c.Next())
+                        for (var b = cols; c < so.length && b.Length != 0; b = b.next, c++)
                         {
                             var sc = (SColumn)tr.objects.get(b.element);
-                            var v = sc.Check(tr,c.getValue().val.Lookup(tr,cx), cx);
+                            var v = sc.Check(tr,ob.cols[so[c]].Lookup(tr,cx), cx);
                             f =(f==null)?new SDict(b.element, v):f.Add(b.element,v);
                         }
                     tr = (STransaction)tr.Install(new SRecord(tr, table, f), tr.curpos);
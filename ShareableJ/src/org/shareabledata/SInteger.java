@@ -50,9 +50,19 @@ public class SInteger extends Serialisable implements Comparable {
                     break;
             }
         }
+        /// <summary>
+        /// Values that fit in a long are decoded without a Bigint,
+        /// and only genuinely big ones are given one.
+        /// </summary>
         public static Serialisable Get(ReaderBase f) throws Exception
         {
-            return new SInteger(f);
+            var n = f.ReadByte();
+            if (n > 8)
+                return new SInteger(f.GetInteger(n));
+            var v = f.GetLong(n);
+            if (v > Integer.MIN_VALUE && v < Integer.MAX_VALUE)
+                return new SInteger((int)v);
+            return new SInteger(new Bigint(v));
         }
         @Override
         public void Append(StringBuilder sb)
@@ -74,8 +84,8 @@ public class SInteger extends Serialisable implements Comparable {
             if (o instanceof SRow)
             {
                 var sr = (SRow)o;
-                if (sr.cols.Length==1)
-                    return compareTo(sr.vals.First().getValue().val);
+                if (sr.cols.length==1)
+                    return compareTo(sr.cols[0]);
             }
             if (o instanceof SNumeric)
             {
@@ -240,6 +240,15 @@ public class SJoin extends SQuery {
             }
             return new SJoin((SQuery)left.Prepare(db, pt), outer, joinType,
                 (SQuery)right.Prepare(db, pt), os, us, ds, cs);
+        }
+        @Override
+        public SDict<Long,Boolean> Tables(SDict<Long,Boolean> ts)
+        {
+            ts = right.Tables(left.Tables(super.Tables(ts)));
+            if (ons!=null)
+                for (var b = ons.First(); b != null; b = b.Next())
+                    ts = b.getValue().Tables(ts);
+            return ts;
         }
                 @Override
         public Serialisable UpdateAliases(SDict<Long, String> uids)
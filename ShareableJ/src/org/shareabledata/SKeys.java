@@ -0,0 +1,107 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.shareabledata;
+
+/**
+ *
+ * @author Malcolm
+ * The keys of a database snapshot, derived from its SIndex objects so that
+ * constraint checks and index lookups need not search for them: the
+ * primary index of each table, the foreign key indexes that reference each
+ * table, and the indexes of each table by their key columns.
+ * SDatabase.Install of an SIndex, SDropIndex or SDrop keeps them up to date.
+ * This class is shareable
+ */
+public class SKeys {
+        public static final SKeys Empty = new SKeys(null,null,null);
+        /// <summary>
+        /// The primary index of each table
+        /// </summary>
+        public final SDict<Long,Long> primary;
+        /// <summary>
+        /// For each table, the indexes that reference it
+        /// </summary>
+        public final SDict<Long,SDict<Long,Boolean>> refs;
+        /// <summary>
+        /// The indexes for a table and a list of key columns (see Key)
+        /// </summary>
+        public final SDict<SCList<Long>,SDict<Long,Boolean>> cols;
+        SKeys(SDict<Long,Long> p,SDict<Long,SDict<Long,Boolean>> r,
+                SDict<SCList<Long>,SDict<Long,Boolean>> c)
+        {
+            primary = p; refs = r; cols = c;
+        }
+        /// <summary>
+        /// The key in cols for table t and key columns cs
+        /// </summary>
+        static SCList<Long> Key(long t,SList<Long> cs)
+        {
+            return new SCList<>(t,(cs==null||cs.Length==0)?null:Key(cs));
+        }
+        static SCList<Long> Key(SList<Long> cs)
+        {
+            return new SCList<>(cs.element,(cs.next==null)?null:Key(cs.next));
+        }
+        public SKeys Add(SIndex x)
+        {
+            var p = primary;
+            if (x.primary)
+                p = (p==null)?new SDict(x.table,x.uid):p.Add(x.table,x.uid);
+            var r = refs;
+            if (x.references >= 0)
+                r = Add(r,x.references,x.uid);
+            return new SKeys(p,r,Add(cols,Key(x.table,x.cols),x.uid));
+        }
+        public SKeys Remove(SIndex x)
+        {
+            var p = primary;
+            if (p!=null && p.Contains(x.table) && p.get(x.table) == x.uid)
+                p = p.Remove(x.table);
+            var r = refs;
+            if (x.references >= 0)
+                r = Remove(r,x.references,x.uid);
+            return new SKeys(p,r,Remove(cols,Key(x.table,x.cols),x.uid));
+        }
+        static <K extends Comparable> SDict<K,SDict<Long,Boolean>> Add(
+                SDict<K,SDict<Long,Boolean>> d,K k,long u)
+        {
+            var s = (d==null)?null:d.Lookup(k);
+            s = (s==null)?new SDict(u,true):s.Add(u,true);
+            return (d==null)?new SDict(k,s):d.Add(k,s);
+        }
+        static <K extends Comparable> SDict<K,SDict<Long,Boolean>> Remove(
+                SDict<K,SDict<Long,Boolean>> d,K k,long u)
+        {
+            var s = (d==null)?null:d.Lookup(k);
+            if (s == null)
+                return d;
+            s = s.Remove(u);
+            return (s.Length == 0)?d.Remove(k):d.Add(k,s);
+        }
+        /// <summary>
+        /// The uid of the primary index of table t, or null
+        /// </summary>
+        public Long Primary(long t)
+        {
+            return (primary==null)?null:primary.Lookup(t);
+        }
+        /// <summary>
+        /// The uids of the indexes that reference table t, or null
+        /// </summary>
+        public SDict<Long,Boolean> References(long t)
+        {
+            return (refs==null)?null:refs.Lookup(t);
+        }
+        /// <summary>
+        /// The uid of the first index of table t with key columns cs, or null
+        /// </summary>
+        public Long For(long t,SList<Long> cs)
+        {
+            var s = (cols==null)?null:cols.Lookup(Key(t,cs));
+            var b = (s==null)?null:s.First();
+            return (b==null)?null:b.getValue().key;
+        }
+}
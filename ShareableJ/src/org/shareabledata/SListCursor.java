@@ -0,0 +1,78 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.shareabledata;
+
+/**
+ *
+ * @author Malcolm
+ * A cursor for traversing an SList, changed in place as it moves (see
+ * SCursor). Going forwards follows the links; going backwards uses an
+ * array of the elements, made the first time Last() is called.
+ * This class is not shareable
+ */
+public class SListCursor<T> {
+        public final SList<T> _list;
+        SList<T> _cur = null; // going forwards
+        Object[] _els = null; // going backwards
+        int _pos = -1;
+        public SListCursor(SList<T> s)
+        {
+            _list = s;
+        }
+        /// <summary>
+        /// Whether the cursor is on an element
+        /// </summary>
+        public boolean On()
+        {
+            return _cur != null || _pos >= 0;
+        }
+        /// <summary>
+        /// The element the cursor is on, or null
+        /// </summary>
+        public T getValue()
+        {
+            return (_cur!=null)?_cur.element:(_pos>=0)?(T)_els[_pos]:null;
+        }
+        public T First()
+        {
+            _pos = -1;
+            _cur = _list;
+            return getValue();
+        }
+        public T Next()
+        {
+            if (_cur != null)
+                _cur = _cur.next;
+            else if (_pos >= 0 && ++_pos == _els.length)
+                _pos = -1;
+            return getValue();
+        }
+        public T Last()
+        {
+            _cur = null;
+            if (_els == null)
+            {
+                _els = new Object[(_list==null)?0:_list.Length];
+                var i = 0;
+                for (var s = _list; s != null; s = s.next)
+                    _els[i++] = s.element;
+            }
+            _pos = _els.length - 1;
+            return getValue();
+        }
+        public T Previous()
+        {
+            if (_cur != null) // we were going forwards
+            {
+                var i = _list.Length - _cur.Length;
+                Last();
+                _pos = i;
+            }
+            if (_pos >= 0)
+                _pos--;
+            return getValue();
+        }
+}
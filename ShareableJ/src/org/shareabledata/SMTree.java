@@ -63,11 +63,10 @@ public class SMTree<K extends Comparable> extends Collection<SSlot<SCList<Varian
                 MatchPos m = cb.PositionFor(k);
                 bmk = new SBookmark<Variant, Variant>(cb, m.pos, bmk);
                 if (m.pos == cb.count) {
-                    SInner<Variant, Variant> inr = (SInner<Variant, Variant>) cb;
-                    if (inr == null) {
+                    if (!(cb instanceof SInner)) {
                         return null;
                     }
-                    cb = inr.gtr;
+                    cb = ((SInner<Variant, Variant>) cb).gtr;
                 } else {
                     var v = cb.Slot(m.pos).val;
                     if (!(v instanceof SBucket))
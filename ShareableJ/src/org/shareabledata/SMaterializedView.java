@@ -0,0 +1,563 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.shareabledata;
+
+/**
+ *
+ * @author Malcolm
+ * A materialized view (CREATE MATERIALIZED VIEW): the result of a select
+ * statement over a single table, kept up to date as the table changes.
+ * The select has an optional where condition, and either a list of column
+ * expressions, or GROUPBY columns and SUM, COUNT, MIN and MAX aggregates.
+ * For each row of the table that satisfies the condition, contribs holds
+ * the values it contributes, and a grouped view also has the state of each
+ * group, so that SDatabase.Install of an SRecord, SUpdate or SDelete
+ * applies the change to the view without recomputing it (see Views there).
+ * The log records only the definition: the contents are rebuilt when the
+ * view is loaded.
+ */
+public class SMaterializedView extends STable {
+        public final long table; // the base table
+        public final SList<Serialisable> where;
+        public final SList<Long> groupby;
+        public final boolean grouped;
+        /// <summary>
+        /// The expression for each column of the view, by position
+        /// </summary>
+        public final SDict<Integer,Serialisable> exps;
+        /// <summary>
+        /// For each row of the base table that satisfies where, by defpos:
+        /// the values of the groupby columns (if any) followed by the value
+        /// of each column expression (for an aggregate, of its argument)
+        /// </summary>
+        public final SDict<Long,Serialisable[]> contribs;
+        public final SDict<SCList<Variant>,Group> groups;
+        SMaterializedView(long u,long t,SList<Serialisable> w,SList<Long> g,
+                boolean gp,SDict<Integer,Serialisable> e)
+        {
+            super(Types.SMaterializedView,u);
+            table = t; where = w; groupby = g; grouped = gp; exps = e;
+            contribs = null;
+            groups = null;
+        }
+        /// <summary>
+        /// The view v with the columns of t
+        /// </summary>
+        SMaterializedView(SMaterializedView v,STable t)
+        {
+            super(v,t.cols,t.display,t.cpos,t.refs);
+            table = v.table; where = v.where; groupby = v.groupby;
+            grouped = v.grouped; exps = v.exps;
+            contribs = v.contribs;
+            groups = v.groups;
+        }
+        SMaterializedView(SMaterializedView v,SDict<Long,Serialisable[]> c,
+                SDict<SCList<Variant>,Group> g)
+        {
+            super(v,v.cols,v.display,v.cpos,v.refs);
+            table = v.table; where = v.where; groupby = v.groupby;
+            grouped = v.grouped; exps = v.exps;
+            contribs = c;
+            groups = g;
+        }
+        // As for an STable, the columns are installed after the commit
+        public SMaterializedView(SMaterializedView v,String nm,SDatabase tr,
+                Writer f) throws Exception
+        {
+            super(v,nm,f);
+            v.PutDef(f,tr);
+            table = f.Fix(v.table);
+            SList<Serialisable> w = null;
+            if (v.where!=null)
+                for (var b = v.where.First(); b != null; b = b.Next())
+                    w = (w==null)?new SList(b.getValue().Fix(f)):
+                            w.InsertAt(b.getValue().Fix(f),w.Length);
+            where = w;
+            SList<Long> g = null;
+            if (v.groupby!=null)
+                for (var b = v.groupby.First(); b != null; b = b.Next())
+                    g = (g==null)?new SList(f.Fix(b.getValue())):
+                            g.InsertAt(f.Fix(b.getValue()),g.Length);
+            groupby = g;
+            grouped = v.grouped;
+            SDict<Integer,Serialisable> e = null;
+            for (var b = v.exps.First(); b != null; b = b.Next())
+            {
+                var k = b.getValue().key;
+                var x = b.getValue().val.Fix(f);
+                e = (e==null)?new SDict(k,x):e.Add(k,x);
+            }
+            exps = e;
+            contribs = null;
+            groups = null;
+        }
+        /// <summary>
+        /// Write the definition of this view, which follows its name
+        /// (see Get). Each column's uid is the position of its name.
+        /// </summary>
+        void PutDef(Writer f,SDatabase db) throws Exception
+        {
+            f.PutLong(f.Fix(table));
+            f.WriteByte((byte)(grouped?1:0));
+            f.PutInt((where==null)?0:where.Length);
+            if (where!=null)
+                for (var b = where.First(); b != null; b = b.Next())
+                    b.getValue().Fix(f).Put(f);
+            f.PutInt((groupby==null)?0:groupby.Length);
+            if (groupby!=null)
+                for (var b = groupby.First(); b != null; b = b.Next())
+                    f.PutLong(f.Fix(b.getValue()));
+            f.PutInt(cpos.Length);
+            for (var b = cpos.First(); b != null; b = b.Next())
+            {
+                var sc = (SColumn)b.getValue().val;
+                f.Relocate(sc.uid);
+                f.PutString(db.Name(sc.uid));
+                f.WriteByte((byte)sc.dataType);
+                exps.get(b.getValue().key).Fix(f).Put(f);
+            }
+        }
+        public static SMaterializedView Get(ReaderBase f) throws Exception
+        {
+            var u = f.Position() - 1;
+            var nm = f.GetString();
+            var t = f.GetLong();
+            var gp = f.ReadByte() == 1;
+            var n = f.GetInt();
+            SList<Serialisable> w = null;
+            for (var i = 0; i < n; i++)
+                w = (w==null)?new SList(f._Get()):w.InsertAt(f._Get(),i);
+            n = f.GetInt();
+            SList<Long> g = null;
+            for (var i = 0; i < n; i++)
+                g = (g==null)?new SList(f.GetLong()):g.InsertAt(f.GetLong(),i);
+            n = f.GetInt();
+            var cs = new SColumn[n];
+            var ns = new String[n];
+            SDict<Integer,Serialisable> e = null;
+            for (var i = 0; i < n; i++)
+            {
+                var cu = f.Position();
+                ns[i] = f.GetString();
+                cs[i] = new SColumn(cu,u,f.ReadByte());
+                var x = f._Get();
+                e = (e==null)?new SDict(i,x):e.Add(i,x);
+            }
+            var vw = new SMaterializedView(u,t,w,g,gp,e);
+            f.db = f.db.Install(vw,nm,cs,ns,f.Position());
+            return vw;
+        }
+        /// <summary>
+        /// Define the view nm for the prepared select statement ss in tr
+        /// </summary>
+        public static STransaction Create(STransaction tr,String nm,
+                SSelectStatement ss) throws Exception
+        {
+            if (tr.role.globalNames!=null && tr.role.globalNames.Contains(nm))
+                throw new Exception("Duplicate table name " + nm);
+            if (ss.distinct || ss.order!=null)
+                throw new Exception("DISTINCT and ORDERBY are not supported in a materialized view");
+            var q = ss.qry;
+            SList<Long> gb = null;
+            var gp = false;
+            if (q instanceof SGroupQuery)
+            {
+                var g = (SGroupQuery)q;
+                if (g.having!=null)
+                    throw new Exception("HAVING is not supported in a materialized view");
+                if (g.groupby!=null)
+                    for (var b = g.groupby.First(); b != null; b = b.Next())
+                        gb = (gb==null)?new SList(b.getValue().val):
+                                gb.InsertAt(b.getValue().val,gb.Length);
+                gp = true;
+                q = g.source;
+            }
+            SList<Serialisable> wh = null;
+            if (q instanceof SSearch)
+            {
+                wh = ((SSearch)q).where;
+                q = ((SSearch)q).sce;
+            }
+            if (q.type != Types.STable)
+                throw new Exception("A materialized view must select from a single table");
+            var tb = (STable)tr.objects.get(q.uid);
+            SDict<Integer,Serialisable> es = null;
+            String[] ns;
+            if (ss.cpos==null) // select *
+            {
+                ns = new String[tb.cpos.Length];
+                for (var b = tb.cpos.First(); b != null; b = b.Next())
+                {
+                    var k = b.getValue().key;
+                    var sc = b.getValue().val;
+                    es = (es==null)?new SDict(k,sc):es.Add(k,sc);
+                    ns[k] = tr.Name(((SColumn)sc).uid);
+                }
+            }
+            else
+            {
+                ns = new String[ss.cpos.Length];
+                var d = ss.display.First();
+                for (var b = ss.cpos.First(); b != null; b = b.Next(), d = d.Next())
+                {
+                    var k = b.getValue().key;
+                    var x = b.getValue().val;
+                    if (Aggregate(x) >= 0)
+                    {
+                        gp = true;
+                        x = ((SFunction)x).arg;
+                    }
+                    if (HasAggregate(x))
+                        throw new Exception("Nested aggregates are not supported in a materialized view");
+                    es = (es==null)?new SDict(k,b.getValue().val):es.Add(k,b.getValue().val);
+                    ns[k] = d.getValue().val.id;
+                }
+            }
+            if (gp)
+                for (var b = es.First(); b != null; b = b.Next())
+                {
+                    var x = b.getValue().val;
+                    if (Aggregate(x) < 0 && !(x instanceof SColumn &&
+                            Contains(gb,((SColumn)x).uid)))
+                        throw new Exception("Column " + ns[b.getValue().key]
+                                + " must be an aggregate or a GROUPBY column");
+                }
+            var u = tr.uid + 1;
+            tr = tr.Reserve();
+            var cs = new SColumn[ns.length];
+            for (var b = es.First(); b != null; b = b.Next())
+            {
+                cs[b.getValue().key] = new SColumn(tr,u,DataType(b.getValue().val),null);
+                tr = tr.Reserve();
+            }
+            return (STransaction)tr.Install(new SMaterializedView(u,tb.uid,wh,gb,gp,es),
+                    nm,cs,ns,tr.curpos);
+        }
+        static boolean Contains(SList<Long> s,long u)
+        {
+            if (s!=null)
+                for (var b = s.First(); b != null; b = b.Next())
+                    if (b.getValue() == u)
+                        return true;
+            return false;
+        }
+        /// <summary>
+        /// The aggregate function of x (see SFunction.Func), or -1
+        /// </summary>
+        static int Aggregate(Serialisable x)
+        {
+            return (x instanceof SFunction && ((SFunction)x).func <= SFunction.Func.Min)?
+                    ((SFunction)x).func : -1;
+        }
+        static boolean HasAggregate(Serialisable x)
+        {
+            if (Aggregate(x) >= 0)
+                return true;
+            if (x instanceof SExpression)
+            {
+                var e = (SExpression)x;
+                return (e.left!=null && HasAggregate(e.left)) ||
+                        (e.right!=null && HasAggregate(e.right));
+            }
+            return (x instanceof SFunction) && HasAggregate(((SFunction)x).arg);
+        }
+        static int DataType(Serialisable x)
+        {
+            switch (x.type)
+            {
+                case Types.SColumn: return ((SColumn)x).dataType;
+                case Types.SFunction:
+                {
+                    var f = (SFunction)x;
+                    switch (f.func)
+                    {
+                        case SFunction.Func.Count: return Types.SInteger;
+                        case SFunction.Func.Sum:
+                        case SFunction.Func.Max:
+                        case SFunction.Func.Min: return DataType(f.arg);
+                    }
+                    return Types.SBoolean;
+                }
+                case Types.SExpression:
+                {
+                    var e = (SExpression)x;
+                    switch (e.op)
+                    {
+                        case SExpression.Op.Plus:
+                        case SExpression.Op.Minus:
+                        case SExpression.Op.Times:
+                        case SExpression.Op.Divide:
+                        case SExpression.Op.UMinus:
+                            return DataType((e.left!=null)?e.left:e.right);
+                        case SExpression.Op.Dot: return DataType(e.right);
+                    }
+                    return Types.SBoolean;
+                }
+                case Types.SBigInt: return Types.SInteger;
+            }
+            return x.isValue()?x.type:Types.Serialisable;
+        }
+        /// <summary>
+        /// Whether the view depends on column c of its table
+        /// </summary>
+        public boolean Uses(long c)
+        {
+            if (Contains(groupby,c))
+                return true;
+            if (where!=null)
+                for (var b = where.First(); b != null; b = b.Next())
+                    if (Uses(b.getValue(),c))
+                        return true;
+            for (var b = exps.First(); b != null; b = b.Next())
+                if (Uses(b.getValue().val,c))
+                    return true;
+            return false;
+        }
+        static boolean Uses(Serialisable x,long c)
+        {
+            if (x instanceof SDbObject)
+                return ((SDbObject)x).uid == c;
+            if (x instanceof SExpression)
+            {
+                var e = (SExpression)x;
+                return (e.left!=null && Uses(e.left,c)) ||
+                        (e.right!=null && Uses(e.right,c));
+            }
+            if (x instanceof SFunction)
+                return Uses(((SFunction)x).arg,c);
+            if (x instanceof SInPredicate)
+                return Uses(((SInPredicate)x).arg,c);
+            return false;
+        }
+        /// <summary>
+        /// The values that row r of the base table contributes, or null if it
+        /// does not satisfy where. rt is the layout of the base table.
+        /// </summary>
+        Serialisable[] Values(SDatabase db,SRecord r,RowType rt) throws Exception
+        {
+            var cx = Context.New(new SRow(db,r,rt),Context.Empty);
+            if (where!=null)
+                for (var b = where.First(); b != null; b = b.Next())
+                    if (b.getValue().Lookup(db,cx) != SBoolean.True)
+                        return null;
+            var ng = (groupby==null)?0:groupby.Length;
+            var vs = new Serialisable[ng + exps.Length];
+            var i = 0;
+            if (groupby!=null)
+                for (var b = groupby.First(); b != null; b = b.Next())
+                    vs[i++] = Value(cx.get(b.getValue()));
+            for (var b = exps.First(); b != null; b = b.Next())
+            {
+                var x = b.getValue().val;
+                if (Aggregate(x) >= 0)
+                    x = ((SFunction)x).arg;
+                vs[i++] = Value(x.Lookup(db,cx));
+            }
+            return vs;
+        }
+        /// <summary>
+        /// A column that is null in the row comes back from Lookup as itself
+        /// </summary>
+        static Serialisable Value(Serialisable v)
+        {
+            return (v!=null && v.isValue())?v:Serialisable.Null;
+        }
+        /// <summary>
+        /// This view with the new version r of a row of the base table
+        /// (an insert or an update)
+        /// </summary>
+        public SMaterializedView Add(SDatabase db,SRecord r,RowType rt)
+                throws Exception
+        {
+            var dp = r.Defpos();
+            var v = Remove(db,dp);
+            var vs = v.Values(db,r,rt);
+            if (vs == null)
+                return v;
+            return new SMaterializedView(v,
+                    (v.contribs==null)?new SDict(dp,vs):v.contribs.Add(dp,vs),
+                    grouped?v.Apply(db,v.groups,vs,1):null);
+        }
+        /// <summary>
+        /// This view without the row dp of the base table
+        /// </summary>
+        public SMaterializedView Remove(SDatabase db,long dp) throws Exception
+        {
+            var vs = (contribs==null)?null:contribs.Lookup(dp);
+            if (vs == null)
+                return this;
+            return new SMaterializedView(this,contribs.Remove(dp),
+                    grouped?Apply(db,groups,vs,-1):null);
+        }
+        /// <summary>
+        /// This view computed from the rows of its table in db
+        /// </summary>
+        SMaterializedView Build(SDatabase db) throws Exception
+        {
+            var tb = (STable)db.objects.get(table);
+            var rt = RowType.For(db,tb);
+            var v = this;
+            var rc = new SCursor<>(tb.rows);
+            for (var s = rc.First(); s != null; s = rc.Next())
+                v = v.Add(db,db.Get(s.val),rt);
+            return v;
+        }
+        SDict<SCList<Variant>,Group> Apply(SDatabase db,
+                SDict<SCList<Variant>,Group> gs,Serialisable[] vs,int d)
+                throws Exception
+        {
+            SCList<Variant> k = null;
+            var ng = (groupby==null)?0:groupby.Length;
+            for (var i = ng - 1; i >= 0; i--)
+                k = new SCList<>(new Variant(vs[i],true),k);
+            if (k == null) // no GROUPBY: a single group
+                k = new SCList<>(new Variant(Serialisable.Null,true),null);
+            var g = (gs==null)?null:gs.Lookup(k);
+            g = ((g==null)?new Group(exps.Length):g).Apply(db,this,vs,ng,d);
+            if (g.rows == 0)
+                return gs.Remove(k);
+            return (gs==null)?new SDict(k,g):gs.Add(k,g);
+        }
+        @Override
+        public STable Add(int sq,SColumn c,String s)
+        {
+            return new SMaterializedView(this,super.Add(sq,c,s));
+        }
+        @Override
+        public RowSet RowSet(SDatabase tr,SQuery top,Context cx)
+                throws Exception
+        {
+            return new MaterializedRowSet(tr,this,cx);
+        }
+        @Override
+        public boolean Conflicts(SDatabase db, STransaction tr, Serialisable that)
+        {
+            try {
+            return that instanceof STable &&
+                db.Name(uid).compareTo(tr.Name(((STable)that).uid)) == 0;
+            } catch (Exception e) {
+                return false;
+            }
+        }
+        @Override
+        public void Append(SDatabase db,StringBuilder sb)
+        {
+            try{
+            sb.append("Materialized view ");
+            if (db != null)
+                sb.append(db.Name(uid));
+            else
+                sb.append(_Uid(uid));
+            } catch(Exception e){}
+        }
+        public String toString()
+        {
+            return "Materialized view "+Uid();
+        }
+        /// <summary>
+        /// A group of a grouped view: its number of rows, and for each
+        /// column its value or the state of its aggregate. MIN and MAX keep
+        /// a count of each value, so that a deletion can be undone.
+        /// This class is shareable
+        /// </summary>
+        public static class Group
+        {
+            public final long rows;
+            final Serialisable[] vals; // the column value, or the SUM so far
+            final long[] counts; // the non-null arguments of each aggregate
+            final SDict<Serialisable,Integer>[] bags; // for MIN and MAX
+            Group(int n)
+            {
+                rows = 0;
+                vals = new Serialisable[n];
+                java.util.Arrays.fill(vals,Serialisable.Null);
+                counts = new long[n];
+                bags = new SDict[n];
+            }
+            Group(long r,Serialisable[] v,long[] c,SDict<Serialisable,Integer>[] b)
+            {
+                rows = r; vals = v; counts = c; bags = b;
+            }
+            /// <summary>
+            /// This group with (d=1) or without (d=-1) the contribution vs,
+            /// whose first ng values are those of the groupby columns
+            /// </summary>
+            Group Apply(SDatabase db,SMaterializedView mv,Serialisable[] vs,
+                    int ng,int d) throws Exception
+            {
+                var va = vals.clone();
+                var ca = counts.clone();
+                var ba = bags.clone();
+                for (var b = mv.exps.First(); b != null; b = b.Next())
+                {
+                    var i = b.getValue().key;
+                    var x = vs[ng + i];
+                    var f = Aggregate(b.getValue().val);
+                    if (f < 0)
+                    {
+                        va[i] = x;
+                        continue;
+                    }
+                    if (x == Serialisable.Null)
+                        continue;
+                    ca[i] += d;
+                    switch (f)
+                    {
+                        case SFunction.Func.Sum:
+                            va[i] = (ca[i] == 0) ? Serialisable.Null :
+                                    (va[i] == Serialisable.Null) ? x :
+                                    new SExpression(va[i],(d > 0) ?
+                                    SExpression.Op.Plus : SExpression.Op.Minus,x)
+                                    .Lookup(db,Context.Empty);
+                            break;
+                        case SFunction.Func.Max:
+                        case SFunction.Func.Min:
+                        {
+                            var bg = ba[i];
+                            var c = (bg==null)?null:bg.Lookup(x);
+                            var nc = ((c==null)?0:c) + d;
+                            ba[i] = (nc == 0) ? bg.Remove(x) :
+                                    (bg==null) ? new SDict(x,nc) : bg.Add(x,nc);
+                            break;
+                        }
+                    }
+                }
+                return new Group(rows + d,va,ca,ba);
+            }
+            /// <summary>
+            /// The row of the view for this group
+            /// </summary>
+            Serialisable[] Row(SMaterializedView mv) throws Exception
+            {
+                var r = new Serialisable[vals.length];
+                for (var b = mv.exps.First(); b != null; b = b.Next())
+                {
+                    var i = b.getValue().key;
+                    switch (Aggregate(b.getValue().val))
+                    {
+                        case SFunction.Func.Count:
+                            r[i] = new SInteger(new Bigint(counts[i]));
+                            break;
+                        case SFunction.Func.Max:
+                        {
+                            var m = (bags[i]==null)?null:bags[i].Last();
+                            r[i] = (m==null)?Serialisable.Null:m.getValue().key;
+                            break;
+                        }
+                        case SFunction.Func.Min:
+                        {
+                            var m = (bags[i]==null)?null:bags[i].First();
+                            r[i] = (m==null)?Serialisable.Null:m.getValue().key;
+                            break;
+                        }
+                        default:
+                            r[i] = vals[i];
+                    }
+                }
+                return r;
+            }
+        }
+}
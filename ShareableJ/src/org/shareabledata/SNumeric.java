@@ -41,8 +41,8 @@ public class SNumeric extends Serialisable implements Comparable {
             if (o instanceof SRow)
             {
                 var sr = (SRow)o;
-                if (sr.cols.Length==1)
-                    return compareTo(sr.vals.First().getValue().val);
+                if (sr.cols.length==1)
+                    return compareTo(sr.cols[0]);
             }
             if (o instanceof SInteger)
             {
@@ -47,6 +47,11 @@ public class SOrder extends Serialisable {
             return new SOrder(col.Prepare(db, pt),desc);
         }
         @Override
+        public SDict<Long,Boolean> Tables(SDict<Long,Boolean> ts)
+        {
+            return col.Tables(ts);
+        }
+        @Override
         public void Put(WriterBase f) throws Exception
         {
             super.Put(f);
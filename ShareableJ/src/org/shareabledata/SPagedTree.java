@@ -0,0 +1,664 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.shareabledata;
+import java.lang.ref.Reference;
+import java.util.*;
+/**
+ *
+ * @author Malcolm
+ * A copy-on-write B+tree with the same interface as SMTree, whose pages
+ * live in a PageFile rather than on the heap. Each entry is a full key and
+ * a value (a record uid), ordered by key and then by value, so duplicate
+ * keys are allowed where the TreeInfo says so. Like SMTree it is shareable:
+ * Add and Remove copy the pages on the path to the change and return a new
+ * tree, so an older tree, and the snapshot that holds it, keeps its root.
+ * New pages stay on the heap until there are MaxDirty of them, and are
+ * then written to the file together. Remove merges a page that falls below
+ * MinFill entries with a neighbour, so deletions do not leave the file full
+ * of nearly empty pages.
+ */
+public class SPagedTree<K extends Comparable> extends SMTree<K> {
+        /// <summary>
+        /// The most entries in a page
+        /// </summary>
+        static final int PageSize = 64;
+        /// <summary>
+        /// A page with fewer entries is merged with a neighbour by Remove
+        /// </summary>
+        static final int MinFill = PageSize / 4;
+        /// <summary>
+        /// The most unwritten pages in a tree before it is flushed
+        /// </summary>
+        static final int MaxDirty = 256;
+        final PageFile file;
+        final Page root; // null if empty
+        /// <summary>
+        /// The last Root written for this tree or the tree it was derived
+        /// from: while it is held, the written pages this tree can reach
+        /// are not reused (see PageFile). null if no page is written.
+        /// </summary>
+        final PageFile.Root written;
+        final int dirty;
+        /// <summary>
+        /// A page of the tree. In a leaf, keys and vals are the entries. In
+        /// an inner page, keys[i] and vals[i] give the first entry of child
+        /// i. Pages are immutable once constructed: a child that has not been
+        /// written yet is held in kidPages, otherwise kids has its id.
+        /// </summary>
+        static final class Page
+        {
+            final long id; // 0 if not yet written
+            final boolean leaf;
+            final SCList<Variant>[] keys;
+            final long[] vals;
+            final long[] kids;
+            final Page[] kidPages;
+            Page(long i,boolean l,SCList<Variant>[] k,long[] v,long[] c,
+                    Page[] cp)
+            {
+                id = i; leaf = l; keys = k; vals = v; kids = c; kidPages = cp;
+            }
+            int Count()
+            {
+                return keys.length;
+            }
+            Page Child(PageFile f,int i)
+            {
+                var c = (kidPages == null) ? null : kidPages[i];
+                return (c != null) ? c : f.Read(kids[i]);
+            }
+            /// <summary>
+            /// Write this page and any unwritten pages below it (see
+            /// PageFile.Write), each serialised in w and then stored by
+            /// PageFile.Put
+            /// </summary>
+            Page Write(PageFile f,BytesWriter w,List<Page> ws) throws Exception
+            {
+                if (id != 0)
+                    return this;
+                long[] c = null;
+                if (!leaf)
+                {
+                    c = kids.clone();
+                    for (var i = 0; i < c.length; i++)
+                        if (kidPages != null && kidPages[i] != null)
+                            c[i] = kidPages[i].Write(f, w, ws).id;
+                }
+                w.len = 0;
+                w.WriteBytes(new byte[4], 0, 4);
+                w.WriteByte((byte)(leaf ? 1 : 0));
+                w.PutInt(keys.length);
+                for (var i = 0; i < keys.length; i++)
+                {
+                    w.PutInt(keys[i].Length);
+                    for (var b = keys[i].First(); b != null; b = b.Next())
+                    {
+                        var ob = (Serialisable)b.getValue().ob;
+                        w.WriteByte((byte)((ob == null) ? 0 : 1));
+                        if (ob != null)
+                            ob.Put(w);
+                    }
+                    w.PutLong(vals[i]);
+                    if (!leaf)
+                        w.PutLong(c[i]);
+                }
+                w.PutLength(0, w.len - 4);
+                var r = new Page(f.Put(w, c), leaf, keys, vals, c, null);
+                ws.add(r);
+                return r;
+            }
+            static Page Get(long id,ReaderBase f) throws Exception
+            {
+                var leaf = f.ReadByte() == 1;
+                var n = f.GetInt();
+                var ks = NewKeys(n);
+                var vs = new long[n];
+                var cs = leaf ? null : new long[n];
+                for (var i = 0; i < n; i++)
+                {
+                    var m = f.GetInt();
+                    var ob = new Variant[m];
+                    for (var j = 0; j < m; j++)
+                        ob[j] = new Variant((f.ReadByte() == 0) ? null : f._Get(),
+                                true);
+                    ks[i] = new SCList<>(ob);
+                    vs[i] = f.GetLong();
+                    if (!leaf)
+                        cs[i] = f.GetLong();
+                }
+                return new Page(id, leaf, ks, vs, cs, null);
+            }
+        }
+        public SPagedTree(SList<TreeInfo<K>> ti)
+        {
+            this(ti, new PageFile(), null, null, 0, 0);
+        }
+        SPagedTree(SList<TreeInfo<K>> ti,PageFile f,Page r,PageFile.Root w,
+                int c,int d)
+        {
+            super(ti, (SITree)null, c);
+            file = f; root = r; written = w; dirty = d;
+        }
+        static SCList<Variant>[] NewKeys(int n)
+        {
+            return (SCList<Variant>[])new SCList[n];
+        }
+        // Comparison: a null component sorts first
+        static int Compare(Variant a,Variant b)
+        {
+            if (a.ob == null)
+                return (b.ob == null) ? 0 : -1;
+            if (b.ob == null)
+                return 1;
+            return a.compareTo(b);
+        }
+        /// <summary>
+        /// Compare the first p.Length components of a with p
+        /// </summary>
+        static int ComparePrefix(SList<Variant> a,SList<Variant> p)
+        {
+            for (; p != null; a = a.next, p = p.next)
+            {
+                if (a == null)
+                    return -1;
+                var c = Compare(a.element, p.element);
+                if (c != 0)
+                    return c;
+            }
+            return 0;
+        }
+        static int Compare(SCList<Variant> a,long av,SCList<Variant> b,long bv)
+        {
+            var c = ComparePrefix(a, b);
+            if (c == 0 && a.Length != b.Length)
+                c = (a.Length < b.Length) ? -1 : 1;
+            return (c != 0) ? c : Long.compare(av, bv);
+        }
+        // Searching within a page
+        /// <summary>
+        /// The first entry at or after (k,v), or the child that would hold it
+        /// </summary>
+        static int Find(Page p,SCList<Variant> k,long v)
+        {
+            var lo = 0;
+            var hi = p.Count();
+            while (lo < hi)
+            {
+                var m = (lo + hi) >>> 1;
+                if (Compare(p.keys[m], p.vals[m], k, v) < 0)
+                    lo = m + 1;
+                else
+                    hi = m;
+            }
+            if (p.leaf)
+                return lo;
+            return (lo < p.Count() && Compare(p.keys[lo], p.vals[lo], k, v) == 0)
+                    ? lo : Math.max(lo - 1, 0);
+        }
+        /// <summary>
+        /// The first entry whose key starts at or after prefix k, or the child
+        /// that would hold it
+        /// </summary>
+        static int FindPrefix(Page p,SCList<Variant> k)
+        {
+            var lo = 0;
+            var hi = p.Count();
+            while (lo < hi)
+            {
+                var m = (lo + hi) >>> 1;
+                if (ComparePrefix(p.keys[m], k) < 0)
+                    lo = m + 1;
+                else
+                    hi = m;
+            }
+            return p.leaf ? lo : Math.max(lo - 1, 0);
+        }
+        // Paths: pages[0] is the root, pos[i] the position in pages[i]
+        static final class Path
+        {
+            final Page[] pages;
+            final int[] pos;
+            Path(Page[] pg,int[] ps) { pages = pg; pos = ps; }
+            Page Leaf() { return pages[pages.length - 1]; }
+            int At() { return pos[pos.length - 1]; }
+            SCList<Variant> Key() { return Leaf().keys[At()]; }
+            long Value() { return Leaf().vals[At()]; }
+        }
+        int Depth()
+        {
+            var d = 1;
+            for (var p = root; !p.leaf; p = p.Child(file, 0))
+                d++;
+            return d;
+        }
+        /// <summary>
+        /// The path to the first entry at or after (k,v), or (prefix) to the
+        /// first entry whose key starts at or after k
+        /// </summary>
+        Path Seek(SCList<Variant> k,long v,boolean prefix)
+        {
+            if (root == null)
+                return null;
+            var d = Depth();
+            var pg = new Page[d];
+            var ps = new int[d];
+            var p = root;
+            for (var i = 0; i < d; i++)
+            {
+                pg[i] = p;
+                ps[i] = (k == null) ? 0 : prefix ? FindPrefix(p, k) : Find(p, k, v);
+                if (!p.leaf)
+                    p = p.Child(file, ps[i]);
+            }
+            var r = new Path(pg, ps);
+            if (r.At() < r.Leaf().Count())
+            {
+                Reference.reachabilityFence(this);
+                return r;
+            }
+            return Step(r, 1);
+        }
+        Path Last()
+        {
+            if (root == null)
+                return null;
+            var d = Depth();
+            var pg = new Page[d];
+            var ps = new int[d];
+            var p = root;
+            for (var i = 0; i < d; i++)
+            {
+                pg[i] = p;
+                ps[i] = p.Count() - 1;
+                if (!p.leaf)
+                    p = p.Child(file, ps[i]);
+            }
+            Reference.reachabilityFence(this);
+            return new Path(pg, ps);
+        }
+        /// <summary>
+        /// The path to the next (dir=1) or previous (dir=-1) entry, or null.
+        /// Like Seek and Last, it keeps this tree, and so its Root, reachable
+        /// until it has read the pages it needs.
+        /// </summary>
+        Path Step(Path a,int dir)
+        {
+            var pg = a.pages.clone();
+            var ps = a.pos.clone();
+            var i = ps.length - 1;
+            ps[i] += dir;
+            while (ps[i] < 0 || ps[i] >= pg[i].Count())
+            {
+                if (--i < 0)
+                    return null;
+                ps[i] += dir;
+            }
+            for (; i < ps.length - 1; i++)
+            {
+                pg[i + 1] = pg[i].Child(file, ps[i]);
+                ps[i + 1] = (dir > 0) ? 0 : pg[i + 1].Count() - 1;
+            }
+            Reference.reachabilityFence(this);
+            return new Path(pg, ps);
+        }
+        // Changes: each returns the replacement for page p, and adds to
+        // d[0] the change in the number of unwritten pages
+        /// <summary>
+        /// Insert (k,v): one replacement page, or two if p was full
+        /// </summary>
+        Page[] Insert(Page p,SCList<Variant> k,long v,int[] d)
+        {
+            var i = Find(p, k, v);
+            Page[] r;
+            if (p.leaf)
+            {
+                var n = p.Count();
+                var ks = NewKeys(n + 1);
+                var vs = new long[n + 1];
+                System.arraycopy(p.keys, 0, ks, 0, i);
+                System.arraycopy(p.vals, 0, vs, 0, i);
+                ks[i] = k; vs[i] = v;
+                System.arraycopy(p.keys, i, ks, i + 1, n - i);
+                System.arraycopy(p.vals, i, vs, i + 1, n - i);
+                r = Split(true, ks, vs, null, null);
+            }
+            else
+            {
+                var c = Insert(p.Child(file, i), k, v, d);
+                r = Replace(p, i, 1, c);
+            }
+            d[0] += r.length - ((p.id == 0) ? 1 : 0);
+            return r;
+        }
+        /// <summary>
+        /// Remove the entry (k,v), which is known to be present: null if p
+        /// becomes empty. A child left with fewer than MinFill entries is
+        /// merged with its neighbour.
+        /// </summary>
+        Page Delete(Page p,SCList<Variant> k,long v,int[] d)
+        {
+            var i = Find(p, k, v);
+            Page[] r;
+            if (p.leaf)
+                r = Replace(p, i, 1, new Page[0]);
+            else
+            {
+                var c = Delete(p.Child(file, i), k, v, d);
+                if (c != null && c.Count() < MinFill && p.Count() > 1)
+                {
+                    var j = (i > 0) ? i - 1 : i + 1;
+                    var s = p.Child(file, j);
+                    var m = (j < i) ? Merge(s, c) : Merge(c, s);
+                    d[0] += m.length - 1 - ((s.id == 0) ? 1 : 0);
+                    r = Replace(p, Math.min(i, j), 2, m);
+                }
+                else
+                    r = Replace(p, i, 1, new Page[] { c });
+            }
+            d[0] += r.length - ((p.id == 0) ? 1 : 0);
+            return (r.length == 0) ? null : r[0];
+        }
+        /// <summary>
+        /// A copy of p with the m entries or children from i replaced by the
+        /// pages in c (none, or null, to remove them), split in two if it is
+        /// now too large
+        /// </summary>
+        Page[] Replace(Page p,int i,int m,Page[] c)
+        {
+            if (c.length == 1 && c[0] == null)
+                c = new Page[0];
+            var n = p.Count() - m + c.length;
+            if (n == 0)
+                return new Page[0];
+            var t = p.Count() - i - m; // the entries after those replaced
+            var ks = NewKeys(n);
+            var vs = new long[n];
+            long[] cs = p.leaf ? null : new long[n];
+            Page[] cp = p.leaf ? null : new Page[n];
+            System.arraycopy(p.keys, 0, ks, 0, i);
+            System.arraycopy(p.vals, 0, vs, 0, i);
+            System.arraycopy(p.keys, i + m, ks, i + c.length, t);
+            System.arraycopy(p.vals, i + m, vs, i + c.length, t);
+            if (!p.leaf)
+            {
+                System.arraycopy(p.kids, 0, cs, 0, i);
+                System.arraycopy(p.kids, i + m, cs, i + c.length, t);
+                if (p.kidPages != null)
+                {
+                    System.arraycopy(p.kidPages, 0, cp, 0, i);
+                    System.arraycopy(p.kidPages, i + m, cp, i + c.length, t);
+                }
+                for (var j = 0; j < c.length; j++)
+                {
+                    ks[i + j] = c[j].keys[0];
+                    vs[i + j] = c[j].vals[0];
+                    cp[i + j] = c[j];
+                }
+            }
+            return Split(p.leaf, ks, vs, cs, cp);
+        }
+        /// <summary>
+        /// The entries of neighbouring pages a and b in one page, or two if
+        /// there are too many
+        /// </summary>
+        static Page[] Merge(Page a,Page b)
+        {
+            var na = a.Count();
+            var n = na + b.Count();
+            var ks = NewKeys(n);
+            var vs = new long[n];
+            System.arraycopy(a.keys, 0, ks, 0, na);
+            System.arraycopy(b.keys, 0, ks, na, n - na);
+            System.arraycopy(a.vals, 0, vs, 0, na);
+            System.arraycopy(b.vals, 0, vs, na, n - na);
+            long[] cs = null;
+            Page[] cp = null;
+            if (!a.leaf)
+            {
+                cs = new long[n];
+                cp = new Page[n];
+                System.arraycopy(a.kids, 0, cs, 0, na);
+                System.arraycopy(b.kids, 0, cs, na, n - na);
+                if (a.kidPages != null)
+                    System.arraycopy(a.kidPages, 0, cp, 0, na);
+                if (b.kidPages != null)
+                    System.arraycopy(b.kidPages, 0, cp, na, n - na);
+            }
+            return Split(a.leaf, ks, vs, cs, cp);
+        }
+        static Page[] Split(boolean leaf,SCList<Variant>[] ks,long[] vs,
+                long[] cs,Page[] cp)
+        {
+            var n = ks.length;
+            if (n <= PageSize)
+                return new Page[] { new Page(0, leaf, ks, vs, cs, cp) };
+            var h = n / 2;
+            return new Page[] {
+                new Page(0, leaf, Arrays.copyOfRange(ks, 0, h),
+                        Arrays.copyOfRange(vs, 0, h),
+                        leaf ? null : Arrays.copyOfRange(cs, 0, h),
+                        leaf ? null : Arrays.copyOfRange(cp, 0, h)),
+                new Page(0, leaf, Arrays.copyOfRange(ks, h, n),
+                        Arrays.copyOfRange(vs, h, n),
+                        leaf ? null : Arrays.copyOfRange(cs, h, n),
+                        leaf ? null : Arrays.copyOfRange(cp, h, n))
+            };
+        }
+        /// <summary>
+        /// A tree with the given root, written to the file if it now has
+        /// too many unwritten pages
+        /// </summary>
+        SPagedTree<K> With(Page r,int c,int d)
+        {
+            if (r == null)
+                return new SPagedTree<>(_info, file, null, null, 0, 0);
+            if (d > MaxDirty)
+            {
+                var w = file.Write(r);
+                return new SPagedTree<>(_info, file, w.page, w, c, 0);
+            }
+            return new SPagedTree<>(_info, file, r, written, c, d);
+        }
+        TreeInfo<K> LastInfo()
+        {
+            var i = _info;
+            while (i.next != null)
+                i = i.next;
+            return i.element;
+        }
+        // The SMTree interface
+        @Override
+        public boolean Contains(SCList<Variant> k)
+        {
+            if (k == null)
+                return Length != 0;
+            var p = Seek(k, 0, true);
+            return p != null && ComparePrefix(p.Key(), k) == 0;
+        }
+        @Override
+        public MTResult Add(SCList<Variant> k,long v)
+        {
+            if (k == null)
+            {
+                if (_info.element.onNullKey != TreeBehaviour.Allow)
+                    return new MTResult(this, _info.element.onNullKey);
+                k = new SCList<>(new Variant(null, true), null);
+            }
+            var ti = LastInfo();
+            if (ti.onDuplicate != TreeBehaviour.Allow && Contains(k))
+                return new MTResult(this, ti.onDuplicate);
+            var p = Seek(k, v, false);
+            if (p != null && Compare(p.Key(), p.Value(), k, v) == 0)
+                return new MTResult(this, TreeBehaviour.Allow);
+            var d = new int[] { dirty };
+            Page r;
+            if (root == null)
+            {
+                r = new Page(0, true, new SCList[] { k }, new long[] { v }, null, null);
+                d[0]++;
+            }
+            else
+            {
+                var rs = Insert(root, k, v, d);
+                r = (rs.length == 1) ? rs[0] : Split(false,
+                        new SCList[] { rs[0].keys[0], rs[1].keys[0] },
+                        new long[] { rs[0].vals[0], rs[1].vals[0] },
+                        new long[2], rs)[0];
+                if (rs.length > 1)
+                    d[0]++;
+            }
+            return new MTResult(With(r, Length + 1, d[0]), TreeBehaviour.Allow);
+        }
+        @Override
+        public SMTree Remove(SCList<Variant> k,long v)
+        {
+            var p = Seek(k, v, false);
+            if (p == null || Compare(p.Key(), p.Value(), k, v) != 0)
+            {
+                // as in SMTree, a unique key is removed whatever its value
+                if (LastInfo().onDuplicate == TreeBehaviour.Allow)
+                    return this;
+                p = Seek(k, 0, true);
+                if (p == null || ComparePrefix(p.Key(), k) != 0
+                        || p.Key().Length != k.Length)
+                    return this;
+                v = p.Value();
+                k = p.Key();
+            }
+            var d = new int[] { dirty };
+            var r = Delete(root, k, v, d);
+            while (r != null && !r.leaf && r.Count() == 1)
+            {
+                if (r.id == 0)
+                    d[0]--;
+                r = r.Child(file, 0);
+            }
+            return With(r, Length - 1, d[0]);
+        }
+        @Override
+        public SMTree Remove(SCList<Variant> k)
+        {
+            SMTree t = this;
+            for (var p = Seek(k, 0, true); p != null
+                    && ComparePrefix(p.Key(), k) == 0;
+                    p = ((SPagedTree<K>)t).Seek(k, 0, true))
+                t = t.Remove(p.Key(), p.Value());
+            return t;
+        }
+        @Override
+        public Bookmark<SSlot<SCList<Variant>, Long>> First()
+        {
+            var p = Seek(null, 0, true);
+            return (p == null) ? null : new PagedBookmark<>(this, p, null, 0);
+        }
+        /// <summary>
+        /// As in SMTree, iteration from a key is confined to entries that
+        /// match the key found
+        /// </summary>
+        @Override
+        public MTreeBookmark PositionAt(SCList<Variant> k)
+        {
+            if (k == null)
+                return (MTreeBookmark)First();
+            var p = Seek(k, 0, true);
+            if (p == null)
+                return null;
+            SCList<Variant> f = null;
+            var ks = new ArrayList<Variant>();
+            for (var a = p.Key().First(); a != null && ks.size() < k.Length;
+                    a = a.Next())
+                ks.add(a.getValue());
+            for (var i = ks.size() - 1; i >= 0; i--)
+                f = new SCList<>(ks.get(i), f);
+            return new PagedBookmark<>(this, p, f, 0);
+        }
+        /// <summary>
+        /// The last value of key component n among the entries whose first n
+        /// components match k: used for generated integer keys
+        /// </summary>
+        Variant Last(SCList<Variant> k,int n)
+        {
+            Path p;
+            if (n == 0)
+                p = Last();
+            else
+            {
+                SCList<Variant> f = null;
+                var ks = new ArrayList<Variant>();
+                for (var a = k.First(); a != null && ks.size() < n; a = a.Next())
+                    ks.add(a.getValue());
+                for (var i = ks.size() - 1; i >= 0; i--)
+                    f = new SCList<>(ks.get(i), f);
+                p = null;
+                for (var q = Seek(f, 0, true); q != null
+                        && ComparePrefix(q.Key(), f) == 0; q = Step(q, 1))
+                    p = q;
+            }
+            if (p == null)
+                return null;
+            SList<Variant> a = p.Key();
+            for (var i = 0; i < n; i++)
+                a = a.next;
+            return a.element;
+        }
+        static class PagedBookmark<K extends Comparable> extends MTreeBookmark<K>
+        {
+            final SPagedTree<K> tree;
+            final Path path;
+            PagedBookmark(SPagedTree<K> t,Path p,SCList<Variant> f,int pos)
+            {
+                super(null, t._info, false, null, null, pos, f);
+                tree = t; path = p;
+            }
+            @Override
+            public SCList<Variant> key()
+            {
+                return path.Key();
+            }
+            @Override
+            public long value()
+            {
+                return path.Value();
+            }
+            @Override
+            public SSlot<SCList<Variant>, Long> getValue()
+            {
+                return new SSlot<>(key(), value());
+            }
+            PagedBookmark<K> Move(int dir)
+            {
+                var p = tree.Step(path, dir);
+                if (p == null || (_filter != null
+                        && ComparePrefix(p.Key(), _filter) != 0))
+                    return null;
+                return new PagedBookmark<>(tree, p, _filter, Position + 1);
+            }
+            @Override
+            public Bookmark<SSlot<SCList<Variant>, Long>> Next()
+            {
+                return Move(1);
+            }
+            @Override
+            public Bookmark<SSlot<SCList<Variant>, Long>> Previous()
+            {
+                return Move(-1);
+            }
+            @Override
+            boolean hasMore(SDatabase tr,int depth)
+            {
+                var p = tree.Step(path, 1);
+                if (p == null)
+                    return false;
+                SList<Variant> a = key();
+                SList<Variant> b = p.Key();
+                for (var i = 0; i < depth && a != null && b != null;
+                        i++, a = a.next, b = b.next)
+                    if (Compare(a.element, b.element) != 0)
+                        return false;
+                return true;
+            }
+        }
+}
@@ -146,6 +146,14 @@ public class SQuery extends SDbObject {
                         cp.Add(b.getValue().key, b.getValue().val.Prepare(db, pt));
             return new SQuery(type,ds,cp);
         }
+        @Override
+        public SDict<Long,Boolean> Tables(SDict<Long,Boolean> ts)
+        {
+            if (cpos!=null)
+                for (var b = cpos.First(); b != null; b = b.Next())
+                    ts = b.getValue().val.Tables(ts);
+            return ts;
+        }
         /// <summary>
         /// Construct the Rowset for the given SDatabase (may have changed since SQuery was built)
         /// </summary>
@@ -72,30 +72,50 @@ public class SRecord extends SDbObject {
         {
             super(r,f); 
             table = f.Fix(r.table);
-            fields = r.fields;
-            f.PutLong(table);
+            fields = f.Fix(r.fields);
             var tb = (STable)db.objects.Lookup(table);
-            f.PutInt(r.fields.Length);
-            for (var b=r.fields.First();b!=null;b=b.Next())
-            {
-                f.PutLong(b.getValue().key);
-                b.getValue().val.Put(f);
-            }
+            r.PutDef(f, null, (tb == null) ? null : tb.strings);
+        }
+        /// <summary>
+        /// Write the table and fields of this record, which follow its type
+        /// (see Get): used by Writer.Commit and Writer.Compact. Fields not
+        /// in tb (if given) are left out, and strings in ss are coded
+        /// (see Writer.PutFields).
+        /// </summary>
+        void PutDef(Writer f,STable tb,SDict<Long,SStringDict> ss) 
+                throws Exception
+        {
+            f.PutLong(f.Fix(table));
+            f.PutFields(fields, tb, ss);
         }
         protected SRecord(int t,ReaderBase f) throws Exception
         {
             super(t,f);
             table = f.GetLong();
             int n = f.GetInt();
+            if (n == Compression.Flag) // see Writer.PutFields
+            {
+                var m = f.GetInt();
+                var z = new byte[f.GetInt()];
+                if (f.ReadBytes(z, 0, z.length) < z.length)
+                    throw new Exception("Unexpected end of input");
+                var d = f.db;
+                f = new BytesReader(Compression.Inflate(z, m));
+                f.db = d;
+                n = f.GetInt();
+            }
             var tb = (STable)f.db.objects.Lookup(table);
             SDict<Long,Serialisable> a = null;
             for(int i = 0;i< n;i++)
             {
                 var k = f.GetLong();
+                var tp = f.ReadByte();
+                var v = (tp == Types.SStringRef) ? f.StringRef(tb, k, f.GetLong())
+                        : f._Get(tp);
                 if (a==null)
-                    a = new SDict<Long,Serialisable>(k,f._Get());
+                    a = new SDict<Long,Serialisable>(k,v);
                 else
-                    a = a.Add(k, f._Get());
+                    a = a.Add(k, v);
             }
             fields = a;
         }
@@ -139,6 +159,7 @@ public class SRecord extends SDbObject {
         {
             var cx = Context.New(fields,Context.Empty);
             for (var b= st.cols.First();b!=null;b=b.Next())
+                if (b.getValue().val.constraints!=null)
                 for (var c = b.getValue().val.constraints.First();c!=null;c=c.Next())
                     switch (c.getValue().key)
                     {
@@ -147,9 +168,12 @@ public class SRecord extends SDbObject {
                                 throw new Exception("Check condition fails");
                             break;
                     }
+            if (st.indexes!=null)
             for (var b = st.indexes.First(); b != null; b = b.Next())
             {
                 var x = (SIndex)db.objects.get(b.getValue().key);
+                if (x == null) // created in this transaction
+                    continue;
                 x.Check(db, this, false);
             }
         }        
@@ -5,162 +5,181 @@
  */
 package org.shareabledata;
 import java.io.*;
+import java.util.Arrays;
 /**
  *
  * @author Malcolm
+ * A row is an array of values whose layout, a RowType, is shared by the
+ * other rows of its RowSet: names is the RowType's.
  */
 public class SRow extends Serialisable implements ILookup<Long,Serialisable>,
         Comparable
 {
+    public final RowType rowType;
     public final SDict<Integer,Ident> names;
-    public final SDict<Integer,Serialisable> cols;
-    public final SDict<Long, Serialisable> vals;
+    public final Serialisable[] cols;
     public final boolean isNull;
     public final SRecord rec;
     public SRow()
     {
         super(Types.SRow);
+        rowType = RowType.Empty;
         names = null;
         cols = null;
-        vals = null;
         isNull = true;
         rec = null;
     }
     public SRow Add(Ident n, Serialisable v)
     {
-        return new SRow(
-            (names==null)?new SDict(0,n):names.Add(names.Length, n),
-            (cols==null)?new SDict(0,v):cols.Add(cols.Length, v),
-            (vals==null)?new SDict(n.uid,v):vals.Add(n.uid,v),
-            rec
-        );
+        var c = new Serialisable[(cols==null)?1:cols.length+1];
+        if (cols!=null)
+            System.arraycopy(cols, 0, c, 0, cols.length);
+        c[c.length-1] = v;
+        return new SRow(rowType.Add(n),c,rec,false);
     }
-    SRow(SDict<Integer,Ident>n,SDict<Integer,Serialisable> c,
-            SDict<Long,Serialisable>v,SRecord r)
+    SRow(RowType t,Serialisable[] c,SRecord r,boolean n)
     {
         super(Types.SRow);
-        names = n;
+        rowType = t;
+        names = t.names;
         cols = c;
-        vals = v;
         rec = r;
-        isNull = false;
+        isNull = n;
     }
     public SRow(SList<Ident>a,SList<Serialisable> s)
+    {
+        this(Idents(a),Values(s));
+    }
+    SRow(Ident[] a,Serialisable[] s)
     {
         super(Types.SRow);
-        var cn = new SDict(0,a.element);
-        var r = new SDict(0,s.element);
-        var vs = new SDict(a.element.uid,s.element);
-        var k = 1;
         var isn = true;
-        for (a=a.next,s=s.next;s!=null;s=s.next,a=a.next,k++) 
-        {
-            var n = a.element;
-            cn = cn.Add(k, n);
-            r = r.Add(k, s.element);
-            vs = vs.Add(n.uid, s.element);
-            if (s.element != Null)
+        for (var v : s)
+            if (v != Null)
                 isn = false;
-        }
-        names = cn;
-        cols = r;
-        vals = vs;
+        rowType = new RowType(a,null);
+        names = rowType.names;
+        cols = s;
         rec = null;
-        isNull = isn;        
+        isNull = isn;
+    }
+    static Ident[] Idents(SList<Ident> a)
+    {
+        var r = new Ident[a.Length];
+        for (var k = 0; a != null; a = a.next, k++)
+            r[k] = a.element;
+        return r;
+    }
+    static Serialisable[] Values(SList<Serialisable> s)
+    {
+        var r = new Serialisable[s.Length];
+        for (var k = 0; s != null; s = s.next, k++)
+            r[k] = s.element;
+        return r;
     }
     SRow(ReaderBase f) throws Exception
     {
         super(Types.SRow);
         var n = f.GetInt();
-        SDict<Integer,Ident> cn = null;
-        SDict<Integer, Serialisable> r = null;
-        SDict<Long,Serialisable> vs = null;
+        var ids = new Ident[n];
+        var c = new Serialisable[n];
         for(int i=0;i<n;i++)
         {
             var k = f.GetLong();
-            var id = new Ident(k,f.db.Name(k));
-            cn = (cn==null)?new SDict<>(0,id):cn.Add(i,id);
-            var v = f._Get();
-            r = (r==null)?new SDict<>(0,v):r.Add(i, v);
-            vs = (vs==null)?new SDict<>(k,v):vs.Add(k,v);
+            ids[i] = new Ident(k,f.db.Name(k));
+            c[i] = f._Get();
         }
-        names = cn;
-        cols = r;
-        vals = vs;
+        rowType = new RowType(ids,null);
+        names = rowType.names;
+        cols = c;
         isNull = false;
         rec = null;
     }
     public SRow(SDatabase db,SRecord r) throws Exception
+    {
+        this(db,r,RowType.For(db,(STable)db.objects.Lookup(r.table)));
+    }
+    /// <summary>
+    /// The row for record r, with the layout rt of its table
+    /// (see RowType.For)
+    /// </summary>
+    SRow(SDatabase db,SRecord r,RowType rt) throws Exception
     {
         super(Types.SRow);
-        var tb = (STable)db.objects.Lookup(r.table);
-        SDict<Integer, Ident> cn = null;
-        SDict<Integer, Serialisable> co = null;
-        SDict<Long, Serialisable> vs = null;
-        var k = 0;
-        if (tb.cpos!=null)
-        for (var b = tb.cpos.First(); b != null; b = b.Next(),k++)
-        {
-            var sc = (SColumn)b.getValue().val;
-            var id = new Ident(sc.uid,db.Name(sc.uid));
-            var v = r.fields.Lookup(sc.uid);
-            if (v==null)
-                v = Null;
-            if (sc.constraints!=null)
-                for (var c=sc.constraints.First();c!=null;c=c.Next())
-                    switch(c.getValue().key)
-                    {
-                        case "DEFAULT": if (v==Null)
-                            v = c.getValue().val.Lookup(db,Context.New(r.fields,Context.Empty));
-                        break;
-                        case "GENERATED":
-                            v = c.getValue().val.Lookup(db,Context.New(r.fields,Context.Empty));
-                        break;
-                    }
-            co = (co==null)?new SDict(k, v):co.Add(k,v);
-            cn = (cn==null)?new SDict(k, id):cn.Add(k,id);
-            vs = (vs==null)? new SDict(sc.uid, v):vs.Add(sc.uid, v);
-        }
-        names = cn;
+        var n = rt.columns.length;
+        var co = new Serialisable[n];
+        for (var k = 0; k < n; k++)
+            co[k] = Field(db,r,rt.columns[k]);
+        rowType = rt;
+        names = rt.names;
         cols = co;
-        vals = vs;
         rec = r;
         isNull = false;
     }
+    /// <summary>
+    /// The value of column sc in record r, allowing for its default or
+    /// generation rule (see also RowBatch)
+    /// </summary>
+    static Serialisable Field(SDatabase db,SRecord r,SColumn sc)
+    {
+        var v = r.fields.Lookup(sc.uid);
+        if (v==null)
+            v = Null;
+        if (sc.constraints!=null)
+            for (var c=sc.constraints.First();c!=null;c=c.Next())
+                switch(c.getValue().key)
+                {
+                    case "DEFAULT": if (v==Null)
+                        v = c.getValue().val.Lookup(db,Context.New(r.fields,Context.Empty));
+                    break;
+                    case "GENERATED":
+                        v = c.getValue().val.Lookup(db,Context.New(r.fields,Context.Empty));
+                    break;
+                }
+        return v;
+    }
     public SRow(SDatabase tr,SSelectStatement ss, Context cx)
-    { 
+    {
+        this(tr,ss,null,new RowType(ss.display),cx);
+    }
+    /// <summary>
+    /// The selected row, computed by the compiled columns es if given,
+    /// with the layout rt of ss.display (see SelectRowSet)
+    /// </summary>
+    SRow(SDatabase tr,SSelectStatement ss, Evaluator[] es, RowType rt, Context cx)
+    {
         super(Types.SRow);
-        SDict<Integer, Serialisable> r = null;
-        SDict<Long, Serialisable> vs = null;
+        Serialisable[] r = null;
         var isn = true;
         if (ss.cpos!=null && ss.display!=null)
         {
+            r = new Serialisable[rt.Length()];
             var cb = ss.cpos.First();
-            for (var b = ss.display.First(); cb != null && b != null; b = b.Next(), cb = cb.Next())
+            var i = 0;
+            for (var b = ss.display.First(); cb != null && b != null; b = b.Next(), cb = cb.Next(), i++)
             {
                 try {
-                var v = cb.getValue().val.Lookup(tr,cx);
-                if (v instanceof SRow && ((SRow)v).cols.Length == 1)
-                    v = ((SRow)v).cols.Lookup(0);
+                var v = (es!=null)?es[i].Eval(tr,cx):cb.getValue().val.Lookup(tr,cx);
+                if (v instanceof SRow && ((SRow)v).cols.length == 1)
+                    v = ((SRow)v).cols[0];
                 if (v==null)
                     v = Null;
-                r=(r==null)?new SDict(b.getValue().key,v):r.Add(b.getValue().key, v);
-                vs=(vs==null)?new SDict(b.getValue().val.uid, v):
-                        vs.Add(b.getValue().val.uid, v);
+                r[i] = v;
                 if (v != Null)
                     isn = false;
                 } catch(Exception e)
                 {
                     System.out.println("Evaluation failure: "+e.getMessage());
                     r = null;
-                    vs = null;
                     break;
                 }
             }
+            if (r!=null && i<r.length)
+                r = (i==0)?null:Arrays.copyOf(r, i);
         }
+        rowType = rt;
         names = ss.display;
         cols = r;
-        vals = vs;
         rec = ((SRow)cx.refs).rec;
         isNull = isn;
     }
@@ -170,53 +189,42 @@ public class SRow extends Serialisable implements ILookup<Long,Serialisable>,
     }
     public Serialisable UseAliases(SDatabase db, SDict<Long, Long> ta)
     {
-        SList<Ident> ns = null;
-        SList<Serialisable> vs = null;
-        for (var i=0;i<names.Length;i++)
+        var ids = new Ident[cols.length];
+        var vs = new Serialisable[cols.length];
+        for (var i=0;i<cols.length;i++)
         {
-            var nm = names.get(i);
+            var nm = rowType.idents[i];
             if (ta.Contains(nm.uid))
-                nm = new Ident(ta.get(names.get(i).uid),nm.id);
-            var v = cols.get(i).UseAliases(db, ta);
-            ns =(ns==null)?new SList(nm):ns.InsertAt(nm,i);
-            vs =(vs==null)?new SList(v):vs.InsertAt(v,i);
+                nm = new Ident(ta.get(nm.uid),nm.id);
+            ids[i] = nm;
+            vs[i] = cols[i].UseAliases(db, ta);
         }
-        return new SRow(ns, vs);
+        return new SRow(ids, vs);
     }
     @Override
     public Serialisable Prepare(STransaction db, SDict<Long,Long> pt) throws Exception
     {
-        SDict<Integer, Ident> nms = null;
-        SDict<Integer, Serialisable> cls = null;
-        SDict<Long, Serialisable> vls = null;
-        var nb = names.First();
-        for (var b=cols.First();nb!=null&&b!=null;b=b.Next(),nb=nb.Next())
+        if (cols==null || cols.length==0)
+            throw new Exception("PE07");
+        var ids = new Ident[cols.length];
+        var vs = new Serialisable[cols.length];
+        for (var i=0;i<cols.length;i++)
         {
-            var n = nb.getValue();
-            var u = SDbObject.Prepare(n.val.uid, pt);
-            var id = new Ident(u,n.val.id);
-            var v = b.getValue().val.Prepare(db, pt);
-            nms = (nms==null)?new SDict(n.key,id):
-                    nms.Add(n.key,id);
-            cls = (cls==null)?new SDict(b.getValue().key,v):
-                    cls.Add(b.getValue().key,v);
-            vls = (vls==null)?new SDict(u, v):vls.Add(u,v);
+            var n = rowType.idents[i];
+            ids[i] = new Ident(SDbObject.Prepare(n.uid, pt),n.id);
+            vs[i] = cols[i].Prepare(db, pt);
         }
-        if (nms==null|cls==null||vls==null)
-            throw new Exception("PE07");
-        return new SRow(nms,cls,vls,rec);
+        return new SRow(new RowType(ids,null),vs,rec,false);
     }
     @Override
     public void Put(WriterBase f)throws Exception
     {
         super.Put(f);
-        f.PutInt(cols.Length);
-        var cb = cols.First();
-        if (names!=null)
-        for (var b = names.First(); cb!=null && b != null; cb=cb.Next(), b = b.Next())
+        f.PutInt(cols.length);
+        for (var i=0;i<cols.length;i++)
         {
-            f.PutLong(b.getValue().val.uid);
-            var s = cb.getValue().val;
+            f.PutLong(rowType.idents[i].uid);
+            var s = cols[i];
             if (s!=null)
                 s.Put(f);
             else
@@ -226,39 +234,35 @@ public class SRow extends Serialisable implements ILookup<Long,Serialisable>,
     @Override
     public Serialisable Lookup(SDatabase tr,Context cx)
     {
-        SDict<Integer, Serialisable> v = null;
-        SDict<Long, Serialisable> r = null;
-        var nb = names.First();
-        for (var b = cols.First(); nb != null && b != null; 
-                nb = nb.Next(), b = b.Next())
-        {
-            var e = b.getValue().val.Lookup(tr,cx);
-            v =(v==null)?new SDict(b.getValue().key,e):v.Add(b.getValue().key, e);
-            r=(r==null)?new SDict(nb.getValue().val.uid,e):
-                    r.Add(nb.getValue().val.uid, e);
-        }
-        return new SRow(names, v, r, 
-                (cx.refs instanceof SRow)?((SRow)cx.refs).rec:null);
+        var v = new Serialisable[cols.length];
+        for (var i=0;i<cols.length;i++)
+            v[i] = cols[i].Lookup(tr,cx);
+        return new SRow(rowType, v,
+                (cx.refs instanceof SRow)?((SRow)cx.refs).rec:null,false);
     }
+    /// <summary>
+    /// Rows are compared by their values in uid order
+    /// </summary>
     public int compareTo(Object ob)
     {
         if (ob instanceof SRow)
         {
             SRow sr = (SRow)ob;
-            var c = cols.Length - sr.cols.Length;
+            var c = cols.length - sr.cols.length;
             if (c!=0)
                 return c;
-            var ab = sr.vals.First();
-            for (var b = vals.First(); ab != null && b != null; ab = ab.Next(), b=b.Next())
+            var a = rowType.sorted;
+            var b = sr.rowType.sorted;
+            for (var i = 0; i < a.length && i < b.length; i++)
             {
-                c = b.getValue().val.compareTo(ab.getValue().val);
+                c = cols[a[i]].compareTo(sr.cols[b[i]]);
                 if (c != 0)
                     return c;
             }
             return 0;
         }
-        if (cols.Length == 1)
-            return (vals.First().getValue().val).compareTo(ob);
+        if (cols.length == 1)
+            return cols[0].compareTo(ob);
         return 1;
     }
     @Override
@@ -266,48 +270,46 @@ public class SRow extends Serialisable implements ILookup<Long,Serialisable>,
     {
         sb.append('{');
         String cm = "";
-        var nb = names.First();
-        for (var b=cols.First();nb!=null && b!=null;
-                nb=nb.Next(),b=b.Next())
+        if (cols!=null)
+        for (var i=0;i<cols.length;i++)
         {
-            var v = b.getValue();
-            if (v.val!=Null)
+            var v = cols[i];
+            if (v!=Null)
             {
                 sb.append(cm); cm = ",";
-                sb.append(nb.getValue().val.id);
+                sb.append(rowType.idents[i].id);
                 sb.append(":");
-                v.val.Append(db,sb);
+                v.Append(db,sb);
             }
         }
-        sb.append("}");        
+        sb.append("}");
     }
     @Override
     public void Append(StringBuilder sb)
     {
         sb.append('{');
         String cm = "";
-        var nb = names.First();
-        for (var b=cols.First();nb!=null && b!=null;
-                nb=nb.Next(),b=b.Next())
+        if (cols!=null)
+        for (var i=0;i<cols.length;i++)
         {
-            var v = b.getValue();
-            if (v.val!=Null)
+            var v = cols[i];
+            if (v!=Null)
             {
                 sb.append(cm); cm = ",";
-                sb.append(nb.getValue().val.id);
+                sb.append(rowType.idents[i].id);
                 sb.append(":");
-                v.val.Append(sb);
+                v.Append(sb);
             }
         }
-        sb.append("}");        
+        sb.append("}");
     }
     @Override
     public boolean isValue()
     {
-        for (var b = cols.First(); b != null; b = b.Next())
-            if (!b.getValue().val.isValue())
+        for (var v : cols)
+            if (!v.isValue())
                 return false;
-        return true;        
+        return true;
     }
     @Override
     public String toString()
@@ -319,11 +321,17 @@ public class SRow extends Serialisable implements ILookup<Long,Serialisable>,
     @Override
     public boolean defines(Long u)
     {
-        return vals.Contains(u);
+        if (cols==null)
+            return false;
+        var i = rowType.Ordinal(u);
+        return i>=0 && i<cols.length;
     }
     @Override
     public Serialisable get(Long s)
     {
-        return vals.Lookup(s);
+        if (cols==null)
+            return null;
+        var i = rowType.Ordinal(s);
+        return (i<0 || i>=cols.length)?null:cols[i];
     }
 }
@@ -61,6 +61,14 @@ public class SSearch extends SQuery {
         return new SSearch((SQuery)sce.Prepare(db, pt),w);
     }
     @Override
+    public SDict<Long,Boolean> Tables(SDict<Long,Boolean> ts)
+    {
+        ts = sce.Tables(super.Tables(ts));
+        for (var b = where.First(); b != null; b = b.Next())
+            ts = b.getValue().Tables(ts);
+        return ts;
+    }
+    @Override
     public Serialisable UseAliases(SDatabase db, SDict<Long, Long> ta)
     {
         SList<Serialisable> w = null;
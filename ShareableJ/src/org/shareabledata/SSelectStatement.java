@@ -127,6 +127,15 @@ public class SSelectStatement extends SQuery {
             return new SSelectStatement(distinct, ds, cs, qy, os);
         }
         @Override
+        public SDict<Long,Boolean> Tables(SDict<Long,Boolean> ts)
+        {
+            ts = qry.Tables(super.Tables(ts));
+            if (order!=null)
+                for (var b = order.First(); b != null; b = b.Next())
+                    ts = b.getValue().Tables(ts);
+            return ts;
+        }
+        @Override
         public Serialisable UpdateAliases(SDict<Long,String> uids)
         {
             var w = uids.First();
@@ -38,11 +38,12 @@ public class SString extends Serialisable implements Comparable {
             if (o instanceof SRow)
             {
                 var sr = (SRow)o;
-                if (sr.cols.Length==1)
-                    return compareTo(sr.vals.First().getValue().val);
+                if (sr.cols.length==1)
+                    return compareTo(sr.cols[0]);
             }
             var that = (SString)o;
-            return str.compareTo(that.str);
+            // values from a column dictionary (SStringDict) are shared
+            return (that == this) ? 0 : str.compareTo(that.str);
         }
         @Override
         public void Append(StringBuilder sb)
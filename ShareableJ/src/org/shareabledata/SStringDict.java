@@ -0,0 +1,74 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.shareabledata;
+/**
+ *
+ * @author Malcolm
+ * The string dictionary of a column (see STable.strings). The first
+ * committed record that stores a value in full gives that value its code,
+ * which is the record's uid. Later records write the code instead
+ * (Types.SStringRef), and refs are decoded to the one SString held here,
+ * so equal values share an instance.
+ * Only the first MaxCodes distinct values of a column are coded, so a
+ * column with many distinct values costs little.
+ * This class is shareable.
+ */
+public class SStringDict {
+        /// <summary>
+        /// The most values coded for one column
+        /// </summary>
+        public static final int MaxCodes = 256;
+        /// <summary>
+        /// Shorter strings are not worth coding
+        /// </summary>
+        public static final int MinLength = 4;
+        public final SDict<String,Long> codes;
+        public final SDict<Long,SString> values;
+        public final int count;
+        SStringDict(SDict<String,Long> c,SDict<Long,SString> v,int n)
+        {
+            codes = c; values = v; count = n;
+        }
+        /// <summary>
+        /// Whether s would be coded by a dictionary with room for it
+        /// </summary>
+        static boolean Codable(Serialisable s)
+        {
+            return s instanceof SString && ((SString)s).str.length() >= MinLength;
+        }
+        /// <summary>
+        /// The dictionary after record u has stored s in full
+        /// </summary>
+        static SStringDict Add(SStringDict d,SString s,long u)
+        {
+            if (d == null)
+                return new SStringDict(new SDict<>(s.str, u), new SDict<>(u, s), 1);
+            if (d.count >= MaxCodes || d.codes.Contains(s.str))
+                return d;
+            return new SStringDict(d.codes.Add(s.str, u), d.values.Add(u, s),
+                    d.count + 1);
+        }
+        /// <summary>
+        /// The dictionaries of a table after committed record u with fields
+        /// fs (only those in tb, if given) has been written
+        /// </summary>
+        static SDict<Long,SStringDict> Add(SDict<Long,SStringDict> ss,
+                SDict<Long,Serialisable> fs,long u,STable tb)
+        {
+            if (fs != null)
+                for (var b = fs.First(); b != null; b = b.Next())
+                {
+                    var f = b.getValue();
+                    if (!Codable(f.val) || (tb != null && !tb.cols.Contains(f.key)))
+                        continue;
+                    var d = (ss == null) ? null : ss.Lookup(f.key);
+                    var nd = Add(d, (SString)f.val, u);
+                    if (nd != d)
+                        ss = (ss == null) ? new SDict<>(f.key, nd) : ss.Add(f.key, nd);
+                }
+            return ss;
+        }
+}
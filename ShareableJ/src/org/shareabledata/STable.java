@@ -12,6 +12,15 @@ public class STable extends SQuery {
         public final SDict<Long,SColumn> cols;
         public final SDict<Long, Long> rows; // defpos->uid of latest update
         public final SDict<Long,Boolean> indexes;
+        /// <summary>
+        /// Column -> string dictionary (see SStringDict), built from the
+        /// committed records
+        /// </summary>
+        public final SDict<Long,SStringDict> strings;
+        /// <summary>
+        /// The materialized views of this table (see SMaterializedView)
+        /// </summary>
+        public final SDict<Long,Boolean> views;
         public STable Add(int sq,SColumn c,String s) 
         {
             var sd = (sq>=0)?sq:(display==null)?0:display.Length;
@@ -28,7 +37,9 @@ public class STable extends SQuery {
             var k = r.Defpos();
             var v = r.uid;
             var rws = (rows==null)?new SDict<Long,Long>(k,v):rows.Add(k,v);
-            return new STable(this,rws);
+            var ss = (v < STransaction._uid) ?
+                    SStringDict.Add(strings, r.fields, v, null) : strings;
+            return new STable(this,rws,ss);
         }
         public SColumn FindForRole(SDatabase db,String nm)
         {
@@ -38,29 +49,23 @@ public class STable extends SQuery {
         public SIndex FindIndex(SDatabase db,SList<Long> key)
         {
             var ss = db.role.subs.get(uid);
-            if (indexes!=null)
-                for (var b = indexes.First(); b != null; b = b.Next())
+            var us = new Long[key.Length]; // the key with client uids resolved
+            var i = 0;
+            for (var kb = key.First(); kb != null; kb = kb.Next())
+            {
+                var u = kb.getValue();
+                if (u < 0)
                 {
-                    var x = (SIndex)db.objects.get(b.getValue().key);
-                    if (x.cols.Length != key.Length)
-                        continue;
-                    var kb = key.First();
-                    var ma = true;
-                    for (var xb = x.cols.First(); ma && xb != null && kb != null;
-                        xb = xb.Next(), kb = kb.Next())
-                    {
-                        var u = kb.getValue();
-                        if (u < 0)
-                        {
-                            var kn = db.role.uids.get(kb.getValue());
-                            u = ss.obs.get(ss.defs.get(kn)).key;
-                        }
-                        ma = xb.getValue() == u;
-                    }
-                    if (ma)
-                        return x;
+                    var kn = db.role.uids.get(u);
+                    u = ss.obs.get(ss.defs.get(kn)).key;
                 }
-            return null;
+                us[i++] = u;
+            }
+            SList<Long> cs = null;
+            while (i > 0)
+                cs = new SList<>(us[--i],cs);
+            var x = db.keys.For(uid,cs);
+            return (x==null)?null:(SIndex)db.objects.get(x);
         }
         public STable Remove(long n)
         {
@@ -95,6 +100,8 @@ public class STable extends SQuery {
             cols = tb.cols;
             rows = tb.rows;
             indexes = tb.indexes;
+            strings = tb.strings;
+            views = tb.views;
         }
         STable(long u)
         {
@@ -102,6 +109,8 @@ public class STable extends SQuery {
             cols = null;
             rows = null;
             indexes = null;
+            strings = null;
+            views = null;
         }
         STable(int t,long u)
         {
@@ -109,6 +118,8 @@ public class STable extends SQuery {
             cols = null;
             rows = null;
             indexes = null;
+            strings = null;
+            views = null;
         }
         public STable(STransaction tr)
         {
@@ -116,6 +127,8 @@ public class STable extends SQuery {
             cols = null;
             rows = null;
             indexes = null;
+            strings = null;
+            views = null;
         }
         public STable(STable t,String n)
         {
@@ -123,6 +136,8 @@ public class STable extends SQuery {
             cols = t.cols;
             rows = t.rows;
             indexes = t.indexes;
+            strings = t.strings;
+            views = t.views;
         }
         STable(STable t,SDict<Long,SColumn> c,SDict<Integer,Ident>a,
                 SDict<Integer,Serialisable> p,SDict<Long,Serialisable> n) 
@@ -131,30 +146,54 @@ public class STable extends SQuery {
             cols = c;
             rows = t.rows;
             indexes = t.indexes;
+            strings = t.strings;
+            views = t.views;
         }
         STable(STable t,SDict<Long,Long> r)
+        {
+            this(t,r,t.strings);
+        }
+        STable(STable t,SDict<Long,Long> r,SDict<Long,SStringDict> s)
         {
             super(t);
             cols = t.cols;
             rows = r;
             indexes = t.indexes;
+            strings = s;
+            views = t.views;
         }
         STable(SDict<Long,Boolean> x,STable t)
+        {
+            this(x,t.views,t);
+        }
+        STable(SDict<Long,Boolean> x,SDict<Long,Boolean> v,STable t)
         {
             super(t);
             cols = t.cols;
             rows = t.rows;
             indexes = x;
+            strings = t.strings;
+            views = v;
         }
         // When an STable is committed is should be empty.
         // If the transactions has cols/rows for it they will committed later.
         public STable(STable t,String nm,Writer f) throws Exception
         {
             super(t,f);
-            f.PutString(nm);
+            PutDef(f,nm);
             cols = null;
             rows = null;
             indexes = null;
+            strings = null;
+            views = null;
+        }
+        /// <summary>
+        /// Write the definition of this table named nm, which follows its
+        /// type (see Get): used by Writer.Commit and Writer.Compact
+        /// </summary>
+        void PutDef(Writer f,String nm) throws Exception
+        {
+            f.PutString(nm);
         }
         public static STable Get(ReaderBase f)throws Exception
         {
@@ -179,6 +218,11 @@ public class STable extends SQuery {
             return this;
         }
         @Override
+        public SDict<Long,Boolean> Tables(SDict<Long,Boolean> ts)
+        {
+            return (ts==null)?new SDict(uid,true):ts.Add(uid,true);
+        }
+        @Override
         public Serialisable UseAliases(SDatabase db,SDict<Long, Long> ta)
         {
             if (ta.Contains(uid))
@@ -193,7 +237,7 @@ public class STable extends SQuery {
         }
         @Override
         public RowSet RowSet(SDatabase tr,SQuery top, 
-                Context cx)
+                Context cx) throws Exception
         {
             if (indexes!=null)
                 for (var b = indexes.First(); b != null; b = b.Next())
@@ -231,7 +275,24 @@ public class STable extends SQuery {
                         { 
                             long cu=0;
                             var j = 0;
-                            var mb = x.rows.PositionAt(k);
+                            var xr = x.Rows(tr);
+                            if (xr instanceof SPagedTree)
+                            {
+                                var cb = x.cols.First();
+                                for (var n = 0; n < i; n++)
+                                    cb = cb.Next();
+                                var sc = (SColumn)tr.objects.get(cb.getValue());
+                                if (sc.dataType == Types.SInteger)
+                                {
+                                    var ov = ((SPagedTree<?>)xr).Last(k, i);
+                                    var v = new SInteger((ov == null) ? 1 :
+                                            ((SInteger)ov.ob).value + 1);
+                                    return new SRecord(tr, rc.table,
+                                            rc.fields.Add(sc.uid, v));
+                                }
+                                throw new Exception("Illegal null value in primary key");
+                            }
+                            var mb = xr.PositionAt(k);
                             for (var cb = x.cols.First(); j <= i && cb != null; cb = cb.Next(), j++)
                             {
                                 cu = cb.getValue();
@@ -94,8 +94,8 @@ public class STimeSpan extends Serialisable implements Comparable {
             if (o instanceof SRow)
             {
                 var sr = (SRow)o;
-                if (sr.cols.Length==1)
-                    return compareTo(sr.vals.First().getValue().val);
+                if (sr.cols.length==1)
+                    return compareTo(sr.cols[0]);
             }
             var that = (STimeSpan)o;
             return ticks.compareTo(that.ticks);
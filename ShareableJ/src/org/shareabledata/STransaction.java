@@ -49,6 +49,14 @@ public class STransaction extends SDatabase {
             readConstraints = (tr.readConstraints==null)?new SDict<>(u,true):
                     tr.readConstraints.Add(u, true);
         }
+        private STransaction(STransaction tr,SKeys k)
+        {
+            super(tr,k);
+            autoCommit = tr.autoCommit;
+            rollback = tr.rollback;
+            uid = tr.uid;
+            readConstraints = tr.readConstraints;
+        }
         public STransaction(STransaction tr,SRole r)
         {
             super(tr,tr.objects,r,tr.curpos);
@@ -58,6 +66,15 @@ public class STransaction extends SDatabase {
             readConstraints = tr.readConstraints; 
         }
         // Add a readConstraint : NB creates a new STransaction
+        /// <summary>
+        /// Advance the uid counter without installing anything, so that a
+        /// batch of new records can be given distinct uids before being
+        /// installed together (see StrongServer.BulkLoad)
+        /// </summary>
+        STransaction Reserve() throws Exception
+        {
+            return new STransaction(this,objects,role,curpos);
+        }
         public STransaction Add(long u)
         {
             return new STransaction(this,u);
@@ -86,6 +103,11 @@ public class STransaction extends SDatabase {
             return r;
         }
         @Override
+        SDatabase New(SKeys k)
+        {
+            return new STransaction(this,k);
+        }
+        @Override
         public String Name(long u)
         {
             return role.uids.get(u);
@@ -96,46 +118,54 @@ public class STransaction extends SDatabase {
         /// <returns>the steps as modified by the commit process</returns>
         public SSlot<SDatabase,Long> Commit() throws Exception
         {
-            SDatabase db = databases.Lookup(name);
+            SDatabase db = Database(name);
             var ts = db.curpos;
-            var f = new Writer(dbfiles.get(name));
+            var f = new Writer(File());
             var rdr = new Reader(this);
-            var tb = objects.PositionAt(_uid); // start of the work we want to commit
+            var wc = new SCursor<>(objects); // for the work we want to commit
+            SDict<Long,Boolean> tables = null; // changed by this commit
             var since = rdr.GetAll(f.length());
             for (SDbObject since1 : since) {
                 if (since1.Check(readConstraints))
                     throw new Exception("Transaction conflict with read");
-                for (org.shareabledata.Bookmark<org.shareabledata.SSlot<java.lang.Long, org.shareabledata.SDbObject>> b = objects.PositionAt(_uid); b != null; b = b.Next()) {
-                    if (since1.Conflicts(db,this,b.getValue().val)) {
-                        throw new Exception("Transaction conflict on " + b.getValue());
+                for (var b = wc.PositionAt(_uid); b != null; b = wc.Next()) {
+                    if (since1.Conflicts(db,this,b.val)) {
+                        throw new Exception("Transaction conflict on " + b);
                     }
                 }
             }
             synchronized (f.file)
             {
-                db = databases.get(name).Load();
+                db = Database(name);
+                if (db.File() != f.file)
+                    throw new Exception("Transaction conflict: database has been compacted");
+                db = db.Load();
                 ts = db.curpos;
-                for (var b = tb; b != null; b = b.Next())
+                for (var b = wc.PositionAt(_uid); b != null; b = wc.Next())
                 {
-                    var ov = b.getValue().val;
+                    var ov = b.val;
                     if (ov instanceof SRecord)
                     {
                         var sr = (SRecord)ov;
                         sr.CheckConstraints(db, (STable)objects.get(sr.table));
+                        tables = (tables==null)?new SDict(sr.table,true):
+                                tables.Add(sr.table,true);
                     }
                     else if (ov instanceof SDelete)
                     {
                         var sd = (SDelete)ov;
                         sd.CheckConstraints(db, (STable)objects.get(sd.table));
+                        tables = (tables==null)?new SDict(sd.table,true):
+                                tables.Add(sd.table,true);
                     }
                 }
                 since = rdr.GetAll(f.length());
                 for (SDbObject since1 : since) {
                     if (since1.Check(readConstraints))
                         throw new Exception("Transaction conflict with read");
-                    for (org.shareabledata.Bookmark<org.shareabledata.SSlot<java.lang.Long, org.shareabledata.SDbObject>> b = objects.PositionAt(_uid); b != null; b= b.Next()) {
-                        if (since1.Conflicts(db,this,b.getValue().val)) {
-                            throw new Exception("Transaction conflict on " + b.getValue());
+                    for (var b = wc.PositionAt(_uid); b != null; b = wc.Next()) {
+                        if (since1.Conflicts(db,this,b.val)) {
+                            throw new Exception("Transaction conflict on " + b);
                         }
                     }
                 }
@@ -143,6 +173,17 @@ public class STransaction extends SDatabase {
                 f.CommitDone();
                 Install(db);
             }
+            // outside the lock, so that concurrent commits can share a force
+            f.file.Committed(db.curpos);
+            if (tables!=null) // the materialized views of a table change with it
+                for (var b = tables.First(); b != null; b = b.Next())
+                {
+                    var t = db.objects.Lookup(b.getValue().key);
+                    if (t instanceof STable && ((STable)t).views!=null)
+                        for (var v = ((STable)t).views.First(); v != null; v = v.Next())
+                            tables = tables.Add(v.getValue().key,true);
+                }
+            ResultCache.Invalidate(name, tables);
             return new SSlot(db,ts);
         }
         @Override
@@ -155,6 +196,14 @@ public class STransaction extends SDatabase {
         {
             return autoCommit? Commit(): new SSlot(this,curpos);
         }
+        /// <summary>
+        /// An implicit transaction in which nothing has been installed yet:
+        /// every install advances uid (see Reserve)
+        /// </summary>
+        public boolean Unchanged()
+        {
+            return autoCommit && uid == _uid;
+        }
         @Override
         public SDatabase Rollback()
         {
@@ -163,9 +212,9 @@ public class STransaction extends SDatabase {
         @Override
         public SDatabase Rdc(SIndex ix, SCList<Variant> _key)
         {
-            if (_key.Length == 0)
+            if (_key == null || _key.Length == 0)
                 return new STransaction(this,ix.table);
-            var mb = ix.rows.PositionAt(_key);
+            var mb = ix.Rows(this).PositionAt(_key);
             if (mb == null)
                 return this;
             if (mb.hasMore(this, ix.cols.Length))
@@ -39,7 +39,8 @@ public class SUpdate extends SRecord {
             defpos = f.Fix(r.defpos);
             oldfields = r.oldfields;
             f.PutLong(defpos);
-            f.PutInt(oldfields.Length);
+            f.PutInt((oldfields==null)?0:oldfields.Length);
+            if (oldfields!=null)
             for (var b=oldfields.First();b!=null;b=b.Next())
             {
                 f.PutLong(b.getValue().key);
@@ -90,6 +91,7 @@ public class SUpdate extends SRecord {
         {
             var cx = Context.New(fields,Context.Empty);
             for (var b = st.cols.First(); b != null; b = b.Next())
+                if (b.getValue().val.constraints!=null)
                 for (var c = b.getValue().val.constraints.First(); c != null; 
                         c = c.Next())
                     switch (c.getValue().key)
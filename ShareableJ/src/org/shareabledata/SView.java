@@ -53,6 +53,11 @@ public class SView extends SDbObject {
         {
             return new SView((SQuery)viewdef.Prepare(db,pt));
         }
+        @Override
+        public SDict<Long,Boolean> Tables(SDict<Long,Boolean> ts)
+        {
+            return viewdef.Tables(ts);
+        }
         public void Put(WriterBase f) throws Exception
         {
             viewdef.Put(f);
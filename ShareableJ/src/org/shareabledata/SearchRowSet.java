@@ -13,6 +13,8 @@ public class SearchRowSet extends RowSet {
 
     public final SSearch _sch;
     public final RowSet _sce;
+    final Evaluator[] _where; // compiled from _sch.where
+    final Evaluator[] _test; // _where, or null if it is pushed down to _sce
     public SearchRowSet(SDatabase tr, SQuery top, SSearch sc,
             Context cx) throws Exception 
     {
@@ -22,6 +24,15 @@ public class SearchRowSet extends RowSet {
     {
         super(sce._tr,sc,cx);
         _sch = sc;
+        _where = Evaluator.Compile(sc.where);
+        if (_where != null && sce instanceof TableRowSet
+                && ((TableRowSet)sce)._where == null)
+        {
+            sce = new TableRowSet((TableRowSet)sce, _where);
+            _test = null;
+        }
+        else
+            _test = _where;
         _sce = sce;
     }
     static RowSet Source(SDatabase tr,SQuery top,SSearch sc,Context cx)
@@ -66,15 +77,16 @@ public class SearchRowSet extends RowSet {
                         b = b.Next())
                     {
                         SCList<Variant> ma = null;
-                        int op = SExpression.Op.Eql;
                         var n = 0;
                         var ix = (SIndex)tr.objects.get(b.getValue().key);
                         for (var wb = ix.cols.First(); wb != null; wb = wb.Next())
                         {
-                            if (!matches.Contains(wb.getValue()))
-                                break;
-                            op = Compat(op, (int)((SSlot)matches.get(wb.getValue())).val);
-                            if (op == SExpression.Op.NotEql)
+                            // the index is positioned by equalities only:
+                            // its bookmarks do not run past the key found,
+                            // so a range is left to the where conditions
+                            if (!matches.Contains(wb.getValue()) ||
+                                    (int)((SSlot)matches.get(wb.getValue())).val
+                                        != SExpression.Op.Eql)
                                 break;
                             var v = new Variant(Variants.Ascending, matches.get(wb.getValue()).key);
                             ma = (ma==null)?new SCList(v):ma.InsertAt(v,n);
@@ -83,7 +95,8 @@ public class SearchRowSet extends RowSet {
                         if (ma!= null && (best==null || ma.Length > best.Length))
                         {
                             best = ma;
-                            s = new IndexRowSet(tr, tb, ix, ma, op, sc.where, cx);
+                            s = new IndexRowSet(tr, tb, ix, ma,
+                                    SExpression.Op.Eql, sc.where, cx);
                             tr = s._tr;
                         }
                     }
@@ -105,22 +118,64 @@ public class SearchRowSet extends RowSet {
         }
         return op;
     }
-    static int Compat(int was, int now)
-    {
-        if (was == now || was == SExpression.Op.Eql)
-            return now;
-        return SExpression.Op.NotEql;
-    }
     @Override
     public Bookmark<Serialisable> First() {
         for (var b = (RowBookmark)_sce.First(); b != null; b = (RowBookmark)b.Next()) {
             var rb = new SearchRowBookmark(this,(RowBookmark)b,0);
-            if (rb.Matches(_sch.where)==true) 
+            if (rb.Matches(_test)) 
                 return rb;
         }
         return null;
     }
 
+    @Override
+    public RowBatch.Cursor Batches(ParallelScan.Part p) throws Exception
+    {
+        var sb = _sce.Batches(p);
+        return (sb == null || _test == null) ? sb : new SearchRowBatches(this, sb);
+    }
+    @Override
+    public TableRowSet Scan()
+    {
+        return _sce.Scan();
+    }
+    /// <summary>
+    /// Only an IndexRowSet made for these conditions can answer for them
+    /// </summary>
+    @Override
+    public SDict<Long,Serialisable> Metadata(SDict<Long,Serialisable> ags)
+            throws Exception
+    {
+        return (_sce instanceof IndexRowSet && ((IndexRowSet)_sce)._wh == _sch.where)
+                ? _sce.Metadata(ags) : null;
+    }
+    /// <summary>
+    /// The filter: each condition in turn narrows the selection vector of
+    /// a batch from the source
+    /// </summary>
+    class SearchRowBatches extends RowBatch.Cursor {
+
+        public final SearchRowSet _sch;
+        final RowBatch.Cursor _sce;
+
+        SearchRowBatches(SearchRowSet sr, RowBatch.Cursor sce)
+        {
+            _sch = sr;
+            _sce = sce;
+        }
+        @Override
+        public RowBatch Next() throws Exception
+        {
+            for (var rb = _sce.Next(); rb != null; rb = _sce.Next())
+            {
+                rb.Filter(_sch._tr, _sch._test);
+                if (rb.count > 0)
+                    return rb;
+            }
+            return null;
+        }
+    }
+
     class SearchRowBookmark extends RowBookmark {
 
         public final SearchRowSet _sch;
@@ -136,7 +191,7 @@ public class SearchRowSet extends RowSet {
         public Bookmark<Serialisable> Next() {
             for (var b = (RowBookmark)_bmk.Next(); b != null; b = (RowBookmark)b.Next()) {
                 var rb = new SearchRowBookmark(_sch,(RowBookmark)b,Position+1);
-                if (rb.Matches(_sch._sch.where))
+                if (rb.Matches(_sch._test))
                     return rb;
             }
             return null;
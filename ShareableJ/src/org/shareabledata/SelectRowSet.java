@@ -12,11 +12,24 @@ package org.shareabledata;
 public class SelectRowSet extends RowSet {
         public final SSelectStatement _sel;
         public final RowSet _source;
+        final Evaluator[] _cols; // compiled from _sel.cpos
+        final RowType _rt; // the layout of the rows
         public SelectRowSet(RowSet sce,SSelectStatement sel,
                 Context cx) throws Exception
         {   super(sce._tr,sel,cx);
             _sel = sel;
             _source = sce;
+            _cols = (sel.display==null)?null:Evaluator.Compile(sel.cpos);
+            _rt = (sel.display==null)?null:new RowType(sel.display);
+        }
+        /// <summary>
+        /// The selected row for a row of the source: as _sel.Lookup
+        /// </summary>
+        SRow Row(Context cx)
+        {
+            if (_sel.display==null)
+                return (SRow)cx.refs;
+            return new SRow(_tr,_sel,_cols,_rt,cx);
         }
 
         @Override
@@ -26,7 +39,7 @@ public class SelectRowSet extends RowSet {
                 for (var b = (RowBookmark)_source.First();b!=null;
                         b=(RowBookmark)b.Next())
                 {
-                    var rw = (SRow)_qry.Lookup(_tr,b._cx);
+                    var rw = Row(b._cx);
                     if (rw.isNull)
                         continue;
                     var rb = new SelectRowBookmark(this,b, rw, 0);
@@ -39,6 +52,88 @@ public class SelectRowSet extends RowSet {
             }
             return null;  
         }
+        /// <summary>
+        /// Batches when the source has them and each display column has
+        /// an expression
+        /// </summary>
+        @Override
+        public RowBatch.Cursor Batches(ParallelScan.Part p) throws Exception
+        {
+            if (_sel.display==null)
+                return _source.Batches(p);
+            if (_sel.cpos==null || _sel.cpos.Length!=_sel.display.Length)
+                return null;
+            var sb = _source.Batches(p);
+            return (sb==null)?null:new SelectRowBatches(this,sb);
+        }
+        @Override
+        public TableRowSet Scan()
+        {
+            return _source.Scan();
+        }
+        /// <summary>
+        /// The projection: each column is computed for the selected rows
+        /// of a source batch, and rows that are all null, or fail, are
+        /// left out as Row leaves them out
+        /// </summary>
+        class SelectRowBatches extends RowBatch.Cursor
+        {
+            public final SelectRowSet _srs;
+            final RowBatch.Cursor _sce;
+            final RowBatch _rb;
+            final boolean[] _keep = new boolean[RowBatch.Size];
+            final boolean[] _failed = new boolean[RowBatch.Size];
+            SelectRowBatches(SelectRowSet rs,RowBatch.Cursor sce)
+            {
+                _srs = rs; _sce = sce;
+                _rb = new RowBatch(rs,rs._rt);
+            }
+            @Override
+            public RowBatch Next() throws Exception
+            {
+                for (var sb = _sce.Next(); sb != null; sb = _sce.Next())
+                {
+                    for (var k = 0; k < sb.count; k++)
+                    {
+                        _keep[k] = false;
+                        _failed[k] = false;
+                        _rb.recs[k] = sb.recs[sb.sel[k]];
+                    }
+                    for (var j = 0; j < _srs._cols.length; j++)
+                    {
+                        var e = _srs._cols[j];
+                        var cs = _rb.cols[j];
+                        for (var k = 0; k < sb.count; k++)
+                        {
+                            if (_failed[k])
+                                continue;
+                            try {
+                                var v = e.Eval(_srs._tr,sb,sb.sel[k]);
+                                if (v instanceof SRow && ((SRow)v).cols.length == 1)
+                                    v = ((SRow)v).cols[0];
+                                if (v==null)
+                                    v = Serialisable.Null;
+                                cs[k] = v;
+                                if (v != Serialisable.Null)
+                                    _keep[k] = true;
+                            } catch(Exception ex)
+                            {
+                                System.out.println("Evaluation failure: "+ex.getMessage());
+                                _failed[k] = true;
+                            }
+                        }
+                    }
+                    var n = 0;
+                    for (var k = 0; k < sb.count; k++)
+                        if (_keep[k] && !_failed[k])
+                            _rb.sel[n++] = k;
+                    _rb.count = n;
+                    if (n > 0)
+                        return _rb;
+                }
+                return null;
+            }
+        }
         class SelectRowBookmark extends RowBookmark
         {
             public final SelectRowSet _srs;
@@ -54,7 +149,7 @@ public class SelectRowSet extends RowSet {
                 try {
                     for (var b = (RowBookmark)_bmk.Next(); b != null; b = (RowBookmark)b.Next())
                     {
-                        var rw = (SRow)_srs._qry.Lookup(_rs._tr,b._cx);
+                        var rw = _srs.Row(b._cx);
                         if (rw.isNull)
                             continue;
                         var rb = new SelectRowBookmark(_srs, b, rw, Position + 1);
@@ -57,6 +57,12 @@ public class Serialisable implements Comparable {
     {
         return ags;
     }
+    /// Tables is used by the server's ResultCache: the uids of the tables
+    /// that a prepared query reads are added to ts
+    public SDict<Long,Boolean> Tables(SDict<Long,Boolean> ts)
+    {
+        return ts;
+    }
     /// Put is used in serialisation by client and server
     public void Put(WriterBase f) throws Exception
     {
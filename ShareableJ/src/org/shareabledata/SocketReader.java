@@ -21,13 +21,13 @@ public class SocketReader extends ReaderBase {
     /// </summary>
     /// <returns>the byte</returns>
     @Override
-    public boolean GetBuf(long s) // s is ignored for ServerStream
+    public boolean GetBuf(long s) throws Exception // s is ignored for ServerStream
     {
         int rcount;
         try
         {
-            var rc = client.getInputStream().read(buf.buf);
-            if (rc == 0)
+            var rc = Fill();
+            if (rc < 2)
             {
                 rcount = 0;
                 return false;
@@ -41,6 +41,24 @@ public class SocketReader extends ReaderBase {
             return false;
         }
     }
+    /// <summary>
+    /// Read the next buffer from the network. The writer always sends whole
+    /// buffers, but a buffer may arrive in pieces.
+    /// </summary>
+    /// <returns>the number of bytes read: less than Buffer.Size at end of input</returns>
+    int Fill() throws Exception
+    {
+        var in = client.getInputStream();
+        var rc = 0;
+        while (rc < Buffer.Size)
+        {
+            var n = in.read(buf.buf, rc, Buffer.Size - rc);
+            if (n <= 0)
+                break;
+            rc += n;
+        }
+        return rc;
+    }
     @Override
     public int ReadByte() throws Exception
     {
@@ -53,6 +71,24 @@ public class SocketReader extends ReaderBase {
         return (buf.len == 0) ? -1 : buf.buf[buf.pos++];
     }
     @Override
+    public int ReadBytes(byte[] b, int off, int len) throws Exception
+    {
+        var n = 0;
+        while (n < len)
+        {
+            if (buf.pos >= buf.len)
+            {
+                if (!GetBuf(0))
+                    throw new Exception("EOF on input");
+                buf.pos = 2;
+                if (buf.len == 0)
+                    break;
+            }
+            n += buf.Get(b, off + n, len - n);
+        }
+        return n;
+    }
+    @Override
     public STable GetTable() throws Exception
     {
         var un = GetLong();
@@ -35,4 +35,14 @@ public abstract class SocketWriter extends WriterBase {
             PutBuf();
         buf.buf[buf.pos++] = value;
     }
+    @Override
+    public void WriteBytes(byte[] b, int off, int len) throws Exception
+    {
+        for (var n = 0; n < len;)
+        {
+            if (buf.pos >= Buffer.Size)
+                PutBuf();
+            n += buf.Put(b, off + n, len - n);
+        }
+    }
 }
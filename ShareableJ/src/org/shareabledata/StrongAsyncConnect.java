@@ -0,0 +1,222 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.shareabledata;
+import java.util.ArrayList;
+import java.util.concurrent.*;
+/**
+ *
+ * @author Malcolm
+ * A non-blocking client for the Strong protocol: requests from any number
+ * of callers are pipelined over one StrongConnect. Each request is sent at
+ * once, without waiting for the replies to earlier ones, and returns a
+ * CompletableFuture. The server answers the requests on a connection one at
+ * a time and in order, so a single reader thread takes the replies off the
+ * socket and completes the futures in the order their requests were sent.
+ * A request the server rejects fails its own future only; if the connection
+ * is lost, every request still waiting fails, and so do any made later.
+ * A transaction started with BeginTransactionAsync covers everything sent
+ * until the matching CommitAsync or RollbackAsync.
+ * The StrongConnect should not be used directly while this is open.
+ * This class is not shareable.
+ */
+public class StrongAsyncConnect {
+        final StrongConnect conn;
+        /// <summary>
+        /// Requests that have been sent, in the order they were sent
+        /// </summary>
+        final LinkedBlockingQueue<Pending<?>> pending =
+                new LinkedBlockingQueue<>();
+        final Thread reader;
+        Exception broken = null; // guarded by conn
+        /// <summary>
+        /// The send half of a StrongConnect operation
+        /// </summary>
+        interface Op<T>
+        {
+            StrongConnect.Reply<T> Send() throws Exception;
+        }
+        static class Pending<T>
+        {
+            final StrongConnect.Reply<T> reply;
+            final CompletableFuture<T> result = new CompletableFuture<>();
+            final boolean last; // from CloseAsync
+            Pending(StrongConnect.Reply<T> r,boolean l)
+            {
+                reply = r;
+                last = l;
+            }
+            void Read()
+            {
+                try
+                {
+                    result.complete(reply.Read());
+                }
+                catch (ServerException e)
+                {
+                    result.completeExceptionally(e);
+                }
+                catch (Exception e)
+                {
+                    result.completeExceptionally(e);
+                    throw new CompletionException(e);
+                }
+            }
+        }
+        public StrongAsyncConnect(String host,int port,String fn) throws Exception
+        {
+            this(new StrongConnect(host,port,fn));
+        }
+        public StrongAsyncConnect(StrongConnect c)
+        {
+            conn = c;
+            reader = new Thread(this::Replies, "StrongAsyncConnect");
+            reader.setDaemon(true);
+            reader.start();
+        }
+        /// <summary>
+        /// The reader thread
+        /// </summary>
+        void Replies()
+        {
+            try
+            {
+                for (var p = pending.take(); ; p = pending.take())
+                {
+                    p.Read();
+                    if (p.last)
+                        return;
+                }
+            }
+            catch (CompletionException | InterruptedException e)
+            {
+                var x = (e.getCause() instanceof Exception) ?
+                        (Exception)e.getCause() : e;
+                synchronized (conn)
+                {
+                    broken = x;
+                }
+                for (Pending<?> p; (p = pending.poll()) != null;)
+                    p.result.completeExceptionally(x);
+            }
+        }
+        /// <summary>
+        /// Send a request and queue its reply. Both are done under the
+        /// connection's lock, so that requests leave in the same order
+        /// as their replies are queued.
+        /// </summary>
+        <T> CompletableFuture<T> Submit(Op<T> op)
+        {
+            synchronized (conn)
+            {
+                if (broken != null)
+                    return CompletableFuture.failedFuture(broken);
+                try
+                {
+                    var p = new Pending<T>(op.Send(), false);
+                    pending.add(p);
+                    return p.result;
+                }
+                catch (Exception e)
+                {
+                    conn.asy.wtr.buf.pos = 2; // drop what was written
+                    conn.preps = null;
+                    return CompletableFuture.failedFuture(e);
+                }
+            }
+        }
+        public CompletableFuture<DocArray> ExecuteQueryAsync(String sql)
+        {
+            return Submit(() -> conn.SendQuery(sql));
+        }
+        public CompletableFuture<Integer> ExecuteNonQueryAsync(String sql)
+        {
+            return Submit(() -> conn.SendNonQuery(sql));
+        }
+        public CompletableFuture<Void> InsertAsync(String tn,String[] cols,
+                Serialisable[]... rows)
+        {
+            return Submit(() -> conn.SendInsert(tn, cols, rows));
+        }
+        /// <summary>
+        /// As StrongConnect.BulkLoad, but the batches are all sent before
+        /// any reply is read. If a batch fails, the batches after it have
+        /// been sent all the same: the result gives the first exception.
+        /// </summary>
+        /// <returns>the number of rows sent</returns>
+        public CompletableFuture<Long> BulkLoadAsync(String tn,String[] cols,
+                int batchSize,Iterable<Serialisable[]> rows)
+        {
+            if (batchSize < 1)
+                return CompletableFuture.failedFuture(
+                        new Exception("Bad batch size " + batchSize));
+            var batches = new ArrayList<CompletableFuture<Void>>();
+            var batch = new Serialisable[batchSize][];
+            var n = 0;
+            long count = 0;
+            synchronized (conn) // keep the batches together
+            {
+                for (var row : rows)
+                {
+                    batch[n++] = row;
+                    if (n == batchSize)
+                    {
+                        var k = n;
+                        batches.add(Submit(() -> conn.SendBatch(tn, cols, batch, k)));
+                        count += n;
+                        n = 0;
+                    }
+                }
+                if (n > 0)
+                {
+                    var k = n;
+                    batches.add(Submit(() -> conn.SendBatch(tn, cols, batch, k)));
+                    count += n;
+                }
+            }
+            var c = count;
+            var r = new CompletableFuture<Long>();
+            CompletableFuture.allOf(batches.toArray(new CompletableFuture[0]))
+                    .whenComplete((v, e) -> {
+                        for (var b : batches)
+                            if (b.isCompletedExceptionally())
+                            {
+                                b.whenComplete((u, x) -> r.completeExceptionally(x));
+                                return;
+                            }
+                        r.complete(c);
+                    });
+            return r;
+        }
+        public CompletableFuture<Void> BeginTransactionAsync()
+        {
+            return Submit(() -> conn.SendBegin());
+        }
+        public CompletableFuture<Void> CommitAsync()
+        {
+            return Submit(() -> conn.SendEnd(Types.SCommit));
+        }
+        public CompletableFuture<Void> RollbackAsync()
+        {
+            return Submit(() -> conn.SendEnd(Types.SRollback));
+        }
+        /// <summary>
+        /// Requests already sent are completed before the socket is
+        /// closed; later ones fail.
+        /// </summary>
+        public CompletableFuture<Void> CloseAsync()
+        {
+            synchronized (conn)
+            {
+                if (broken != null)
+                    return CompletableFuture.completedFuture(null);
+                broken = new Exception("Connection is closed");
+                var p = new Pending<Void>(() -> { conn.Close(); return null; },
+                        true);
+                pending.add(p);
+                return p.result;
+            }
+        }
+}
@@ -15,6 +15,13 @@ public class StrongConnect {
         public boolean inTransaction = false;
         SDict<Long,String> preps = null;
         public SDict<Integer,String> description = null;
+        /// <summary>
+        /// The receive half of a request whose send half has been sent
+        /// </summary>
+        interface Reply<T>
+        {
+            T Read() throws Exception;
+        }
         public StrongConnect(String host,int port,String fn) throws Exception
         {
             Socket socket = null;
@@ -66,6 +73,14 @@ public class StrongConnect {
         }
         public void CreateIndex(String tn,byte t,String rt,String... key)
                 throws Exception
+        {
+            CreateIndex(tn, t, false, rt, key);
+        }
+        /// <summary>
+        /// As above: a paged index is kept on disk by the server (SPagedTree)
+        /// </summary>
+        public void CreateIndex(String tn,byte t,boolean paged,String rt,
+                String... key) throws Exception
         {
             var ut = Prepare(tn);
             long u = -1;
@@ -80,12 +95,17 @@ public class StrongConnect {
                 i++;
             }
             asy.wtr.SendUids(preps);
-            new SIndex(ut,t==IndexType.Primary,u,keys).Put(asy.wtr);
+            new SIndex(ut,t==IndexType.Primary,u,keys,paged).Put(asy.wtr);
             var b = asy.Receive();
             preps = null;
         }
         public void Insert(String tn,String[] cols,Serialisable[]... rows)
                 throws Exception
+        {
+            SendInsert(tn, cols, rows).Read();
+        }
+        Reply<Void> SendInsert(String tn,String[] cols,Serialisable[]... rows)
+                throws Exception
         {
             var ut = Prepare(tn);
             var u = new long[cols.length];
@@ -111,24 +131,97 @@ public class StrongConnect {
                     row1.Put(asy.wtr);
                 }
             }
-            var b = asy.Receive();
+            asy.Send();
+            return () -> { asy.Reply(); return null; };
+        }
+        /// <summary>
+        /// Bulk load: rows are streamed to the server in batches of
+        /// batchSize rows. Each batch is one BulkLoad message: the server
+        /// installs it with a single index update per index. A batch is
+        /// committed on its own unless BeginTransaction has been called or
+        /// the session has uncommitted changes: then it joins the session's
+        /// transaction.
+        /// </summary>
+        /// <returns>the number of rows sent</returns>
+        public long BulkLoad(String tn,String[] cols,int batchSize,
+                Iterable<Serialisable[]> rows) throws Exception
+        {
+            if (batchSize < 1)
+                throw new Exception("Bad batch size " + batchSize);
+            var batch = new Serialisable[batchSize][];
+            var n = 0;
+            long count = 0;
+            for (var row : rows)
+            {
+                batch[n++] = row;
+                if (n == batchSize)
+                {
+                    SendBatch(tn, cols, batch, n).Read();
+                    count += n;
+                    n = 0;
+                }
+            }
+            if (n > 0)
+            {
+                SendBatch(tn, cols, batch, n).Read();
+                count += n;
+            }
+            return count;
+        }
+        Reply<Void> SendBatch(String tn,String[] cols,Serialisable[][] rows,
+                int nr) throws Exception
+        {
+            preps = null;
+            var ut = Prepare(tn);
+            var nc = (cols == null) ? 0 : cols.length;
+            var u = new long[nc];
+            for (var i = 0; i < nc; i++)
+                u[i] = Prepare(cols[i]);
+            var wtr = asy.wtr;
+            wtr.SendUids(preps);
+            wtr.WriteByte((byte)Types.BulkLoad);
+            wtr.PutLong(ut);
+            wtr.PutInt(nc);
+            for (long ui : u)
+                wtr.PutLong(ui);
+            wtr.PutInt(rows[0].length); // cols
+            wtr.PutInt(nr);  // rows
+            for (var i = 0; i < nr; i++)
+                for (Serialisable v : rows[i])
+                    v.Put(wtr);
+            asy.Send();
+            preps = null;
+            return () -> { asy.Reply(); return null; };
         }
         public DocArray ExecuteQuery(String sql) throws Exception
+        {
+            return SendQuery(sql).Read();
+        }
+        Reply<DocArray> SendQuery(String sql) throws Exception
         {
             var pair = Parser.Parse(sql);
             if (pair.ob.type!=Types.SSelect)
                 throw new Exception("Bad query " + sql);
             var qry = (SQuery)pair.ob;
-            return Get(pair.ns,qry);
+            return SendGet(pair.ns,qry);
         }
         public int ExecuteNonQuery(String sql) throws Exception
+        {
+            return SendNonQuery(sql).Read();
+        }
+        Reply<Integer> SendNonQuery(String sql) throws Exception
         {
             var s = Parser.Parse(sql);
             if (s == null)
-                return Types.Exception;
+                return () -> (int)Types.Exception;
             asy.wtr.SendUids(s.ns);
             s.ob.Put(asy.wtr);
-            var b = asy.Receive();
+            asy.Send();
+            return () -> NonQueryReply(sql);
+        }
+        int NonQueryReply(String sql) throws Exception
+        {
+            var b = asy.Reply();
             if (b.proto == Types.Exception)
                 inTransaction = false;
             else
@@ -144,13 +237,23 @@ public class StrongConnect {
             return b.proto;
         }
         public DocArray Get(SDict<Long,String> d,Serialisable tn) throws Exception
+        {
+            return SendGet(d, tn).Read();
+        }
+        Reply<DocArray> SendGet(SDict<Long,String> d,Serialisable tn)
+                throws Exception
         {
             var wtr = asy.wtr;
-            var rdr = asy.rdr;
             wtr.SendUids(d);
             wtr.Write((byte)Types.DescribedGet);
             tn.Put(wtr);
-            var b = asy.Receive();
+            asy.Send();
+            return () -> GetReply();
+        }
+        DocArray GetReply() throws Exception
+        {
+            var rdr = asy.rdr;
+            var b = asy.Reply();
             if (b.proto == (byte)Types.Exception)
             {
                 inTransaction = false;
@@ -169,32 +272,97 @@ public class StrongConnect {
             throw new Exception("PE28");
         }
         public void BeginTransaction() throws Exception
+        {
+            SendBegin().Read();
+        }
+        Reply<Void> SendBegin() throws Exception
         {
             asy.wtr.Write((byte)Types.SBegin);
-            var b = asy.Receive();
-            if (b.proto == Types.Exception)
-            {
-                inTransaction = false;
-                asy.rdr.GetException();
-            }
-            if (b.proto == Types.Done)
-                inTransaction = true;
+            asy.Send();
+            return () -> {
+                var b = asy.Reply();
+                if (b.proto == Types.Exception)
+                {
+                    inTransaction = false;
+                    asy.rdr.GetException();
+                }
+                if (b.proto == Types.Done)
+                    inTransaction = true;
+                return null;
+            };
         }
         public void Rollback() throws Exception
         {
-            asy.wtr.Write((byte)Types.SRollback);
-            var b = asy.Receive();
-            inTransaction = false;
+            SendEnd(Types.SRollback).Read();
         }
         public void Commit() throws Exception
         {
-            asy.wtr.Write((byte)Types.SCommit);
-            var b = asy.Receive();
+            SendEnd(Types.SCommit).Read();
+        }
+        /// <summary>
+        /// Send SCommit or SRollback
+        /// </summary>
+        Reply<Void> SendEnd(int p) throws Exception
+        {
+            asy.wtr.Write((byte)p);
+            asy.Send();
+            return () -> {
+                asy.Reply();
+                inTransaction = false;
+                return null;
+            };
+        }
+        /// <summary>
+        /// Compact the database log (see SDatabase.Compact). This cannot be
+        /// done in an explicit transaction. Transactions in progress in other
+        /// sessions fail when they commit, with "Transaction conflict:
+        /// database has been compacted", and must be run again.
+        /// </summary>
+        public void Compact() throws Exception
+        {
+            asy.wtr.Write((byte)Types.Compact);
+            asy.Receive();
             inTransaction = false;
         }
         public void Close() throws Exception
         {
             asy.client.close();
         }
+        /// <summary>
+        /// Whether the socket is still open at this end
+        /// </summary>
+        public boolean isOpen()
+        {
+            var c = asy.client;
+            return c.isConnected() && !c.isClosed() && !c.isInputShutdown()
+                    && !c.isOutputShutdown();
+        }
+        /// <summary>
+        /// Used by StrongConnectionPool to validate a connection on borrow.
+        /// Nothing should be waiting to be read on an idle connection, so a
+        /// read that gives up after a millisecond tells a live server (the
+        /// read times out) from one that has closed the connection (end of
+        /// input or a reset).
+        /// </summary>
+        public boolean isAlive()
+        {
+            if (!isOpen())
+                return false;
+            var c = asy.client;
+            try {
+                var t = c.getSoTimeout();
+                c.setSoTimeout(1);
+                try {
+                    c.getInputStream().read(); // end of input, or stray data
+                    return false;
+                } catch (SocketTimeoutException e) {
+                    return true;
+                } finally {
+                    c.setSoTimeout(t);
+                }
+            } catch (java.io.IOException e) {
+                return false;
+            }
+        }
     }
     
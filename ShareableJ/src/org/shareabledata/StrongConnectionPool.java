@@ -0,0 +1,184 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.shareabledata;
+import java.util.*;
+/**
+ *
+ * @author Malcolm
+ * A thread-safe pool of StrongConnect instances for a single host, port
+ * and database. Connections are validated when borrowed (by a brief read
+ * that detects a connection the server has closed), rolled back if
+ * returned with a transaction still open, and closed once they have been idle
+ * for longer than maxIdle (while more than minSize remain open).
+ * Like StrongConnect, this class is not shareable.
+ */
+public class StrongConnectionPool {
+        public final String host;
+        public final int port;
+        public final String database;
+        public final int minSize;
+        public final int maxSize;
+        public final long maxIdle; // milliseconds
+        final ArrayDeque<Idle> idle = new ArrayDeque<>();
+        int open = 0; // connections currently open, whether idle or borrowed
+        boolean closed = false;
+        /// <summary>
+        /// An idle connection and the time it was returned to the pool
+        /// </summary>
+        static class Idle
+        {
+            final StrongConnect conn;
+            final long since;
+            Idle(StrongConnect c,long t) { conn = c; since = t; }
+        }
+        public StrongConnectionPool(String h,int p,String fn,int mn,int mx,
+                long mi) throws Exception
+        {
+            if (mn<0 || mx<1 || mn>mx)
+                throw new Exception("Bad pool size " + mn + ".." + mx);
+            host = h; port = p; database = fn;
+            minSize = mn; maxSize = mx; maxIdle = mi;
+            for (var i = 0; i < mn; i++)
+            {
+                idle.push(new Idle(new StrongConnect(h,p,fn),
+                        System.currentTimeMillis()));
+                open++;
+            }
+        }
+        /// <summary>
+        /// Obtain a connection, waiting if maxSize connections are in use.
+        /// The most recently returned connection is preferred:
+        /// older ones are left to be evicted.
+        /// </summary>
+        public StrongConnect Borrow() throws Exception
+        {
+            for (;;)
+            {
+                Idle e;
+                synchronized(this)
+                {
+                    for (;;)
+                    {
+                        if (closed)
+                            throw new Exception("Connection pool is closed");
+                        Evict();
+                        e = idle.poll();
+                        if (e != null || open < maxSize)
+                            break;
+                        wait();
+                    }
+                    if (e == null)
+                        open++; // reserve a slot before connecting outside the lock
+                }
+                if (e == null)
+                    break;
+                if (e.conn.isAlive()) // this waits on the socket: not under the lock
+                    return e.conn;
+                synchronized(this)
+                {
+                    Discard(e.conn);
+                }
+            }
+            try
+            {
+                return new StrongConnect(host,port,database);
+            }
+            catch (Exception e)
+            {
+                synchronized(this)
+                {
+                    open--;
+                    notify();
+                }
+                throw e;
+            }
+        }
+        /// <summary>
+        /// Give a connection back to the pool. An open transaction is
+        /// rolled back: if that fails the connection is discarded.
+        /// </summary>
+        public void Return(StrongConnect c)
+        {
+            if (c.inTransaction)
+            {
+                try
+                {
+                    c.Rollback();
+                }
+                catch (Exception e)
+                {
+                    synchronized(this)
+                    {
+                        Discard(c);
+                    }
+                    return;
+                }
+            }
+            c.inTransaction = false;
+            c.preps = null;
+            c.description = null;
+            synchronized(this)
+            {
+                if (closed || !c.isOpen())
+                    Discard(c);
+                else
+                {
+                    idle.push(new Idle(c,System.currentTimeMillis()));
+                    notify();
+                }
+                Evict();
+            }
+        }
+        /// <summary>
+        /// Close idle connections that have exceeded maxIdle, oldest first,
+        /// keeping at least minSize connections open.
+        /// Caller holds the lock.
+        /// </summary>
+        void Evict()
+        {
+            var now = System.currentTimeMillis();
+            while (open > minSize)
+            {
+                var e = idle.peekLast();
+                if (e == null || now - e.since < maxIdle)
+                    break;
+                idle.pollLast();
+                Discard(e.conn);
+            }
+        }
+        /// <summary>
+        /// Caller holds the lock
+        /// </summary>
+        void Discard(StrongConnect c)
+        {
+            try
+            {
+                c.Close();
+            }
+            catch (Exception e) {}
+            open--;
+            notify();
+        }
+        public synchronized int Idle()
+        {
+            return idle.size();
+        }
+        public synchronized int Open()
+        {
+            return open;
+        }
+        /// <summary>
+        /// Close all idle connections. Borrowed connections are closed
+        /// when they are returned.
+        /// </summary>
+        public synchronized void Close()
+        {
+            closed = true;
+            for (var e = idle.poll(); e != null; e = idle.poll())
+                Discard(e.conn);
+            notifyAll();
+        }
+}
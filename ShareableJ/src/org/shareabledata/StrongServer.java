@@ -24,6 +24,10 @@ public class StrongServer implements Runnable {
     /// </summary>
     ServerStream asy;
     SDatabase db;
+    /// <summary>
+    /// The names sent just before the current request (see ResultCache)
+    /// </summary>
+    SDict<Long,String> names = null;
     static int _cid = 0;
     int cid = _cid++;
     static Random testlock = new Random();
@@ -75,6 +79,8 @@ public class StrongServer implements Runnable {
             if (p < 0) {
                 return;
             }
+            var ns = names;
+            names = null;
             try {
                 switch ((byte) p) {
                     case Types.SNames:
@@ -89,6 +95,7 @@ public class StrongServer implements Runnable {
                             if (u < rdr.lastAlias)
                                 rdr.lastAlias = u;
                             us = (us==null)?new SDict(u, s):us.Add(u,s);
+                            names = (names==null)?new SDict(u, s):names.Add(u,s);
                         }
                         db = new STransaction(tr,new SRole(tr.role,us));
                         break;
@@ -107,25 +114,63 @@ public class StrongServer implements Runnable {
                         }
                         if (!(q instanceof SQuery))
                             throw new Exception("Bad query");
-                        var qy = (SQuery)q;
-                        qy = (SQuery)qy.Prepare(tr, qy.Names(tr,null));
-                        RowSet rs = qy.RowSet(tr,qy,null);
-                        var sb = new StringBuilder("[");
-                        var cm = "";
-                        for (var b = rs.First();b!=null;b=b.Next())
+                        var key = ResultCache.Key(tr, ns, q);
+                        var ce = (key==null)?null:ResultCache.Get(tr, key);
+                        String[] dp;
+                        String res;
+                        SDatabase rt; // the transaction with its reads
+                        if (ce!=null)
                         {
-                            var ob = ((RowBookmark)b).Ob();
-                            if (!(ob instanceof SRow))
-                                continue;
-                            var sr = (SRow)ob;
-                            if (!sr.isValue())
-                                continue;
-                            sb.append(cm); cm = ",";
-                            sr.Append(db,sb);
+                            for (var t : ce.tables)
+                                tr = (STransaction)tr.Rdc(t);
+                            dp = ce.display;
+                            res = ce.result;
+                            rt = tr;
+                        }
+                        else
+                        {
+                            var qy = (SQuery)q;
+                            qy = (SQuery)qy.Prepare(tr, qy.Names(tr,null));
+                            RowSet rs = qy.RowSet(tr,qy,null);
+                            var sb = new StringBuilder("[");
+                            var cm = "";
+                            var bc = ParallelScan.Batches(rs);
+                            if (bc!=null)
+                                for (var rb = bc.Next();rb!=null;rb=bc.Next())
+                                    for (var k=0;k<rb.count;k++)
+                                    {
+                                        var i = rb.sel[k];
+                                        if (!rb.isValue(i))
+                                            continue;
+                                        sb.append(cm); cm = ",";
+                                        rb.Append(db,sb,i);
+                                    }
+                            else
+                            for (var b = rs.First();b!=null;b=b.Next())
+                            {
+                                var ob = ((RowBookmark)b).Ob();
+                                if (!(ob instanceof SRow))
+                                    continue;
+                                var sr = (SRow)ob;
+                                if (!sr.isValue())
+                                    continue;
+                                sb.append(cm); cm = ",";
+                                sr.Append(db,sb);
+                            }
+                            sb.append(']');
+                            var d = rs._qry.getDisplay();
+                            dp = (d==null)?null:new String[d.Length];
+                            var j = 0;
+                            if (d!=null)
+                                for (var b=d.First();b!=null;b=b.Next())
+                                    dp[j++] = b.getValue().val.id;
+                            res = sb.toString();
+                            rt = rs._tr;
+                            if (key!=null)
+                                ResultCache.Put(tr, key, qy, dp, res);
                         }
-                        sb.append(']');
                         var ts = db.curpos;
-                        var ss = rs._tr.MaybeAutoCommit();
+                        var ss = rt.MaybeAutoCommit();
                         db = ss.key;
                         ts = ss.val;
                         wtr.Write(Types.Done);
@@ -133,12 +178,11 @@ public class StrongServer implements Runnable {
                         wtr.PutLong(db.curpos);
                         if (p==Types.DescribedGet)
                         {
-                            var d = rs._qry.getDisplay();
-                            wtr.PutInt(d.Length);
-                            for (var b=d.First();b!=null;b=b.Next())
-                                wtr.PutString(b.getValue().val.id);
+                            wtr.PutInt(dp.length);
+                            for (var s : dp)
+                                wtr.PutString(s);
                         }
-                        wtr.PutString(sb.toString());
+                        wtr.PutString(res);
                         asy.Flush();
                         break;
                     }
@@ -170,6 +214,25 @@ public class StrongServer implements Runnable {
                         asy.Flush();
                         break;
                     }
+                    case Types.SCreateView: {
+                        var tr = db.Transact(rdr,true);
+                        var vn = tr.role.uids.get(rdr.GetLong());// view name
+                        var q = rdr._Get();
+                        tr = (STransaction)rdr.db;
+                        if (!(q instanceof SSelectStatement))
+                            throw new Exception("Bad view definition");
+                        var qy = (SSelectStatement)q;
+                        qy = (SSelectStatement)qy.Prepare(tr, qy.Names(tr,null));
+                        tr = SMaterializedView.Create(tr,vn,qy);
+                        var ss = tr.MaybeAutoCommit();
+                        db = ss.key;
+                        var ts = ss.val;
+                        wtr.Write(Types.Done);
+                        wtr.PutLong(ts);
+                        wtr.PutLong(db.curpos);
+                        asy.Flush();
+                        break;
+                    }
                     case Types.SCreateColumn:
                     {
                         var tr = db.Transact(rdr,true);
@@ -259,6 +322,35 @@ public class StrongServer implements Runnable {
                         asy.Flush();
                         break;
                     }
+                    case Types.BulkLoad: {
+                        // a batch is committed on its own unless the
+                        // session has begun a transaction or has uncommitted
+                        // changes: then it joins the session's transaction
+                        var auto = !(db instanceof STransaction) ||
+                                ((STransaction)db).Unchanged();
+                        db.Transact(rdr,true);
+                        BulkLoad(rdr);
+                        var tr = (STransaction)rdr.db;
+                        var ss = auto ? tr.Commit() : tr.MaybeAutoCommit();
+                        db = ss.key;
+                        var ts = ss.val;
+                        wtr.Write(Types.Done);
+                        wtr.PutLong(ts);
+                        wtr.PutLong(db.curpos);
+                        asy.Flush();
+                        break;
+                    }
+                    case Types.Compact: {
+                        if (db instanceof STransaction &&
+                                !((STransaction)db).autoCommit)
+                            throw new Exception("Cannot compact in a transaction");
+                        db = SDatabase.Compact(path, db.name);
+                        wtr.Write(Types.Done);
+                        wtr.PutLong(db.curpos);
+                        wtr.PutLong(db.curpos);
+                        asy.Flush();
+                        break;
+                    }
                     case Types.SAlter: {
                         var tr = db.Transact(rdr,true);
                         rdr.db = tr;
@@ -426,6 +518,8 @@ public class StrongServer implements Runnable {
                             if (!(db instanceof STransaction))
                                 throw new Exception("No transaction to commit");
                             var tr = (STransaction)db; 
+                            // Commit returns when the log's Durability policy
+                            // allows the commit to be acknowledged
                             var ss = tr.Commit();
                             db = ss.key;
                             var ts = ss.val;
@@ -435,8 +529,8 @@ public class StrongServer implements Runnable {
                             asy.Flush();
                             break;
                         }
-                    default:
-                        System.out.println("Unknown protocol byte "+p);
+                    default: // reply all the same, as pipelined clients need one reply per request
+                        throw new Exception("Unknown protocol byte "+p);
                 }
             } catch (Exception e) {
                 try {
@@ -464,6 +558,78 @@ public class StrongServer implements Runnable {
         rdr.db = db.Install(new SColumn(db,sc.table,sc.dataType,sc.constraints),
                 cn, db.curpos);
     }
+    /// <summary>
+    /// One batch of a bulk load: the whole message is read first, so that
+    /// an error leaves nothing of it unread (as for Types.Insert). The rows
+    /// are then checked against the column constraints, and installed with
+    /// a single update of the table and of each of its indexes.
+    /// </summary>
+    void BulkLoad(ReaderBase rdr) throws Exception
+    {
+        var tr = (STransaction)rdr.db;
+        Exception ex = null;
+        var tn = tr.role.uids.get(rdr.GetLong());
+        STable tb = null;
+        if (tr.role.globalNames.Contains(tn))
+        {
+            tb = (STable)tr.objects.get(tr.role.globalNames.get(tn));
+            rdr.context = tb;
+        }
+        else
+            ex = new Exception("Table " + tn + " not found");
+        var n = rdr.GetInt(); // # named cols
+        SColumn[] cs;
+        if (n == 0) {
+            cs = new SColumn[(tb == null) ? 0 : tb.cpos.Length];
+            var i = 0;
+            if (tb != null)
+                for (var b = tb.cpos.First(); b != null; b = b.Next())
+                    cs[i++] = (SColumn)b.getValue().val;
+        } else {
+            cs = new SColumn[n];
+            var ss = (tb == null) ? null : tr.role.subs.get(tb.uid);
+            for (var i = 0; i < n; i++) {
+                var cn = tr.role.uids.get(rdr.GetLong());
+                if (ss != null && ss.defs.Contains(cn))
+                    cs[i] = (SColumn)tr.objects.get(ss.obs.get(ss.defs.get(cn)).key);
+                else if (ex == null)
+                    ex = new Exception("Column " + cn + " not found");
+            }
+        }
+        var nc = rdr.GetInt(); // #cols
+        if (ex == null && nc != cs.length)
+            ex = new Exception("Wrong number of columns");
+        var vs = new Serialisable[rdr.GetInt()][nc]; // #records
+        for (var r : vs)
+            for (var j = 0; j < nc; j++)
+                r[j] = rdr._Get();
+        if (ex != null)
+            throw ex;
+        var rs = new SRecord[vs.length];
+        var m = 0; // rows checked but not yet installed
+        for (var r : vs) {
+            SDict<Long, Serialisable> f = null;
+            for (var j = 0; j < nc; j++) {
+                var sc = cs[j];
+                var v = sc.Check(tr, r[j], Context.New(f, null));
+                f = (f==null)?new SDict(sc.uid, v):f.Add(sc.uid, v);
+            }
+            var rc = new SRecord(tr, tb.uid, f);
+            var kc = tb.Check(tr, rc);
+            if (kc != rc && m > 0)
+            {
+                // a generated key must follow those of the earlier rows
+                // of the batch, so install them first
+                tr = (STransaction)tr.Install(tb, Arrays.copyOf(rs, m), tr.curpos);
+                tb = (STable)tr.objects.get(tb.uid);
+                m = 0;
+                kc = tb.Check(tr, rc);
+            }
+            rs[m++] = kc;
+            tr = tr.Reserve();
+        }
+        rdr.db = tr.Install(tb, Arrays.copyOf(rs, m), tr.curpos);
+    }
     void CreateIndex(ReaderBase rdr) throws Exception
     {
         var db = (STransaction)rdr.db;
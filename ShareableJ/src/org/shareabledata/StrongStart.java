@@ -70,8 +70,26 @@ public class StrongStart {
             {
                 switch (args[k].charAt(1))
                 {
+                    case 'c': ResultCache.Capacity = Long.parseLong(args[k].substring(3)) << 20; break;
                     case 'p': port = Integer.parseInt(args[k].substring(3)); break;
+                    case 'f':
+                        {
+                            var a = args[k].substring(3);
+                            var e = a.indexOf('=');
+                            Durability.Set((e < 0) ? null : a.substring(0, e),
+                                    Durability.Parse(a.substring(e + 1)));
+                            break;
+                        }
+                    case 'g': LogFile.SegmentSize = Long.parseLong(args[k].substring(3)) << 20; break;
                     case 'h': host = args[k].substring(3); break;
+                    case 'j': ParallelScan.Parallelism = Integer.parseInt(args[k].substring(3)); break;
+                    case 'l': SDatabase.lazyIndexes = true; break;
+                    case 'z': Compression.minLength = Integer.parseInt(args[k].substring(3)); break;
+                    case 'i':
+                        for (var tn : args[k].substring(3).split(","))
+                            SDatabase.pagedTables = (SDatabase.pagedTables == null) ?
+                                new SDict<>(tn, true) : SDatabase.pagedTables.Add(tn, true);
+                        break;
                     case 'd':
                         StrongServer.path = args[k].substring(3);
                         FixPath();
@@ -98,11 +116,18 @@ public class StrongStart {
         static void Usage()
         {
             String serverName = "StrongDBMS";
-            System.out.println("Usage: " + serverName + " [-d:path] [-h:host] [-p:port] [-s:http] [-t:nn] [-S:https] {-flag}");
+            System.out.println("Usage: " + serverName + " [-c:nn] [-d:path] [-f:[db=]policy] [-g:nn] [-h:host] [-i:table,..] [-j:nn] [-l] [-p:port] [-s:http] [-t:nn] [-S:https] [-z:nn] {-flag}");
             System.out.println("Parameters:");
+            System.out.println("   -c  Cache query results in up to the given number of MB");
             System.out.println("   -d  Use the given folder for database storage");
+            System.out.println("   -f  Force the log of the database (default all) to disk: sync (per commit, the default), every Nms, every Nc commits, or os");
+            System.out.println("   -g  Keep the logs of new databases in segments of the given number of MB");
             System.out.println("   -h  Use the given host address. Default is 127.0.0.1.");
+            System.out.println("   -i  Keep the indexes of the given tables on disk");
+            System.out.println("   -j  Use at most the given number of threads for scans of large tables (1 for none)");
+            System.out.println("   -l  Build indexes on first use rather than when the database is opened");
             System.out.println("   -p  Listen on the given port. Default is 5433");
+            System.out.println("   -z  Compress log records of at least the given number of bytes");
         }
         /// <summary>
         /// Version information
@@ -38,6 +38,7 @@ public class SysRows extends RowSet{
                 case "_Columns": return ColumnsBookmark.New(this);
                 case "_Constraints": return ConstraintsBookmark.New(this);
                 case "_Indexes": return IndexesBookmark.New(this);
+                case "_Cache": return CacheBookmark.New(this);
             }
         } catch (Exception e) {
         }
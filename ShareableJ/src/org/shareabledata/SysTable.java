@@ -37,6 +37,12 @@ public class SysTable extends STable {
                 new SSlot("Rows", Types.SInteger),
                 new SSlot("Indexes",Types.SInteger), 
                 new SSlot("Uid", Types.SString));
+            d=Add(d,"_Cache",new SSlot("Hits",Types.SInteger),
+                    new SSlot("Misses",Types.SInteger),
+                new SSlot("Invalidated",Types.SInteger),
+                new SSlot("Evicted",Types.SInteger),
+                new SSlot("Entries",Types.SInteger),
+                new SSlot("Bytes",Types.SInteger));
             }
             catch(Exception e){}
             return d;
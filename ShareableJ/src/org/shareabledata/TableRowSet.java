@@ -12,24 +12,241 @@ package org.shareabledata;
 public class TableRowSet extends RowSet {
 
     public final STable _tb;
+    final RowType _rt; // the layout of the rows
+    /// <summary>
+    /// Conditions pushed down from a SearchRowSet, or null. Rows that fail
+    /// them are skipped before a TableRowBookmark or a batch has them.
+    /// </summary>
+    public final Evaluator[] _where;
+    /// <summary>
+    /// Whether rows can be decoded a value at a time (see RowBatch.Load):
+    /// not if a column has a default or generation rule, as these need the
+    /// whole record
+    /// </summary>
+    final boolean _lazy;
+    RowBatch _probe = null; // for testing _where a row at a time
 
-    public TableRowSet(SDatabase db, STable t, Context cx) {
+    public TableRowSet(SDatabase db, STable t, Context cx) throws Exception {
         super(db.Rdc(t.uid), t,cx);
         _tb = t;
+        _rt = RowType.For(_tr, _tr.Table(t));
+        _where = null;
+        _lazy = Lazy(_rt);
+    }
+    /// <summary>
+    /// The rows of ts that satisfy wh
+    /// </summary>
+    TableRowSet(TableRowSet ts, Evaluator[] wh) {
+        super(ts._tr, ts._tb, ts._cx);
+        _tb = ts._tb;
+        _rt = ts._rt;
+        _where = wh;
+        _lazy = ts._lazy;
+    }
+    static boolean Lazy(RowType rt) {
+        for (var sc : rt.columns)
+            if (sc.constraints != null)
+                for (var c = sc.constraints.First(); c != null; c = c.Next())
+                    switch (c.getValue().key)
+                    {
+                        case "DEFAULT":
+                        case "GENERATED": return false;
+                    }
+        return true;
+    }
+    /// <summary>
+    /// Whether the row at bm satisfies _where: only the values that the
+    /// conditions use are decoded
+    /// </summary>
+    boolean Matches(Bookmark<SSlot<Long, Long>> bm) throws Exception {
+        if (_where == null)
+            return true;
+        if (_probe == null)
+            _probe = new RowBatch(this, _tr.Table(_tb), _lazy, 1);
+        _probe.Load(0, bm.getValue().val);
+        _probe.sel[0] = 0;
+        _probe.count = 1;
+        _probe.Filter(_tr, _where);
+        return _probe.count == 1;
     }
 
     @Override
     public Bookmark<Serialisable> First() {
             var b = _tb.rows.First();
             try {
-            return (b != null)
-                    ? new TableRowBookmark(this, b, 0) : null;
+            for (; b != null; b = b.Next())
+                if (Matches(b))
+                    return new TableRowBookmark(this, b, 0);
+            return null;
             } catch(Exception e)
             {
                 return null;
             }
     }
 
+    @Override
+    public RowBatch.Cursor Batches(ParallelScan.Part p)
+    {
+        return new TableRowBatches(this, p);
+    }
+    @Override
+    public TableRowSet Scan()
+    {
+        return this;
+    }
+    @Override
+    public SDict<Long,Serialisable> Metadata(SDict<Long,Serialisable> ags)
+            throws Exception
+    {
+        return (_where == null) ? Metadata(_tr, _tr.Table(_tb), ags) : null;
+    }
+    /// <summary>
+    /// The aggregates ags over all the rows of tb: a COUNT of something
+    /// that cannot be null is the number of rows, and a MIN or MAX of a
+    /// column is at one end of a built index that has it as leading column
+    /// </summary>
+    static SDict<Long,Serialisable> Metadata(SDatabase tr,STable tb,
+            SDict<Long,Serialisable> ags) throws Exception
+    {
+        if (ags == null)
+            return null;
+        var n = (tb.rows==null)?0:tb.rows.Length;
+        SDict<Long,Serialisable> vs = null;
+        for (var b = ags.First(); b != null; b = b.Next())
+        {
+            var f = (SFunction)b.getValue().val;
+            Serialisable v;
+            switch (f.func)
+            {
+                case SFunction.Func.Count:
+                    if (!NotNull(tr,tb,f.arg))
+                        return null;
+                    v = (n==0)?null:new SInteger(n);
+                    break;
+                case SFunction.Func.Max:
+                case SFunction.Func.Min:
+                {
+                    var x = Leading(tr,tb,f.arg);
+                    if (x == null)
+                        return null;
+                    v = End(x.Rows(tr),f.func==SFunction.Func.Max);
+                    break;
+                }
+                default:
+                    return null;
+            }
+            if (v != null) // as for a scan, no value if there are no rows
+                vs = (vs==null)?new SDict(f.fid,v):vs.Add(f.fid,v);
+        }
+        return vs;
+    }
+    /// <summary>
+    /// Whether a cannot be null in any row of tb: a constant (as in
+    /// COUNT(*)), a NOTNULL column, or the column of a one-column primary key
+    /// </summary>
+    static boolean NotNull(SDatabase tr,STable tb,Serialisable a)
+    {
+        if (!(a instanceof SColumn))
+            return a.isValue() && a.type != Types.Serialisable;
+        var sc = tb.cols.Lookup(((SColumn)a).uid);
+        if (sc == null)
+            return false;
+        if (sc.constraints != null && sc.constraints.Contains("NOTNULL"))
+            return true;
+        var px = tr.keys.Primary(tb.uid);
+        if (px == null)
+            return false;
+        var x = (SIndex)tr.objects.get(px);
+        return x.cols.Length == 1 && x.cols.element == sc.uid;
+    }
+    /// <summary>
+    /// A built in-memory index of tb whose leading column is a, or null
+    /// </summary>
+    static SIndex Leading(SDatabase tr,STable tb,Serialisable a)
+    {
+        if (!(a instanceof SColumn) || tb.indexes == null)
+            return null;
+        var u = ((SColumn)a).uid;
+        for (var b = tb.indexes.First(); b != null; b = b.Next())
+        {
+            var x = (SIndex)tr.objects.get(b.getValue().key);
+            if (x.cols.element == u && x.Built(tr) 
+                    && !(x.Rows(tr) instanceof SPagedTree))
+                return x;
+        }
+        return null;
+    }
+    /// <summary>
+    /// The least (or greatest) non-null leading key value in t, or null
+    /// </summary>
+    static Serialisable End(SMTree<Serialisable> t,boolean greatest)
+    {
+        if (t._impl == null)
+            return null;
+        var last = greatest == t._impl.info.asc;
+        var c = new SCursor<Variant,Variant>(t._impl);
+        for (var s = last?c.Last():c.First(); s != null;
+                s = last?c.Previous():c.Next())
+        {
+            var v = (Serialisable)s.key.ob;
+            if (v != null && v.type != Types.Serialisable)
+                return v;
+        }
+        return null;
+    }
+    /// <summary>
+    /// The scan: each batch takes the next Size records, and keeps those
+    /// that satisfy _where. A part of the scan starts after the key
+    /// p.after and ends at p.last.
+    /// </summary>
+    class TableRowBatches extends RowBatch.Cursor {
+
+        public final TableRowSet _trs;
+        final RowBatch _rb;
+        final Long _last;
+        final SCursor<Long, Long> _cur; // a batch scan does not need bookmarks
+        SSlot<Long, Long> _s; // the next row, or null
+
+        TableRowBatches(TableRowSet trs, ParallelScan.Part p)
+        {
+            _trs = trs;
+            _rb = new RowBatch(trs, trs._tr.Table(trs._tb), trs._lazy, RowBatch.Size);
+            _cur = new SCursor<>(trs._tb.rows);
+            _last = (p == null) ? null : p.last;
+            if (p == null || p.after == null)
+                _s = _cur.First();
+            else
+            {
+                _s = _cur.PositionAt(p.after);
+                while (_s != null && _s.key <= p.after)
+                    _s = _cur.Next();
+            }
+        }
+        @Override
+        public RowBatch Next() throws Exception
+        {
+            while (_s != null)
+            {
+                var n = 0;
+                for (; _s != null && n < RowBatch.Size; _s = _cur.Next(), n++)
+                {
+                    if (_last != null && _s.key > _last)
+                    {
+                        _s = null;
+                        break;
+                    }
+                    _rb.Load(n, _s.val);
+                    _rb.sel[n] = n;
+                }
+                _rb.count = n;
+                _rb.Filter(_trs._tr, _trs._where);
+                if (_rb.count > 0)
+                    return _rb;
+            }
+            return null;
+        }
+    }
+
     class TableRowBookmark extends RowBookmark {
 
         public final TableRowSet _trs;
@@ -39,7 +256,7 @@ public class TableRowSet extends RowSet {
                 throws Exception
         {
             super(trs,_Cx(trs,new SRow(trs._tr,
-                    trs._tr.Get(bm.getValue().val)),null), p);
+                    trs._tr.Get(bm.getValue().val),trs._rt),null), p);
             _trs = trs;
             _bmk = bm;
         }
@@ -47,9 +264,10 @@ public class TableRowSet extends RowSet {
         @Override
         public Bookmark<Serialisable> Next() {
             try {
-                var b = _bmk.Next();
-                return (b != null)
-                        ? new TableRowBookmark(_trs, b, Position + 1) : null;
+                for (var b = _bmk.Next(); b != null; b = b.Next())
+                    if (_trs.Matches(b))
+                        return new TableRowBookmark(_trs, b, Position + 1);
+                return null;
             } catch (Exception e) {
                 return null;
             }
@@ -32,7 +32,7 @@ public class Types {
             SSearch = 18,
             SBegin = 19,
             SRollback = 20,
-            SCommit = 21,
+            SCommit = 21, // also ends each commit in the log: see SDatabase.Load
             SCreateTable = 22,
             SCreateColumn = 23,
             SUpdateSearch = 24,
@@ -65,7 +65,11 @@ public class Types {
             SQuery = 51, // only used for "STATIC"
             SSysTable = 52,
             SCreateView = 53,
-            SDropIndex = 54;
+            SDropIndex = 54,
+            BulkLoad = 55,
+            Compact = 56,
+            SStringRef = 57, // a coded string in a log record: see SStringDict
+            SMaterializedView = 58;
     static String[] types = new String[]{
         "", "?", "Integer", "Numeric", "String", "Date", "TimeSpan",//0-6
         "Boolean", "Row", "Table", "Column", "Record", "Update", "Delete",//7-13
@@ -76,7 +80,8 @@ public class Types {
         "SFunction","SValues","SOrder","SBigInt","SInPredicate",//36-40
         "DescribedGet","SGroupQuery","STableExp","SAlias",//41-44
         "SSelector","SArg","SRole","SUser","SName","SNames",//45-50
-        "SQuery","SSysTable","SCreateView","SDropIndex" //51-54
+        "SQuery","SSysTable","SCreateView","SDropIndex", //51-54
+        "BulkLoad", "Compact", "SStringRef", "MaterializedView" //55-58
     };
 
     public static String toString(int t) {
@@ -6,6 +6,7 @@
 package org.shareabledata;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.*;
 
@@ -16,9 +17,9 @@ import java.util.*;
  */
 public class Writer extends WriterBase {
 
-    public RandomAccessFile file; // shared with Reader(s)
+    public LogFile file; // shared with Reader(s)
     SDict<Long, Long> uids = null; // used for movement of SDbObjects
-    public Writer(RandomAccessFile f)
+    public Writer(LogFile f)
     {
         file = f;
     }
@@ -28,7 +29,8 @@ public class Writer extends WriterBase {
     Serialisable Lookup(SDatabase db, long pos)
     {
         pos = Fix(pos);
-        if (pos>=STransaction._uid)
+        // an object written earlier in this commit may not be flushed yet
+        if (pos>=STransaction._uid || db.objects.Contains(pos))
             return db.objects.Lookup(pos);
         try {
             return new Reader(db,pos)._Get();
@@ -45,18 +47,35 @@ public class Writer extends WriterBase {
         }
         return pos;
     }
+    /// <summary>
+    /// The fields of a record, with the uids of columns that are being
+    /// committed replaced by their file positions
+    /// </summary>
+    SDict<Long,Serialisable> Fix(SDict<Long,Serialisable> fs)
+    {
+        var r = fs;
+        if (fs != null)
+            for (var b = fs.First(); b != null; b = b.Next()) {
+                long k = b.getValue().key;
+                var u = Fix(k);
+                if (u != k)
+                    r = r.Remove(k).Add(u, b.getValue().val);
+            }
+        return r;
+    }
   
     public SDatabase Commit(SDatabase db, STransaction tr) throws Exception {
         uids = new SDict<Long, Long>(-1L, -1L);
         // We need two passes: manage a cache of SRecords being deleted or updated
         // before we start writing
         SDict<Long,SRecord> cache = null; 
-        for (var b=tr.objects.PositionAt(STransaction._uid);b!=null;b=b.Next())
-            switch(b.getValue().val.type) 
+        var wc = new SCursor<>(tr.objects);
+        for (var b=wc.PositionAt(STransaction._uid);b!=null;b=wc.Next())
+            switch(b.val.type) 
             {
                 case Types.SUpdate:
                 {
-                    var su = (SUpdate)b.getValue().val;
+                    var su = (SUpdate)b.val;
                     var u = su.Defpos();
                     var sr = db.Get(u);
                     cache = (cache==null)?new SDict(u,sr):cache.Add(u, sr);
@@ -64,7 +83,7 @@ public class Writer extends WriterBase {
                 }
                 case Types.SDelete:
                 {
-                    var sd = (SDelete)b.getValue().val;
+                    var sd = (SDelete)b.val;
                     var u = sd.delpos;
                     var sr = db.Get(u);
                     cache = (cache==null)?new SDict(u,sr):cache.Add(u, sr);
@@ -72,11 +91,10 @@ public class Writer extends WriterBase {
                 }
             }
         if (tr.objects!=null)
-        for (var b = tr.objects.PositionAt(STransaction._uid); b != null; b = b.Next()) {
-            var bs = b.getValue();
+        for (var bs = wc.PositionAt(STransaction._uid); bs != null; bs = wc.Next()) {
             switch (bs.val.type) {
                 case Types.STable: {
-                    var st = (STable) b.getValue().val;
+                    var st = (STable) bs.val;
                     var nm = tr.Name(st.uid);
                     var nt = new STable(st, nm, this);
                     db = db._Add(nt, nm, length());
@@ -84,6 +102,8 @@ public class Writer extends WriterBase {
                 }
                 case Types.SColumn: {
                     var sc = (SColumn) bs.val;
+                    if (tr.objects.get(sc.table) instanceof SMaterializedView)
+                        break; // written with the view
                     var nm = tr.Name(sc.uid);
                     var nc = new SColumn(sc, nm, this);
                     var tb = (STable)db.objects.get(nc.table);
@@ -93,6 +113,22 @@ public class Writer extends WriterBase {
                             .Add(tb.uid,-1,nc.uid,nm);
                     break;
                 }
+                case Types.SMaterializedView: {
+                    var sv = (SMaterializedView) bs.val;
+                    var nm = tr.Name(sv.uid);
+                    var nv = new SMaterializedView(sv, nm, tr, this);
+                    var cs = new SColumn[sv.cpos.Length];
+                    var ns = new String[cs.length];
+                    for (var c = sv.cpos.First(); c != null; c = c.Next()) {
+                        var sc = (SColumn)c.getValue().val;
+                        var i = c.getValue().key;
+                        cs[i] = new SColumn(Fix(sc.uid), nv.uid, sc.dataType);
+                        ns[i] = tr.Name(sc.uid);
+                    }
+                    Flush(); // the view is built from rows that may be in this commit
+                    db = db.Install(nv, nm, cs, ns, length());
+                    break;
+                }
                 case Types.SRecord: {
                     var sr = (SRecord) bs.val;
                     var st = (STable) Lookup(db, Fix(sr.table));
@@ -108,39 +144,158 @@ public class Writer extends WriterBase {
                     break;
                 }
                 case Types.SUpdate: {
-                    var su = (SUpdate) b.getValue().val;
+                    var su = (SUpdate) bs.val;
                     var st = (STable) Lookup(db, Fix(su.table));
                     var nr = new SUpdate(db, su, this);
                     db = db._Add(nr,length());
                     break;
                 }
                 case Types.SAlter: {
-                    var sa = new SAlter((SAlter) b.getValue().val, this);
+                    var sa = new SAlter((SAlter) bs.val, this);
                     db = db._Add(sa, length());
                     break;
                 }
                 case Types.SDrop: {
-                    var sd = new SDrop((SDrop) b.getValue().val, this);
+                    var sd = new SDrop((SDrop) bs.val, this);
                     db = db._Add(sd, length());
                     break;
                 }
                 case Types.SIndex: {
-                    var si = new SIndex(db,(SIndex) b.getValue().val, this);
+                    var si = new SIndex(db,(SIndex) bs.val, this);
                     db = db._Add(si, length());
                     break;
                 }
                 case Types.SDropIndex:
                 {
-                    var di = new SDropIndex(db, (SDropIndex)b.getValue().val, this);
+                    var di = new SDropIndex(db, (SDropIndex)bs.val, this);
                     db = db._Add(di, length());
                     break;
                 }
             }
         }
+        WriteByte((byte)Types.SCommit); // the end of the commit
         Flush();
         SDatabase.Install(db);
         return db;
     }
+    /// <summary>
+    /// Write a compacted copy of db (see SDatabase.Compact): each live table
+    /// with its columns and the current version of each of its records,
+    /// then the indexes. As in Commit, uids maps old positions to new ones.
+    /// </summary>
+    void Compact(SDatabase db) throws Exception {
+        uids = new SDict<Long, Long>(-1L, -1L);
+        SList<SIndex> xs = null;
+        SList<SMaterializedView> vs = null;
+        var nx = 0;
+        var nv = 0;
+        var oc = new SCursor<>(db.objects);
+        for (var b = oc.PositionAt(0L); b != null; b = oc.Next()) {
+            var ob = b.val;
+            if (ob.uid >= STransaction._uid)
+                break;
+            switch (ob.type) {
+                case Types.STable:
+                    Compact(db, (STable)ob);
+                    break;
+                case Types.SIndex:
+                    xs = (xs==null)?new SList((SIndex)ob):xs.InsertAt((SIndex)ob, nx);
+                    nx++;
+                    break;
+                case Types.SMaterializedView:
+                    vs = (vs==null)?new SList((SMaterializedView)ob):
+                            vs.InsertAt((SMaterializedView)ob, nv);
+                    nv++;
+                    break;
+            }
+        }
+        for (var b = (xs==null)?null:xs.First(); b != null; b = b.Next()) {
+            var x = b.getValue();
+            Relocate(x.uid);
+            WriteByte((byte)Types.SIndex);
+            x.PutDef(this);
+        }
+        for (var b = (vs==null)?null:vs.First(); b != null; b = b.Next()) {
+            var v = b.getValue();
+            Relocate(v.uid);
+            WriteByte((byte)Types.SMaterializedView);
+            PutString(db.Name(v.uid));
+            v.PutDef(this, db);
+        }
+        WriteByte((byte)Types.SCommit);
+        Flush();
+    }
+    void Compact(SDatabase db, STable tb) throws Exception {
+        Relocate(tb.uid);
+        WriteByte((byte)Types.STable);
+        tb.PutDef(this, db.Name(tb.uid));
+        if (tb.cpos!=null)
+        for (var b = tb.cpos.First(); b != null; b = b.Next()) {
+            var sc = (SColumn)b.getValue().val;
+            Relocate(sc.uid);
+            WriteByte((byte)Types.SColumn);
+            sc.PutDef(this, db.Name(sc.uid));
+        }
+        // the string dictionaries that loading the new file will build
+        SDict<Long,SStringDict> ss = null;
+        var wc = new SCursor<>(tb.rows);
+        for (var b = wc.First(); b != null; b = wc.Next()) {
+            var rc = db.Get(b.val); // the latest version
+            var u = length();
+            Relocate(b.key);
+            WriteByte((byte)Types.SRecord); // even if rc is an SUpdate
+            rc.PutDef(this, tb, ss);
+            ss = SStringDict.Add(ss, rc.fields, u, tb);
+        }
+    }
+    /// <summary>
+    /// Write the fields of a record, leaving out any not in tb (if given:
+    /// a dropped column). A string in dictionary ss is written as its code.
+    /// If Compression is enabled and the payload is long enough, it is
+    /// written deflated.
+    /// </summary>
+    void PutFields(SDict<Long,Serialisable> fs,STable tb,
+            SDict<Long,SStringDict> ss) throws Exception {
+        var n = 0;
+        if (fs != null)
+            for (var c = fs.First(); c != null; c = c.Next())
+                if (tb == null || tb.cols.Contains(c.getValue().key))
+                    n++;
+        var ml = Compression.minLength;
+        var w = (ml > 0) ? new BytesWriter() : null;
+        WriterBase f = (w != null) ? w : this;
+        f.PutInt(n);
+        if (fs != null)
+            for (var c = fs.First(); c != null; c = c.Next())
+                if (tb == null || tb.cols.Contains(c.getValue().key)) {
+                    var k = c.getValue().key;
+                    var v = c.getValue().val;
+                    f.PutLong(Fix(k));
+                    var d = (ss == null || !SStringDict.Codable(v)) ? null
+                            : ss.Lookup(k);
+                    var u = (d == null) ? null : d.codes.Lookup(((SString)v).str);
+                    if (u != null) {
+                        f.WriteByte((byte)Types.SStringRef);
+                        f.PutLong(u);
+                    } else
+                        v.Put(f);
+                }
+        if (w == null)
+            return;
+        var z = (w.len >= ml) ? Compression.Deflate(w.bytes, w.len) : null;
+        // the header below is at most 8 bytes
+        if (z == null || z.length + 8 >= w.len) {
+            WriteBytes(w.bytes, 0, w.len);
+            return;
+        }
+        PutInt(Compression.Flag);
+        PutInt(w.len);
+        PutInt(z.length);
+        WriteBytes(z, 0, z.length);
+    }
+    void Relocate(long u) throws Exception {
+        uids = uids.Add(u, length());
+    }
     void CommitDone()
     {
         uids = null;
@@ -150,12 +305,10 @@ public class Writer extends WriterBase {
     }
     @Override
     protected void PutBuf() throws Exception {
-        synchronized(file) {
-            var p = file.length();
-            file.seek(p);
-            file.write(buf.buf, 0, buf.pos);
-            buf.pos = 0;
-        } 
+        // Readers never use a file pointer, and STransaction.Commit
+        // holds the log monitor for the whole commit
+        file.append(ByteBuffer.wrap(buf.buf, 0, buf.pos));
+        buf.pos = 0;
     }
     @Override
     public void WriteByte(byte value) throws Exception
@@ -167,6 +320,16 @@ public class Writer extends WriterBase {
         }
         buf.buf[buf.pos++] = value;
     }
+    @Override
+    public void WriteBytes(byte[] b, int off, int len) throws Exception
+    {
+        for (var n = 0; n < len;)
+        {
+            if (buf.pos>=Buffer.Size)
+                PutBuf();
+            n += buf.Put(b, off + n, len - n);
+        }
+    }
     public void Flush() throws Exception {
         PutBuf();
     }
@@ -16,25 +16,30 @@ public abstract class WriterBase extends IOBase {
     }
     public void PutInt(int n) throws Exception
     {
-        PutInteger(new Bigint(n));
+        PutLong(n);
     }
     public void PutInteger(Bigint b) throws Exception
     {
         var m = b.bytes.length;
         WriteByte((byte)m);
-        for (int j = 0; j<m ; j++)
-            WriteByte(b.bytes[j]);
+        WriteBytes(b.bytes, 0, m);
     }
+    /// <summary>
+    /// Same format as PutInteger(new Bigint(n)) but without allocating:
+    /// a length byte followed by the minimal big-endian two's complement bytes
+    /// </summary>
     public void PutLong(long n) throws Exception
     {
-        PutInteger(new Bigint(n));
+        var m = Bigint.Length(n);
+        WriteByte((byte)m);
+        for (int j = m - 1; j >= 0; j--)
+            WriteByte((byte)(n >> (8 * j)));
     }
     public void PutString(String s) {
         try {
             byte[] cs = s.getBytes("UTF-8");
             PutInt(cs.length);
-            for (int i = 0; i < cs.length; i++)
-                WriteByte(cs[i]);
+            WriteBytes(cs, 0, cs.length);
         } catch(Exception e)
         {
             throw new Error("UTF-8 Coding error");
@@ -0,0 +1,128 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.shareabledata;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Malcolm
+ * Reopening a log whose last commit was cut short by a crash. The database
+ * should end at the last complete commit, and the log should be cut back
+ * to it, both for the sequential load and for LogReplay.
+ */
+public class LogTailTest {
+
+    private static File dir;
+
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        dir = Files.createTempDirectory("logtail").toFile();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        for (File f : dir.listFiles())
+            f.delete();
+        dir.delete();
+    }
+
+    private static int rows(SDatabase db) {
+        STable tb = (STable)db.objects.get(db.role.globalNames.get("T"));
+        return tb.rows.Length;
+    }
+
+    private static STransaction insert(STransaction tr, long t, long a, long b,
+            int from, int n, int len) throws Exception {
+        for (int i = from; i < from + n; i++) {
+            Random rnd = new Random(i); // so that the log does not compress
+            StringBuilder sb = new StringBuilder();
+            for (int j = 0; j < len; j++)
+                sb.append((char)('a' + rnd.nextInt(26)));
+            SRecord r = new SRecord(tr, t, new SDict<Long, Serialisable>(a,
+                    new SInteger(i)).Add(b, new SString(sb.toString())));
+            tr = (STransaction)tr.Install(r, tr.curpos);
+        }
+        return tr;
+    }
+
+    /// <summary>
+    /// Create T(A integer,B string) with n rows, then commit n more rows.
+    /// Returns the end of the first commit.
+    /// </summary>
+    private long populate(String name, int n, int len) throws Exception {
+        SDatabase db = SDatabase.Open(dir.getPath(), name);
+        STransaction tr = new STransaction(db, new Reader(db), false);
+        STable tb = new STable(tr);
+        tr = (STransaction)tr.Install(tb, "T", tr.curpos);
+        SColumn a = new SColumn(tr, tb.uid, Types.SInteger, null);
+        tr = (STransaction)tr.Install(a, "A", tr.curpos);
+        SColumn b = new SColumn(tr, tb.uid, Types.SString, null);
+        tr = (STransaction)tr.Install(b, "B", tr.curpos);
+        db = insert(tr, tb.uid, a.uid, b.uid, 0, n, len).Commit().key;
+        long end = db.File().length();
+        tb = (STable)db.objects.get(db.role.globalNames.get("T"));
+        long[] cs = new long[2];
+        int k = 0;
+        for (Bookmark<SSlot<Long, SColumn>> c = tb.cols.First(); c != null; c = c.Next())
+            cs[k++] = c.getValue().key;
+        tr = new STransaction(db, new Reader(db), false);
+        db = insert(tr, tb.uid, cs[0], cs[1], n, n, len).Commit().key;
+        assertEquals(2 * n, rows(db));
+        db.Close();
+        return end;
+    }
+
+    private File tear(String name, String copy, int cut) throws IOException {
+        byte[] b = Files.readAllBytes(new File(dir, name).toPath());
+        File f = new File(dir, copy);
+        Files.write(f.toPath(), Arrays.copyOf(b, b.length - cut));
+        return f;
+    }
+
+    private void reopen(String name, int cut, int n, long end) throws Exception {
+        File f = tear(name, name + cut, cut);
+        SDatabase db = SDatabase.Open(dir.getPath(), name + cut);
+        assertEquals(n, rows(db));
+        assertEquals(end, db.curpos);
+        assertEquals(end, f.length());
+        db.Close();
+    }
+
+    @Test
+    public void testTornCommit() throws Exception {
+        long end = populate("small", 10, 10);
+        reopen("small", 1, 10, end); // only the end of the commit is lost
+        reopen("small", 5, 10, end); // the last record is incomplete
+    }
+
+    @Test
+    public void testTornReplay() throws Exception {
+        int n = 4000;
+        long end = populate("large", n, 500);
+        assertTrue(new File(dir, "large").length() - end >= LogReplay.MinParallel);
+        String copy = "large5";
+        tear("large", copy, 5);
+        LogFile f = LogFile.Open(dir.getPath(), copy);
+        SDatabase.Publish(SDatabase.dbfiles, copy, f);
+        try {
+            SDatabase db = new LogReplay(new SDatabase(copy), 2).Load();
+            assertEquals(n, rows(db));
+            assertEquals(end, db.curpos);
+        } finally {
+            SDatabase.Unpublish(SDatabase.dbfiles, copy);
+            f.close();
+        }
+    }
+}
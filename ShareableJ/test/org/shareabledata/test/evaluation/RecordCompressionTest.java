@@ -0,0 +1,126 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.shareabledata.test.evaluation;
+
+import java.io.IOException;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.shareabledata.BytesWriter;
+import org.shareabledata.Compression;
+import org.shareabledata.SInteger;
+import org.shareabledata.SString;
+
+import org.shareabledata.test.common.*;
+
+/**
+ *
+ * @author Malcolm
+ * The CPU cost of log record compression against the bytes it saves.
+ * Each case serialises record payloads as Writer.PutFields does and
+ * deflates and inflates them one at a time, as the log does. The time
+ * columns in the CSV are for compression (odd counters) and decompression
+ * (even counters); the sizes are printed.
+ */
+public class RecordCompressionTest {
+
+    private static TimeAndMemoryLogger tml;
+
+    @BeforeClass
+    public static void setUpClass() {
+        tml = new TimeAndMemoryLogger();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        try {
+            tml.writeToCSV("RecordCompressionTestOutput_Java.csv");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        Runtime.getRuntime().gc();
+    }
+
+    private interface Fields {
+        void put(BytesWriter w, int i) throws Exception;
+    }
+
+    private void reusableCompressionTestCase(String caseName, int numberOfRecords,
+            Fields fields) throws Exception {
+        tml.setTestCaseName(caseName);
+        byte[][] raw = new byte[numberOfRecords][];
+        long rawBytes = 0;
+        for (int i = 0; i < numberOfRecords; i++) {
+            BytesWriter w = new BytesWriter();
+            fields.put(w, i);
+            raw[i] = Arrays.copyOf(w.bytes, w.len);
+            rawBytes += w.len;
+        }
+        byte[][] packed = new byte[numberOfRecords][];
+        long packedBytes = 0;
+        tml.setInitialTimeAndMemory();
+        for (int i = 0; i < numberOfRecords; i++) {
+            packed[i] = Compression.Deflate(raw[i], raw[i].length);
+            packedBytes += (packed[i] == null) ? raw[i].length : packed[i].length + 4;
+        }
+        tml.logTimeAndMemoryUsage(1);
+        tml.setInitialTimeAndMemory();
+        for (int i = 0; i < numberOfRecords; i++)
+            if (packed[i] != null)
+                assertArrayEquals(raw[i], Compression.Inflate(packed[i], raw[i].length));
+        tml.logTimeAndMemoryUsage(2);
+        System.out.println(caseName + ": " + rawBytes + " bytes, " + packedBytes
+                + " compressed");
+    }
+
+    @Test
+    public void testShortRecords() throws Exception {
+        reusableCompressionTestCase("Short records 10000", 10000, (w, i) -> {
+            w.PutInt(2);
+            w.PutLong(21);
+            new SInteger(i).Put(w);
+            w.PutLong(34);
+            new SString("r" + i).Put(w);
+        });
+    }
+
+    @Test
+    public void testStatusRecords() throws Exception {
+        String[] countries = {"United Kingdom", "France", "Germany", "Spain"};
+        reusableCompressionTestCase("Status records 10000", 10000, (w, i) -> {
+            w.PutInt(3);
+            w.PutLong(21);
+            new SInteger(i).Put(w);
+            w.PutLong(34);
+            new SString((i % 3 == 0) ? "ACTIVE" : "SUSPENDED").Put(w);
+            w.PutLong(47);
+            new SString(countries[i % countries.length]).Put(w);
+        });
+    }
+
+    @Test
+    public void testDocumentRecords() throws Exception {
+        reusableCompressionTestCase("Document records 10000", 10000, (w, i) -> {
+            w.PutInt(2);
+            w.PutLong(21);
+            new SInteger(i).Put(w);
+            w.PutLong(34);
+            StringBuilder sb = new StringBuilder("{\"order\": " + i + ", \"items\": [");
+            for (int j = 0; j < 5; j++)
+                sb.append((j == 0) ? "" : ", ").append("{\"sku\": \"A").append(i + j)
+                        .append("\", \"qty\": ").append(j + 1)
+                        .append(", \"status\": \"DISPATCHED\"}");
+            new SString(sb.append("]}").toString()).Put(w);
+        });
+    }
+}